@@ -0,0 +1,123 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.benchmark;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.ByteBufferMessageSender;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.IConnectionFactory;
+import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * Message sender factories used to measure the overhead of the listener
+ * itself.
+ *
+ */
+public enum BenchmarkMessageSenderFactory implements IMessageSenderFactory {
+	/**
+	 * Messages are discarded before being formatted
+	 */
+	NOOP {
+		public MessageSender getMessageSender() {
+			return new NoopMessageSender();
+		}
+	},
+	/**
+	 * Messages are formatted and written to memory, like
+	 * JSONObjectsMessageSenderFactory. Memory is reused so that long
+	 * benchmarks do not run out of memory.
+	 */
+	MEMORY {
+		public MessageSender getMessageSender() {
+			return new MemoryMessageSender();
+		}
+	},
+	/**
+	 * Messages are encoded by {@link ByteBufferMessageSender} and discarded.
+	 * Run with -prof gc to compare allocations with MEMORY.
+	 */
+	BYTE_BUFFER {
+		public MessageSender getMessageSender() {
+			return new ByteBufferMessageSender(new IConnectionFactory() {
+
+				public OutputStream openConnection() throws IOException {
+					return new OutputStream() {
+
+						@Override
+						public void write(int b) {
+						}
+
+						@Override
+						public void write(byte[] b, int off, int len) {
+						}
+					};
+				}
+			});
+		}
+	};
+
+	private static class NoopMessageSender extends MessageSender {
+
+		@Override
+		public void init() throws IOException {
+		}
+
+		@Override
+		public void shutdown() throws IOException {
+		}
+
+		@Override
+		public void testRunStarted(String runId) throws IOException {
+		}
+
+		@Override
+		public void testRunEnded(long elapsedTime) throws IOException {
+		}
+
+		@Override
+		public void testTree(String testId, String testName, String parentId,
+				boolean isSuite) throws IOException {
+		}
+
+		@Override
+		public void testStarted(String testId, String testName,
+				boolean ignored) throws IOException {
+		}
+
+		@Override
+		public void testEnded(String testId, String testName, boolean ignored)
+				throws IOException {
+		}
+
+		@Override
+		public void testError(String testId, String testName, String trace)
+				throws IOException {
+		}
+
+		@Override
+		public void testFailed(String testId, String testName,
+				String expected, String actual, String trace)
+				throws IOException {
+		}
+
+	}
+
+	private static class MemoryMessageSender extends MessageSender {
+		private static final int MAX_SIZE = 1024 * 1024;
+
+		public MemoryMessageSender() {
+			this.writer = new CharArrayWriter() {
+
+				@Override
+				public synchronized void flush() {
+					if (size() > MAX_SIZE) {
+						reset();
+					}
+				}
+			};
+		}
+
+	}
+
+}
@@ -0,0 +1,89 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.TestInProgressConfiguration;
+import org.imaginea.jenkins.plugins.testinprogress.testng.TestNGProgressRunListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+
+/**
+ * Cost of onTestFailure, which renders and sends the stack trace
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FailureTraceBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int stackDepth;
+
+	@Param({ "NOOP", "MEMORY", "BYTE_BUFFER" })
+	public BenchmarkMessageSenderFactory messageSenderFactory;
+
+	/**
+	 * FULL: historical behavior, LIMITED: depth, length and framework frames
+	 * limited, DEDUPLICATED: identical traces sent only once
+	 */
+	@Param({ "FULL", "LIMITED", "DEDUPLICATED" })
+	public String traceMode;
+
+	private TestNGProgressRunListener listener;
+	private ITestContext context;
+	private ITestResult result;
+
+	@Setup(Level.Iteration)
+	public void startRun() {
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		if ("LIMITED".equals(traceMode)) {
+			configuration.setTraceMaxDepth(20);
+			configuration.setTraceMaxLength(4096);
+			configuration.setTraceFilterFrameworkFrames(true);
+		} else if ("DEDUPLICATED".equals(traceMode)) {
+			configuration.setTraceDeduplicate(true);
+		}
+		ITestNGMethod[] testMethods = FakeTestNG.createTestMethods(1);
+		context = FakeTestNG.createTestContext("failures", testMethods);
+		result = FakeTestNG.createTestResult(context, testMethods[0],
+				createThrowable(stackDepth));
+		listener = new TestNGProgressRunListener(messageSenderFactory,
+				configuration);
+		listener.onStart(context);
+	}
+
+	@TearDown(Level.Iteration)
+	public void finishRun() {
+		listener.onFinish(context);
+	}
+
+	@Benchmark
+	public void testFailure() {
+		listener.onTestFailure(result);
+	}
+
+	private static Throwable createThrowable(int depth) {
+		if (depth <= 1) {
+			return new AssertionError("expected [1] but found [2]");
+		}
+		return createThrowable(depth - 1);
+	}
+
+}
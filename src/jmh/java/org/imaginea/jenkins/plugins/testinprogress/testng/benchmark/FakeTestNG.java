@@ -0,0 +1,165 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.testng.ISuite;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+import org.testng.internal.ConstructorOrMethod;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
+
+/**
+ * Lightweight fakes of the TestNG objects given to the listener, so that the
+ * listener can be benchmarked without running TestNG itself.
+ *
+ */
+public class FakeTestNG {
+	// declaring classes of the fake test methods
+	private static final Class<?>[] TEST_CLASSES = { String.class,
+			Integer.class, Long.class, Double.class, Float.class, Short.class,
+			Byte.class, Character.class, Boolean.class, Object.class,
+			StringBuilder.class, Thread.class, Runtime.class, Math.class,
+			System.class, Number.class };
+
+	private FakeTestNG() {
+	}
+
+	/**
+	 * Create test methods with distinct names, spread over a few classes
+	 *
+	 * @param count
+	 * @return
+	 */
+	public static ITestNGMethod[] createTestMethods(int count) {
+		ITestNGMethod[] testMethods = new ITestNGMethod[count];
+		for (int i = 0; i < count; i++) {
+			Map<String, Object> values = new HashMap<String, Object>();
+			values.put("getConstructorOrMethod", new FakeMethod(
+					TEST_CLASSES[i % TEST_CLASSES.length], "test" + i));
+			testMethods[i] = fake(ITestNGMethod.class, values);
+		}
+		return testMethods;
+	}
+
+	public static ITestContext createTestContext(String name,
+			ITestNGMethod[] testMethods) {
+		Map<String, Object> suiteValues = new HashMap<String, Object>();
+		suiteValues.put("getName", "Benchmark suite");
+		XmlTest xmlTest = new XmlTest(new XmlSuite());
+		xmlTest.setName(name);
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("getName", name);
+		values.put("getSuite", fake(ISuite.class, suiteValues));
+		values.put("getCurrentXmlTest", xmlTest);
+		values.put("getAllTestMethods", testMethods);
+		values.put("getStartDate", new Date());
+		values.put("getEndDate", new Date());
+		return fake(ITestContext.class, values);
+	}
+
+	public static ITestResult createTestResult(ITestContext context,
+			ITestNGMethod testMethod, Throwable throwable) {
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("getTestContext", context);
+		values.put("getMethod", testMethod);
+		values.put("getThrowable", throwable);
+		return fake(ITestResult.class, values);
+	}
+
+	private static <T> T fake(Class<T> type, Map<String, Object> values) {
+		return type.cast(Proxy.newProxyInstance(FakeTestNG.class
+				.getClassLoader(), new Class<?>[] { type },
+				new FakeInvocationHandler(values)));
+	}
+
+	/**
+	 * Returns the configured value for each method. Attributes are supported
+	 * as the listener stores its state in the test context.
+	 */
+	private static class FakeInvocationHandler implements InvocationHandler {
+		private final Map<String, Object> values;
+		private final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+
+		public FakeInvocationHandler(Map<String, Object> values) {
+			this.values = values;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			String name = method.getName();
+			if ("getAttribute".equals(name)) {
+				return attributes.get(args[0]);
+			} else if ("setAttribute".equals(name)) {
+				attributes.put((String) args[0], args[1]);
+				return null;
+			} else if ("removeAttribute".equals(name)) {
+				return attributes.remove(args[0]);
+			} else if ("getAttributeNames".equals(name)) {
+				return attributes.keySet();
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("toString".equals(name)) {
+				return "Fake" + values;
+			}
+			return values.get(name);
+		}
+	}
+
+	/**
+	 * A test method that does not need to exist
+	 */
+	private static class FakeMethod extends ConstructorOrMethod {
+		private final Class<?> declaringClass;
+		private final String name;
+
+		public FakeMethod(Class<?> declaringClass, String name) {
+			super(getAnyMethod());
+			this.declaringClass = declaringClass;
+			this.name = name;
+		}
+
+		private static Method getAnyMethod() {
+			try {
+				return Object.class.getMethod("toString");
+			} catch (NoSuchMethodException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public Class<?> getDeclaringClass() {
+			return declaringClass;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * declaringClass.hashCode() + name.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof FakeMethod)) {
+				return false;
+			}
+			FakeMethod other = (FakeMethod) obj;
+			return declaringClass == other.declaringClass
+					&& name.equals(other.name);
+		}
+	}
+
+}
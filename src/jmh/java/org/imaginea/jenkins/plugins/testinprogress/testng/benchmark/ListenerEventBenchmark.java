@@ -0,0 +1,97 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.TestNGProgressRunListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+
+/**
+ * Overhead of the listener for each test (onTestStart then onTestSuccess)
+ * when tests of the same run are executed by several threads (parallel
+ * methods).
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListenerEventBenchmark {
+	private static final int TEST_METHODS = 1000;
+
+	@Param({ "NOOP", "MEMORY", "BYTE_BUFFER" })
+	public BenchmarkMessageSenderFactory messageSenderFactory;
+
+	private TestNGProgressRunListener listener;
+	private ITestContext context;
+	private ITestResult[] results;
+
+	@Setup(Level.Iteration)
+	public void startRun() {
+		ITestNGMethod[] testMethods = FakeTestNG
+				.createTestMethods(TEST_METHODS);
+		context = FakeTestNG.createTestContext("events", testMethods);
+		results = new ITestResult[testMethods.length];
+		for (int i = 0; i < testMethods.length; i++) {
+			results[i] = FakeTestNG.createTestResult(context, testMethods[i],
+					null);
+		}
+		listener = new TestNGProgressRunListener(messageSenderFactory);
+		listener.onStart(context);
+	}
+
+	@TearDown(Level.Iteration)
+	public void finishRun() {
+		listener.onFinish(context);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void testEvents1Thread() {
+		runTest();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void testEvents4Threads() {
+		runTest();
+	}
+
+	@Benchmark
+	@Threads(16)
+	public void testEvents16Threads() {
+		runTest();
+	}
+
+	@Benchmark
+	@Threads(64)
+	public void testEvents64Threads() {
+		runTest();
+	}
+
+	private void runTest() {
+		ITestResult result = results[ThreadLocalRandom.current().nextInt(
+				results.length)];
+		listener.onTestStart(result);
+		listener.onTestSuccess(result);
+	}
+
+}
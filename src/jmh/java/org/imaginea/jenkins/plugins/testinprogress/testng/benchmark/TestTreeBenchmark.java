@@ -0,0 +1,62 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.TestInProgressConfiguration;
+import org.imaginea.jenkins.plugins.testinprogress.testng.TestNGProgressRunListener;
+import org.imaginea.jenkins.plugins.testinprogress.testng.TestTreeMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+
+/**
+ * Cost of onStart (test tree emission) and onFinish for runs of various sizes
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TestTreeBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int testMethods;
+
+	@Param({ "NOOP", "MEMORY", "BYTE_BUFFER" })
+	public BenchmarkMessageSenderFactory messageSenderFactory;
+
+	@Param({ "EAGER", "STREAMING", "LAZY" })
+	public TestTreeMode testTreeMode;
+
+	private ITestNGMethod[] methods;
+	private TestNGProgressRunListener listener;
+
+	@Setup
+	public void setUp() {
+		methods = FakeTestNG.createTestMethods(testMethods);
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setTestTreeMode(testTreeMode);
+		listener = new TestNGProgressRunListener(messageSenderFactory,
+				configuration);
+	}
+
+	@Benchmark
+	public void testRun() {
+		ITestContext context = FakeTestNG.createTestContext("tree", methods);
+		listener.onStart(context);
+		listener.onFinish(context);
+	}
+
+}
@@ -0,0 +1,220 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Durations of the test methods in the previous runs, stored in a local file.
+ *
+ * <pre>
+ * file := MAGIC VERSION count hash[count] duration[count]
+ * </pre>
+ *
+ * Methods are keyed by the 64 bits FNV-1a hash of their name and hashes are
+ * sorted, so loading the file is a bulk read of two long arrays and a lookup
+ * is a binary search: no object is created per entry. The durations recorded
+ * during a run are merged with the current content of the file when the store
+ * is saved, the file being replaced atomically.
+ *
+ * The listeners of a JVM share one store per file (see
+ * {@link #getInstance(File)}) so that their saves do not overwrite each
+ * other.
+ *
+ */
+class DurationStore {
+	private static final int MAGIC = 0x54495044; // TIPD
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 12;
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	private static final long[] EMPTY = new long[0];
+	private static final Map<File, DurationStore> INSTANCES = new HashMap<File, DurationStore>();
+	private final File file;
+	// hashes and durations, replaced as a whole when loading
+	private volatile long[][] entries = { EMPTY, EMPTY };
+	private final Map<Long, Long> recordedDurations = new ConcurrentHashMap<Long, Long>();
+
+	public DurationStore(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Get the store shared by the listeners of this JVM for the file
+	 * 
+	 * @param file
+	 * @return
+	 */
+	public static synchronized DurationStore getInstance(File file) {
+		File key = file.getAbsoluteFile();
+		DurationStore durationStore = INSTANCES.get(key);
+		if (durationStore == null) {
+			durationStore = new DurationStore(key);
+			INSTANCES.put(key, durationStore);
+		}
+		return durationStore;
+	}
+
+	/**
+	 * Load the durations from the file. A missing or invalid file is an empty
+	 * store.
+	 * 
+	 * @throws IOException
+	 */
+	public void load() throws IOException {
+		entries = read(file);
+	}
+
+	/**
+	 * Get the duration of the method in the previous runs
+	 * 
+	 * @param key
+	 * @return the duration in ms or -1 if unknown
+	 */
+	public long getDuration(String key) {
+		long[][] entries = this.entries;
+		int index = Arrays.binarySearch(entries[0], hash(key));
+		return index < 0 ? -1 : entries[1][index];
+	}
+
+	/**
+	 * Record the duration of the method for this run
+	 * 
+	 * @param key
+	 * @param duration
+	 *            in ms
+	 */
+	public void record(String key, long duration) {
+		recordedDurations.put(hash(key), duration);
+	}
+
+	/**
+	 * Merge the recorded durations with the durations of the file. The stored
+	 * duration is the mean of the previous one and the new one so that
+	 * estimates follow the trend without jumping on a single slow run. The
+	 * saved durations are forgotten so that the next save of the store does
+	 * not merge them again.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		// another run may have saved durations since we loaded them
+		long[][] entries = read(file);
+		long[] oldHashes = entries[0];
+		long[] oldDurations = entries[1];
+		// durations may be recorded while saving
+		Map<Long, Long> savedDurations = new HashMap<Long, Long>(
+				recordedDurations);
+		long[] newHashes = new long[savedDurations.size()];
+		int n = 0;
+		for (Long hash : savedDurations.keySet()) {
+			newHashes[n++] = hash;
+		}
+		Arrays.sort(newHashes, 0, n);
+
+		// unique in the directory, other JVMs may save the same store
+		File tmpFile = File.createTempFile("." + file.getName() + "-", ".tmp",
+				file.getAbsoluteFile().getParentFile());
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(tmpFile)));
+			int count = 0;
+			long[] mergedHashes = new long[oldHashes.length + n];
+			long[] mergedDurations = new long[mergedHashes.length];
+			int i = 0;
+			int j = 0;
+			while (i < oldHashes.length || j < n) {
+				if (j == n
+						|| (i < oldHashes.length && oldHashes[i] < newHashes[j])) {
+					mergedHashes[count] = oldHashes[i];
+					mergedDurations[count++] = oldDurations[i++];
+				} else {
+					long duration = savedDurations.get(newHashes[j]);
+					if (i < oldHashes.length && oldHashes[i] == newHashes[j]) {
+						duration = (oldDurations[i++] + duration) / 2;
+					}
+					mergedHashes[count] = newHashes[j++];
+					mergedDurations[count++] = duration;
+				}
+			}
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(count);
+			for (int k = 0; k < count; k++) {
+				out.writeLong(mergedHashes[k]);
+			}
+			for (int k = 0; k < count; k++) {
+				out.writeLong(mergedDurations[k]);
+			}
+			out.close();
+			out = null;
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(),
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			if (out != null) {
+				out.close();
+			}
+			tmpFile.delete();
+		}
+		for (Map.Entry<Long, Long> savedDuration : savedDurations.entrySet()) {
+			recordedDurations.remove(savedDuration.getKey(),
+					savedDuration.getValue());
+		}
+	}
+
+	private static long[][] read(File file) throws IOException {
+		if (!file.isFile()) {
+			return new long[][] { EMPTY, EMPTY };
+		}
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			byte[] bytes = new byte[(int) in.length()];
+			in.readFully(bytes);
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			if (bytes.length < HEADER_SIZE || buffer.getInt() != MAGIC
+					|| buffer.getInt() != VERSION) {
+				return new long[][] { EMPTY, EMPTY };
+			}
+			int count = buffer.getInt();
+			if (bytes.length != HEADER_SIZE + 16L * count) {
+				return new long[][] { EMPTY, EMPTY };
+			}
+			LongBuffer longs = buffer.asLongBuffer();
+			long[] hashes = new long[count];
+			long[] durations = new long[count];
+			longs.get(hashes);
+			longs.get(durations);
+			return new long[][] { hashes, durations };
+		} finally {
+			in.close();
+		}
+	}
+
+	static long hash(String key) {
+		long hash = FNV_OFFSET_BASIS;
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+}
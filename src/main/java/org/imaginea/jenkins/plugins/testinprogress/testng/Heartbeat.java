@@ -0,0 +1,74 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Activity of a run since the previous heartbeat: tests completed and their
+ * rate, tests in flight, heap usage and time spent in GC.
+ *
+ * Tests are recorded by the test threads, heartbeats are taken by a single
+ * thread.
+ *
+ */
+class Heartbeat {
+	private static final long MB = 1024 * 1024;
+	private final AtomicLong completed = new AtomicLong();
+	private long lastTime;
+	private long lastCompleted;
+	private long lastGcTime;
+
+	public Heartbeat() {
+		this.lastTime = System.currentTimeMillis();
+		this.lastGcTime = getGcTime();
+	}
+
+	public void testEnded() {
+		completed.incrementAndGet();
+	}
+
+	/**
+	 * Get the activity since the previous heartbeat
+	 * 
+	 * @param inFlight
+	 *            number of tests in flight
+	 * @return
+	 */
+	public String nextHeartbeat(int inFlight) {
+		long now = System.currentTimeMillis();
+		long completedTests = completed.get();
+		long gcTime = getGcTime();
+		long elapsedMs = now - lastTime;
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean()
+				.getHeapMemoryUsage();
+		String heartbeat = "heartbeat: "
+				+ (completedTests - lastCompleted)
+				+ " tests completed in "
+				+ ProgressEstimator.formatDuration(elapsedMs)
+				+ " ("
+				+ SuiteRunListener.formatThroughput(completedTests
+						- lastCompleted, elapsedMs) + "), " + inFlight
+				+ " in flight, heap " + heap.getUsed() / MB + "/"
+				+ (heap.getMax() < 0 ? heap.getCommitted() : heap.getMax())
+				/ MB + " MB, GC "
+				+ (elapsedMs <= 0 ? 0 : (gcTime - lastGcTime) * 100 / elapsedMs)
+				+ "%";
+		lastTime = now;
+		lastCompleted = completedTests;
+		lastGcTime = gcTime;
+		return heartbeat;
+	}
+
+	private static long getGcTime() {
+		long gcTime = 0;
+		for (GarbageCollectorMXBean garbageCollector : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			// -1 if not available
+			gcTime += Math.max(0, garbageCollector.getCollectionTime());
+		}
+		return gcTime;
+	}
+
+}
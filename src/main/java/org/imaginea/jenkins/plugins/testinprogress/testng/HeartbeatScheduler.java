@@ -0,0 +1,68 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.log4testng.Logger;
+
+/**
+ * Runs the periodic tasks of all the runs of the JVM (heartbeats) on a single
+ * daemon thread, so that they keep running when the test threads are
+ * blocked.
+ *
+ * A task that throws an exception is not run anymore.
+ *
+ */
+class HeartbeatScheduler {
+	private static final Logger LOGGER = Logger
+			.getLogger(HeartbeatScheduler.class);
+	private static HeartbeatScheduler instance;
+	private final ScheduledExecutorService executor;
+
+	HeartbeatScheduler() {
+		executor = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable,
+								"TestInProgress heartbeat");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	public static synchronized HeartbeatScheduler getInstance() {
+		if (instance == null) {
+			instance = new HeartbeatScheduler();
+		}
+		return instance;
+	}
+
+	/**
+	 * Run the task every periodMs until it is cancelled
+	 * 
+	 * @param task
+	 * @param periodMs
+	 * @return the future to cancel the task
+	 */
+	public ScheduledFuture<?> schedule(final Runnable task, long periodMs) {
+		return executor.scheduleAtFixedRate(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					LOGGER.error("TestInProgress periodic task failed", e);
+					throw e;
+				}
+			}
+		}, periodMs, periodMs, TimeUnit.MILLISECONDS);
+	}
+
+}
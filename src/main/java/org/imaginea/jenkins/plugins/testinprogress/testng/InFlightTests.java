@@ -0,0 +1,86 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The tests of a run that have started and not ended yet, with their start
+ * time and the thread running them.
+ *
+ */
+class InFlightTests {
+	private final Set<InFlightTest> tests = Collections
+			.newSetFromMap(new ConcurrentHashMap<InFlightTest, Boolean>());
+
+	/**
+	 * Record the start of a test by the current thread
+	 * 
+	 * @param descriptor
+	 * @return the in-flight test to give back when the test ends
+	 */
+	public InFlightTest started(TestMethodDescriptor descriptor) {
+		InFlightTest test = new InFlightTest(descriptor,
+				System.currentTimeMillis(), Thread.currentThread());
+		tests.add(test);
+		return test;
+	}
+
+	public void ended(InFlightTest test) {
+		tests.remove(test);
+	}
+
+	public int size() {
+		return tests.size();
+	}
+
+	/**
+	 * Get the tests running for more than the threshold that have not been
+	 * returned yet. Each test is returned once.
+	 * 
+	 * @param thresholdMs
+	 * @return
+	 */
+	public List<InFlightTest> getOverdueTests(long thresholdMs) {
+		long now = System.currentTimeMillis();
+		List<InFlightTest> overdueTests = new ArrayList<InFlightTest>();
+		for (InFlightTest test : tests) {
+			if (!test.overdue && now - test.startTime > thresholdMs) {
+				test.overdue = true;
+				overdueTests.add(test);
+			}
+		}
+		return overdueTests;
+	}
+
+	static class InFlightTest {
+		private final TestMethodDescriptor descriptor;
+		private final long startTime;
+		private final Thread thread;
+		// only used by the watchdog
+		private boolean overdue = false;
+
+		InFlightTest(TestMethodDescriptor descriptor, long startTime,
+				Thread thread) {
+			this.descriptor = descriptor;
+			this.startTime = startTime;
+			this.thread = thread;
+		}
+
+		public TestMethodDescriptor getDescriptor() {
+			return descriptor;
+		}
+
+		public long getStartTime() {
+			return startTime;
+		}
+
+		public Thread getThread() {
+			return thread;
+		}
+
+	}
+
+}
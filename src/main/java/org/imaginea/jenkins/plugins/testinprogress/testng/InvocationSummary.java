@@ -0,0 +1,116 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+/**
+ * Aggregates the invocations of a coalesced test method (ie a method with a
+ * data provider or an invocation count) between two summaries.
+ *
+ * Not thread safe, invocations of a method are recorded while holding the
+ * lock of the method.
+ *
+ */
+class InvocationSummary {
+	private final long intervalMs;
+	private int invocations;
+	private int passed;
+	private int failed;
+	private int failedWithinSuccessPercentage;
+	private int skipped;
+	private long minDuration = Long.MAX_VALUE;
+	private long maxDuration;
+	private long totalDuration;
+	// invocations in the summaries already sent
+	private int sentInvocations;
+	private long windowStart;
+
+	public InvocationSummary(long intervalMs) {
+		this.intervalMs = intervalMs;
+		this.windowStart = System.currentTimeMillis();
+	}
+
+	public void recordPassed(long duration) {
+		passed++;
+		record(duration);
+	}
+
+	public void recordFailed(long duration) {
+		failed++;
+		record(duration);
+	}
+
+	public void recordFailedWithinSuccessPercentage(long duration) {
+		failedWithinSuccessPercentage++;
+		record(duration);
+	}
+
+	public void recordSkipped() {
+		skipped++;
+		invocations++;
+	}
+
+	private void record(long duration) {
+		invocations++;
+		minDuration = Math.min(minDuration, duration);
+		maxDuration = Math.max(maxDuration, duration);
+		totalDuration += duration;
+	}
+
+	/**
+	 * @return true if a summary should be sent, ie the interval has elapsed
+	 *         since the previous one
+	 */
+	public boolean isDue() {
+		return invocations > 0
+				&& System.currentTimeMillis() - windowStart >= intervalMs;
+	}
+
+	public boolean isEmpty() {
+		return invocations == 0;
+	}
+
+	/**
+	 * @return true if all the invocations of the current window were skipped
+	 */
+	public boolean isSkipped() {
+		return invocations == skipped;
+	}
+
+	/**
+	 * Get the name of the summary for the current window and start a new
+	 * window
+	 * 
+	 * @return
+	 */
+	public String nextSummary() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("invocations ").append(sentInvocations + 1).append('-')
+				.append(sentInvocations + invocations).append(": ")
+				.append(passed).append(" passed, ").append(failed)
+				.append(" failed, ");
+		if (failedWithinSuccessPercentage > 0) {
+			sb.append(failedWithinSuccessPercentage).append(
+					" failed within success percentage, ");
+		}
+		sb.append(skipped).append(" skipped");
+		int timed = passed + failed + failedWithinSuccessPercentage;
+		if (timed > 0) {
+			sb.append(" (min ").append(minDuration).append(" ms, avg ")
+					.append(totalDuration / timed).append(" ms, max ")
+					.append(maxDuration).append(" ms)");
+		}
+		sentInvocations += invocations;
+		invocations = passed = failed = 0;
+		failedWithinSuccessPercentage = skipped = 0;
+		minDuration = Long.MAX_VALUE;
+		maxDuration = totalDuration = 0;
+		windowStart = System.currentTimeMillis();
+		return sb.toString();
+	}
+
+	/**
+	 * @return the number of the next invocation
+	 */
+	public int getNextInvocation() {
+		return sentInvocations + invocations + 1;
+	}
+
+}
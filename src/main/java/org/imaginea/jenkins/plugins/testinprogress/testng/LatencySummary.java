@@ -0,0 +1,64 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of a latency histogram. Values are in nanoseconds.
+ *
+ */
+public class LatencySummary {
+	private final long count;
+	private final long mean;
+	private final long p50;
+	private final long p90;
+	private final long p99;
+	private final long max;
+
+	@ConstructorProperties({ "count", "mean", "p50", "p90", "p99", "max" })
+	public LatencySummary(long count, long mean, long p50, long p90, long p99,
+			long max) {
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.max = max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMean() {
+		return mean;
+	}
+
+	public long getP50() {
+		return p50;
+	}
+
+	public long getP90() {
+		return p90;
+	}
+
+	public long getP99() {
+		return p99;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + ", mean=" + toMicros(mean) + "us, p50="
+				+ toMicros(p50) + "us, p90=" + toMicros(p90) + "us, p99="
+				+ toMicros(p99) + "us, max=" + toMicros(max) + "us";
+	}
+
+	private static long toMicros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+}
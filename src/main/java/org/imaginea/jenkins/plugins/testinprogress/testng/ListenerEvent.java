@@ -0,0 +1,9 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+/**
+ * The TestNG callbacks handled by the listener
+ *
+ */
+public enum ListenerEvent {
+	START, TEST_START, TEST_SUCCESS, TEST_FAILURE, TEST_SKIPPED, TEST_FAILED_BUT_WITHIN_SUCCESS_PERCENTAGE, CONFIGURATION_START, CONFIGURATION_SUCCESS, CONFIGURATION_FAILURE, CONFIGURATION_SKIP, FINISH, SUITE_START, SUITE_FINISH
+}
@@ -0,0 +1,204 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.CompressingConnectionFactory;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.CountingMessageSender;
+import org.testng.log4testng.Logger;
+
+/**
+ * Overhead of the TestInProgress listener for all the runs of the JVM.
+ *
+ * Registered in the platform MBean server as {@value #OBJECT_NAME}.
+ *
+ */
+public class ListenerStatistics implements ListenerStatisticsMXBean {
+	public static final String OBJECT_NAME = "org.imaginea.jenkins.plugins.testinprogress.testng:type=ListenerStatistics";
+	private static final Logger LOGGER = Logger
+			.getLogger(ListenerStatistics.class);
+	private static ListenerStatistics instance;
+	private final Map<ListenerEvent, LatencyHistogram> callbackLatencies = new EnumMap<ListenerEvent, LatencyHistogram>(
+			ListenerEvent.class);
+	private final LatencyHistogram lockWait = new LatencyHistogram();
+	private final AtomicLong runs = new AtomicLong();
+	private final AtomicLong messagesSent = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicInteger maxBacklog = new AtomicInteger();
+	private final AtomicLong droppedStarts = new AtomicLong();
+	private final AtomicLong summarizedEnds = new AtomicLong();
+	private final List<CompressingConnectionFactory> compressingConnectionFactories = new CopyOnWriteArrayList<CompressingConnectionFactory>();
+
+	ListenerStatistics() {
+		for (ListenerEvent event : ListenerEvent.values()) {
+			callbackLatencies.put(event, new LatencyHistogram());
+		}
+	}
+
+	/**
+	 * Get the statistics of the JVM, registering them in the platform MBean
+	 * server the first time
+	 *
+	 * @return
+	 */
+	public static synchronized ListenerStatistics getInstance() {
+		if (instance == null) {
+			instance = new ListenerStatistics();
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(
+						instance, new ObjectName(OBJECT_NAME));
+			} catch (JMException e) {
+				LOGGER.warn("Could not register TestInProgress statistics MBean",
+						e);
+			}
+		}
+		return instance;
+	}
+
+	void recordCallback(ListenerEvent event, long nanos) {
+		callbackLatencies.get(event).record(nanos);
+	}
+
+	void recordLockWait(long nanos) {
+		lockWait.record(nanos);
+	}
+
+	void recordRun(CountingMessageSender messageSender) {
+		runs.incrementAndGet();
+		messagesSent.addAndGet(messageSender.getMessages());
+		bytesSent.addAndGet(messageSender.getBytes());
+		int backlog = messageSender.getMaxBacklog();
+		int max;
+		while (backlog > (max = maxBacklog.get())) {
+			if (maxBacklog.compareAndSet(max, backlog)) {
+				break;
+			}
+		}
+	}
+
+	void recordRateLimiting(long droppedStarts, long summarizedEnds) {
+		this.droppedStarts.addAndGet(droppedStarts);
+		this.summarizedEnds.addAndGet(summarizedEnds);
+	}
+
+	void addCompressingConnectionFactory(
+			CompressingConnectionFactory compressingConnectionFactory) {
+		compressingConnectionFactories.add(compressingConnectionFactory);
+	}
+
+	public Map<String, LatencySummary> getCallbackLatencies() {
+		Map<String, LatencySummary> latencies = new LinkedHashMap<String, LatencySummary>();
+		for (Map.Entry<ListenerEvent, LatencyHistogram> entry : callbackLatencies
+				.entrySet()) {
+			latencies.put(entry.getKey().name(), entry.getValue()
+					.getSummary());
+		}
+		return latencies;
+	}
+
+	public long getUncompressedBytes() {
+		long bytes = 0;
+		for (CompressingConnectionFactory factory : compressingConnectionFactories) {
+			bytes += factory.getUncompressedBytes();
+		}
+		return bytes;
+	}
+
+	public long getCompressedBytes() {
+		long bytes = 0;
+		for (CompressingConnectionFactory factory : compressingConnectionFactories) {
+			bytes += factory.getCompressedBytes();
+		}
+		return bytes;
+	}
+
+	public double getCompressionRatio() {
+		long compressedBytes = getCompressedBytes();
+		return compressedBytes == 0 ? 0 : (double) getUncompressedBytes()
+				/ compressedBytes;
+	}
+
+	public LatencySummary getLockWait() {
+		return lockWait.getSummary();
+	}
+
+	public long getRuns() {
+		return runs.get();
+	}
+
+	public long getMessagesSent() {
+		return messagesSent.get();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	public int getMaxBacklog() {
+		return maxBacklog.get();
+	}
+
+	public long getDroppedStarts() {
+		return droppedStarts.get();
+	}
+
+	public long getSummarizedEnds() {
+		return summarizedEnds.get();
+	}
+
+	public void reset() {
+		for (LatencyHistogram histogram : callbackLatencies.values()) {
+			histogram.reset();
+		}
+		lockWait.reset();
+		runs.set(0);
+		messagesSent.set(0);
+		bytesSent.set(0);
+		maxBacklog.set(0);
+		droppedStarts.set(0);
+		summarizedEnds.set(0);
+	}
+
+	/**
+	 * Get a summary of the overhead for a run followed by the callback
+	 * latencies for all the runs
+	 *
+	 * @param runId
+	 * @param messageSender
+	 * @return
+	 */
+	String getSummary(String runId, CountingMessageSender messageSender) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("TestInProgress statistics for ").append(runId)
+				.append(": messages=").append(messageSender.getMessages())
+				.append(", bytes=").append(messageSender.getBytes())
+				.append(", maxBacklog=")
+				.append(messageSender.getMaxBacklog()).append('\n');
+		for (Map.Entry<ListenerEvent, LatencyHistogram> entry : callbackLatencies
+				.entrySet()) {
+			if (entry.getValue().getCount() > 0) {
+				sb.append("  ").append(entry.getKey()).append(": ")
+						.append(entry.getValue().getSummary()).append('\n');
+			}
+		}
+		sb.append("  LOCK_WAIT: ").append(lockWait.getSummary());
+		if (!compressingConnectionFactories.isEmpty()) {
+			sb.append('\n').append(
+					String.format(
+							"  COMPRESSION (all runs): uncompressed=%d, compressed=%d, ratio=%.2f",
+							getUncompressedBytes(), getCompressedBytes(),
+							getCompressionRatio()));
+		}
+		return sb.toString();
+	}
+
+}
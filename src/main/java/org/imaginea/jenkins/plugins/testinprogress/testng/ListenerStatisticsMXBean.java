@@ -0,0 +1,57 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import java.util.Map;
+
+/**
+ * JMX view of the overhead of the TestInProgress listener
+ *
+ */
+public interface ListenerStatisticsMXBean {
+
+	/**
+	 * @return time spent in each listener callback, by {@link ListenerEvent}
+	 */
+	public Map<String, LatencySummary> getCallbackLatencies();
+
+	/**
+	 * @return time spent waiting to handle an event while another event of
+	 *         the same test was handled
+	 */
+	public LatencySummary getLockWait();
+
+	public long getRuns();
+
+	public long getMessagesSent();
+
+	public long getBytesSent();
+
+	/**
+	 * @return max number of messages waiting to be sent observed in a run
+	 */
+	public int getMaxBacklog();
+
+	/**
+	 * @return bytes written to compressed connections, before compression
+	 */
+	public long getUncompressedBytes();
+
+	/**
+	 * @return bytes actually sent on compressed connections
+	 */
+	public long getCompressedBytes();
+
+	public double getCompressionRatio();
+
+	/**
+	 * @return test starts dropped because of the rate limit
+	 */
+	public long getDroppedStarts();
+
+	/**
+	 * @return test ends sent in summaries because of the rate limit
+	 */
+	public long getSummarizedEnds();
+
+	public void reset();
+
+}
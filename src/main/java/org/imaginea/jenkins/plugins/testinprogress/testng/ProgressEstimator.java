@@ -0,0 +1,88 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Estimates the remaining time of a run from the durations of its methods in
+ * the previous runs.
+ *
+ * The remaining time is the sum, for each method whose duration is known, of
+ * its expected duration minus the time it has already taken (if positive).
+ * It is the time left when tests run sequentially.
+ *
+ */
+class ProgressEstimator {
+	private final long intervalMs;
+	private final AtomicLong expected = new AtomicLong();
+	private final AtomicLong remaining = new AtomicLong();
+	private final AtomicLong nextEstimate;
+
+	public ProgressEstimator(long intervalMs) {
+		this.intervalMs = intervalMs;
+		this.nextEstimate = new AtomicLong(System.currentTimeMillis()
+				+ intervalMs);
+	}
+
+	/**
+	 * @param expectedDuration
+	 *            expected duration of a method in ms
+	 */
+	public void addExpected(long expectedDuration) {
+		expected.addAndGet(expectedDuration);
+		remaining.addAndGet(expectedDuration);
+	}
+
+	/**
+	 * Record the end of an invocation of a method
+	 * 
+	 * @param expectedDuration
+	 *            expected duration of the method, -1 if unknown
+	 * @param totalDuration
+	 *            time taken by the method so far, including this invocation
+	 * @param duration
+	 *            duration of this invocation
+	 */
+	public void recordInvocation(long expectedDuration, long totalDuration,
+			long duration) {
+		if (expectedDuration < 0) {
+			return;
+		}
+		long previousDuration = totalDuration - duration;
+		long done = Math.min(totalDuration, expectedDuration)
+				- Math.min(previousDuration, expectedDuration);
+		if (done > 0) {
+			remaining.addAndGet(-done);
+		}
+	}
+
+	public long getExpected() {
+		return expected.get();
+	}
+
+	public long getRemaining() {
+		return remaining.get();
+	}
+
+	/**
+	 * @return true if an estimate should be emitted, ie the interval has
+	 *         elapsed since the previous one. Only one caller gets true.
+	 */
+	public boolean isDue() {
+		long next = nextEstimate.get();
+		long now = System.currentTimeMillis();
+		return now >= next && nextEstimate.compareAndSet(next, now + intervalMs);
+	}
+
+	static String formatDuration(long durationMs) {
+		long seconds = TimeUnit.MILLISECONDS.toSeconds(durationMs);
+		if (seconds < 60) {
+			return seconds + " s";
+		}
+		if (seconds < 3600) {
+			return seconds / 60 + " min " + seconds % 60 + " s";
+		}
+		return seconds / 3600 + " h " + seconds % 3600 / 60 + " min";
+	}
+
+}
@@ -0,0 +1,120 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of messages of a run using a {@link TokenBucket}.
+ *
+ * Test starts are the first messages to be dropped. The end of a test whose
+ * start has been dropped is summarized: it is counted and reported later
+ * with the other unreported tests. Other messages always take their tokens.
+ *
+ */
+class RateLimiter {
+	// tree node, start and end
+	private static final int SUMMARY_COST = 3;
+	private final TokenBucket tokenBucket;
+	private final AtomicInteger unreportedPassed = new AtomicInteger();
+	private final AtomicInteger unreportedSkipped = new AtomicInteger();
+	private final AtomicLong droppedStarts = new AtomicLong();
+	private final AtomicLong summarizedEnds = new AtomicLong();
+
+	/**
+	 * @param rateLimit
+	 *            messages per second, 0 for no limit
+	 * @param burst
+	 *            capacity of the bucket, 0 for the rate limit
+	 */
+	public RateLimiter(int rateLimit, int burst) {
+		this.tokenBucket = rateLimit <= 0 ? null : new TokenBucket(rateLimit,
+				burst <= 0 ? rateLimit : burst);
+	}
+
+	/**
+	 * @return true if the test start can be sent, false if it is dropped
+	 */
+	public boolean tryStart() {
+		if (tokenBucket == null || tokenBucket.tryAcquire(1)) {
+			return true;
+		}
+		droppedStarts.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * @return true if the start and end of a skipped test can be sent, false
+	 *         if they are summarized
+	 */
+	public boolean tryStartSkipped() {
+		if (tokenBucket == null || tokenBucket.tryAcquire(2)) {
+			return true;
+		}
+		droppedStarts.incrementAndGet();
+		summarize(true);
+		return false;
+	}
+
+	/**
+	 * Take the tokens for messages that cannot be dropped
+	 * 
+	 * @param messages
+	 */
+	public void acquire(int messages) {
+		if (tokenBucket != null) {
+			tokenBucket.acquire(messages);
+		}
+	}
+
+	/**
+	 * Summarize the end of a test whose start has been dropped
+	 * 
+	 * @param skipped
+	 */
+	public void summarize(boolean skipped) {
+		if (skipped) {
+			unreportedSkipped.incrementAndGet();
+		} else {
+			unreportedPassed.incrementAndGet();
+		}
+		summarizedEnds.incrementAndGet();
+	}
+
+	/**
+	 * Get the summary of the unreported tests if it can be sent. Unreported
+	 * tests are reset.
+	 * 
+	 * @param force
+	 *            true to send the summary even if there are no tokens left
+	 * @return the summary or null if there are no unreported tests or no
+	 *         tokens
+	 */
+	public String nextSummary(boolean force) {
+		if (tokenBucket == null
+				|| unreportedPassed.get() + unreportedSkipped.get() == 0) {
+			return null;
+		}
+		if (force) {
+			tokenBucket.acquire(SUMMARY_COST);
+		} else if (!tokenBucket.tryAcquire(SUMMARY_COST)) {
+			return null;
+		}
+		int passed = unreportedPassed.getAndSet(0);
+		int skipped = unreportedSkipped.getAndSet(0);
+		if (passed + skipped == 0) {
+			// reported by another thread
+			return null;
+		}
+		return (passed + skipped) + " tests not reported (rate limited): "
+				+ passed + " passed, " + skipped + " skipped";
+	}
+
+	public long getDroppedStarts() {
+		return droppedStarts.get();
+	}
+
+	public long getSummarizedEnds() {
+		return summarizedEnds.get();
+	}
+
+}
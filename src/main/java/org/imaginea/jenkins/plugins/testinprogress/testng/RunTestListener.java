@@ -1,16 +1,27 @@
 package org.imaginea.jenkins.plugins.testinprogress.testng;
 
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.InFlightTests.InFlightTest;
+import org.imaginea.jenkins.plugins.testinprogress.testng.SlowestTests.SlowTest;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.AbstractMessageSender;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.CountingMessageSender;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.ShardAggregator;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.SynchronizedMessageSender;
 import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
 import org.jenkinsci.testinprogress.messagesender.MessageSender;
 import org.testng.ITestContext;
@@ -23,6 +34,26 @@ import org.testng.log4testng.Logger;
 /**
  * TestListener for a given test context (ie runId)
  * 
+ * Events of different tests can be handled concurrently. Events of a given
+ * test are serialized using a lock striped by test id.
+ * 
+ * When invocations are coalesced, the invocations of a data provider method
+ * or of a method with an invocation count are sent as periodic summaries
+ * under the method node. Failed invocations are still sent individually, as
+ * soon as they fail.
+ * 
+ * When the run is rate limited, test starts are dropped once the budget is
+ * exhausted and the ends of these tests are reported in summaries. Failures
+ * are never dropped.
+ * 
+ * When heartbeats are enabled, the activity of the run is sent periodically
+ * by the {@link HeartbeatScheduler}, even when all the test threads are
+ * blocked.
+ * 
+ * When hang detection is enabled, a watchdog periodically looks for the
+ * tests running for more than the threshold and sends the stack trace of the
+ * thread running each of them once.
+ * 
  * @author Varun Menon (github id: menonvarun)
  * @author Cedric Chabanois (github id:cchabanois)
  *
@@ -30,17 +61,116 @@ import org.testng.log4testng.Logger;
 public class RunTestListener implements ITestListener {
 	private static final Logger LOGGER = Logger
 			.getLogger(RunTestListener.class);
+	private static final int LOCK_STRIPES = 64;
+	private static final String UNREPORTED_ATTRIBUTE = RunTestListener.class
+			.getName() + ".unreported";
+	private static final String IN_FLIGHT_ATTRIBUTE = RunTestListener.class
+			.getName() + ".inFlight";
+	private static final String STARTED_ATTRIBUTE = RunTestListener.class
+			.getName() + ".started";
 	private final ITestContext context;
 	private final String runId;
-	private MessageSender messageSender;
-	private final Map<String, String> testIds = new HashMap<String, String>();
-	private long nextTestId = 1;
+	private final CountingMessageSender messageSender;
+	private final TestIdRegistry testIdRegistry;
+	private final String runTestId;
+	private final TestTreeMode testTreeMode;
+	private final StackTraceRenderer stackTraceRenderer;
+	private final ListenerStatistics statistics = ListenerStatistics
+			.getInstance();
+	private final boolean printStatistics;
+	private final boolean coalesceInvocations;
+	private final long coalesceIntervalMs;
+	// built once in onStart, read-only afterwards
+	private volatile Map<ConstructorOrMethod, TestMethodDescriptor> methodDescriptors = Collections
+			.emptyMap();
+	private final ConcurrentMap<ConstructorOrMethod, TestMethodDescriptor> lateMethodDescriptors = new ConcurrentHashMap<ConstructorOrMethod, TestMethodDescriptor>();
+	private final ConcurrentMap<Class<?>, TestClassDescriptor> classDescriptors = new ConcurrentHashMap<Class<?>, TestClassDescriptor>();
+	private final Lock[] testLocks = new Lock[LOCK_STRIPES];
+	private final RateLimiter rateLimiter;
+	private final int slowestTests;
+	private final DurationStore durationStore;
+	private final ProgressEstimator progressEstimator;
+	private final String progressTestId;
+	private final Object progressLock = new Object();
+	private final ConcurrentMap<TestMethodDescriptor, InvocationSummary> invocationSummaries = new ConcurrentHashMap<TestMethodDescriptor, InvocationSummary>();
+	private final long heartbeatMs;
+	private final Heartbeat heartbeat;
+	private final String heartbeatTestId;
+	private final long hangThresholdMs;
+	private final InFlightTests inFlightTests;
+	private final List<ScheduledFuture<?>> periodicTasks = new ArrayList<ScheduledFuture<?>>();
+	private final Object periodicTasksLock = new Object();
+	// guarded by periodicTasksLock
+	private boolean finished = false;
 
 	public RunTestListener(ITestContext context,
 			IMessageSenderFactory messageSenderFactory) {
+		this(context, messageSenderFactory, new TestInProgressConfiguration());
+	}
+
+	public RunTestListener(ITestContext context,
+			IMessageSenderFactory messageSenderFactory,
+			TestInProgressConfiguration configuration) {
 		this.context = context;
-		this.runId = getRunId(context);
-		this.messageSender = messageSenderFactory.getMessageSender();
+		this.runId = getShardRunId(getRunId(context), configuration);
+		this.testIdRegistry = getTestIdRegistry(configuration);
+		this.runTestId = testIdRegistry.getTestId(runId);
+		this.testTreeMode = configuration.getTestTreeMode();
+		this.stackTraceRenderer = new StackTraceRenderer(configuration);
+		this.printStatistics = configuration.isPrintStatistics();
+		this.coalesceInvocations = configuration.isCoalesceInvocations();
+		this.coalesceIntervalMs = configuration.getCoalesceIntervalMs();
+		this.rateLimiter = new RateLimiter(configuration.getRateLimit(),
+				configuration.getRateLimitBurst());
+		this.slowestTests = configuration.getSlowestTests();
+		if (configuration.getDurationStore() != null) {
+			this.durationStore = DurationStore.getInstance(configuration
+					.getDurationStore());
+			this.progressEstimator = new ProgressEstimator(
+					configuration.getEtaIntervalMs());
+			this.progressTestId = testIdRegistry.newTestId();
+		} else {
+			this.durationStore = null;
+			this.progressEstimator = null;
+			this.progressTestId = null;
+		}
+		this.heartbeatMs = configuration.getHeartbeatMs();
+		this.heartbeat = heartbeatMs > 0 ? new Heartbeat() : null;
+		this.heartbeatTestId = heartbeat != null ? testIdRegistry.newTestId()
+				: null;
+		this.hangThresholdMs = configuration.getHangThresholdMs();
+		this.inFlightTests = heartbeat != null || hangThresholdMs > 0
+				? new InFlightTests() : null;
+		this.messageSender = new CountingMessageSender(
+				getThreadSafeMessageSender(messageSenderFactory
+						.getMessageSender()));
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			testLocks[i] = new ReentrantLock();
+		}
+	}
+
+	static AbstractMessageSender getThreadSafeMessageSender(
+			MessageSender messageSender) {
+		if (messageSender instanceof AbstractMessageSender
+				&& ((AbstractMessageSender) messageSender).isThreadSafe()) {
+			return (AbstractMessageSender) messageSender;
+		}
+		return new SynchronizedMessageSender(messageSender);
+	}
+
+	/**
+	 * Lock the events of the given test
+	 * 
+	 * @param descriptor
+	 * @return the lock to unlock once the event has been handled
+	 */
+	private Lock lock(TestMethodDescriptor descriptor) {
+		Lock lock = testLocks[(descriptor.getTestId().hashCode() & Integer.MAX_VALUE)
+				% LOCK_STRIPES];
+		long start = System.nanoTime();
+		lock.lock();
+		statistics.recordLockWait(System.nanoTime() - start);
+		return lock;
 	}
 
 	/**
@@ -61,68 +191,154 @@ public class RunTestListener implements ITestListener {
 		return parentName;
 	}
 
-	private synchronized String getTestId(String key) {
-		String test = testIds.get(key);
-		if (test == null) {
-			test = Long.toString(nextTestId);
-			nextTestId++;
-			testIds.put(key, test);
+	/**
+	 * Get the run id of the shard, that the {@link ShardAggregator} can merge
+	 * with the other shards
+	 * 
+	 * @param runId
+	 * @param configuration
+	 * @return
+	 */
+	static String getShardRunId(String runId,
+			TestInProgressConfiguration configuration) {
+		if (configuration.getShardId() == null) {
+			return runId;
 		}
-		return test;
+		return runId + ShardAggregator.SHARD_SEPARATOR
+				+ configuration.getShardId();
 	}
 
-	private void sendTestTree(Map<String, ArrayList<String>> classMap) throws IOException {
-		Iterator<Entry<String, ArrayList<String>>> it = classMap.entrySet()
-				.iterator();
-		while (it.hasNext()) {
-			Entry<String, ArrayList<String>> entry = it.next();
-			String className = entry.getKey();
-
-			String clssTreedIdName = runId + ":" + className;
-
-			String classTestId = getTestId(clssTreedIdName);
-			ArrayList<String> methods = entry.getValue();
-
-			messageSender.testTree(classTestId, className, getTestId(runId),
-					true);
-
-			for (String method : methods) {
-				String methodKey = method + "(" + className + ")";
+	static TestIdRegistry getTestIdRegistry(
+			TestInProgressConfiguration configuration) {
+		if (configuration.getShardId() == null) {
+			return new TestIdRegistry();
+		}
+		return new TestIdRegistry(configuration.getShardId() + ":");
+	}
 
-				String mthdTreedIdName = runId + ":" + methodKey;
-				String mthdTestId = getTestId(mthdTreedIdName);
+	private void sendTestTree(
+			Map<Class<?>, List<TestMethodDescriptor>> classMap)
+			throws IOException {
+		Iterator<Entry<Class<?>, List<TestMethodDescriptor>>> it = classMap
+				.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry<Class<?>, List<TestMethodDescriptor>> entry = it.next();
+			for (TestMethodDescriptor method : entry.getValue()) {
+				announce(method);
+			}
+		}
+	}
 
-				messageSender.testTree(mthdTestId, methodKey, classTestId,
+	/**
+	 * Send the test tree nodes for the method and its class if they have not
+	 * been sent yet
+	 * 
+	 * @param descriptor
+	 * @throws IOException
+	 */
+	private void announce(TestMethodDescriptor descriptor) throws IOException {
+		if (descriptor.isAnnounced()) {
+			return;
+		}
+		TestClassDescriptor classDescriptor = descriptor.getClassDescriptor();
+		synchronized (classDescriptor) {
+			if (!classDescriptor.isAnnounced()) {
+				messageSender.testTree(classDescriptor.getTestId(),
+						classDescriptor.getName(), runTestId, true);
+				classDescriptor.setAnnounced();
+			}
+			if (!descriptor.isAnnounced()) {
+				messageSender.testTree(descriptor.getTestId(),
+						descriptor.getName(), classDescriptor.getTestId(),
 						false);
+				descriptor.setAnnounced();
 			}
 		}
 	}
 
-	private String getIdForMethod(ITestContext context, ITestNGMethod testMethod) {
-		String methodKey = getMessageSenderNameForMethod(testMethod);
-		String testMethodContextKey = runId + ":" + methodKey;
-		String mthdTestId = getTestId(testMethodContextKey);
+	private TestMethodDescriptor getDescriptor(ITestNGMethod testMethod)
+			throws IOException {
+		ConstructorOrMethod consMethod = testMethod.getConstructorOrMethod();
+		TestMethodDescriptor descriptor = methodDescriptors.get(consMethod);
+		if (descriptor == null) {
+			// configuration method or method that was not part of the test
+			// context when the run started
+			descriptor = lateMethodDescriptors.get(consMethod);
+			if (descriptor == null) {
+				descriptor = createDescriptor(
+						consMethod,
+						testMethod.isTest() ? TestMethodDescriptor
+								.getName(consMethod) : TestMethodDescriptor
+								.getConfigurationName(testMethod));
+				TestMethodDescriptor previous = lateMethodDescriptors
+						.putIfAbsent(consMethod, descriptor);
+				if (previous != null) {
+					descriptor = previous;
+				}
+			}
+		}
+		announce(descriptor);
+		return descriptor;
+	}
 
-		return mthdTestId;
+	private TestMethodDescriptor createDescriptor(ConstructorOrMethod consMethod) {
+		return createDescriptor(consMethod,
+				TestMethodDescriptor.getName(consMethod));
 	}
 
-	private String getMessageSenderNameForMethod(ITestNGMethod testMethod) {
-		ConstructorOrMethod consMethod = testMethod.getConstructorOrMethod();
-		String methodName = consMethod.getName();
-		String className = consMethod.getDeclaringClass().getName();
+	private TestMethodDescriptor createDescriptor(
+			ConstructorOrMethod consMethod, String name) {
+		TestMethodDescriptor descriptor = new TestMethodDescriptor(consMethod,
+				testIdRegistry.getTestId(consMethod), name,
+				getClassDescriptor(consMethod.getDeclaringClass()));
+		if (durationStore != null) {
+			long expectedDuration = durationStore.getDuration(descriptor
+					.getName());
+			descriptor.setExpectedDuration(expectedDuration);
+			if (expectedDuration > 0) {
+				progressEstimator.addExpected(expectedDuration);
+			}
+		}
+		return descriptor;
+	}
 
-		String methodKey = methodName + "(" + className + ")";
-		return methodKey;
+	private TestClassDescriptor getClassDescriptor(Class<?> testClass) {
+		TestClassDescriptor classDescriptor = classDescriptors.get(testClass);
+		if (classDescriptor == null) {
+			classDescriptor = new TestClassDescriptor(testClass,
+					testIdRegistry.getTestId(testClass));
+			TestClassDescriptor previous = classDescriptors.putIfAbsent(
+					testClass, classDescriptor);
+			if (previous != null) {
+				classDescriptor = previous;
+			}
+		}
+		return classDescriptor;
 	}
 
 	@Override
 	public void onTestStart(ITestResult result) {
-		ITestNGMethod testMethod = result.getMethod();
-		String testId = getIdForMethod(result.getTestContext(), testMethod);
-		String mthdKey = getMessageSenderNameForMethod(testMethod);
-
 		try {
-			messageSender.testStarted(testId, mthdKey, false);
+			TestMethodDescriptor descriptor = getDescriptor(result.getMethod());
+			if (inFlightTests != null) {
+				result.setAttribute(IN_FLIGHT_ATTRIBUTE,
+						inFlightTests.started(descriptor));
+			}
+			Lock lock = lock(descriptor);
+			try {
+				if (getInvocationSummary(descriptor, result) != null) {
+					// coalesced
+				} else if (rateLimiter.tryStart()) {
+					result.setAttribute(STARTED_ATTRIBUTE, Boolean.TRUE);
+					messageSender.testStarted(descriptor.getTestId(),
+							descriptor.getName(), false);
+				} else {
+					result.setAttribute(UNREPORTED_ATTRIBUTE, Boolean.TRUE);
+				}
+			} finally {
+				lock.unlock();
+			}
+			sendUnreportedTests(false);
 		} catch (IOException e) {
 			throw new RuntimeIOException(e);
 		}
@@ -130,11 +346,46 @@ public class RunTestListener implements ITestListener {
 
 	@Override
 	public void onTestSuccess(ITestResult result) {
-		ITestNGMethod testMethod = result.getMethod();
-		String testId = getIdForMethod(context, testMethod);
-		String mthdKey = getMessageSenderNameForMethod(testMethod);
+		testPassed(result, false);
+	}
+
+	/**
+	 * Handle a test that passed or that failed within the success percentage
+	 * of its method, which TestNG counts as passed. The latter is only
+	 * distinguished in the summaries of coalesced invocations.
+	 * 
+	 * @param result
+	 * @param failedWithinSuccessPercentage
+	 */
+	private void testPassed(ITestResult result,
+			boolean failedWithinSuccessPercentage) {
 		try {
-			messageSender.testEnded(testId, mthdKey, false);
+			TestMethodDescriptor descriptor = getDescriptor(result.getMethod());
+			long duration = getDuration(result);
+			recordDuration(descriptor, duration);
+			recordEnd(result);
+			Lock lock = lock(descriptor);
+			try {
+				InvocationSummary summary = getInvocationSummary(descriptor,
+						result);
+				if (summary != null) {
+					if (failedWithinSuccessPercentage) {
+						summary.recordFailedWithinSuccessPercentage(duration);
+					} else {
+						summary.recordPassed(duration);
+					}
+					sendSummaryIfDue(descriptor, summary);
+				} else if (isUnreported(result)) {
+					rateLimiter.summarize(false);
+				} else {
+					rateLimiter.acquire(1);
+					messageSender.testEnded(descriptor.getTestId(),
+							descriptor.getName(), false, duration);
+				}
+			} finally {
+				lock.unlock();
+			}
+			sendUnreportedTests(false);
 		} catch (IOException e) {
 			throw new RuntimeIOException(e);
 		}
@@ -142,46 +393,365 @@ public class RunTestListener implements ITestListener {
 
 	@Override
 	public void onTestFailure(ITestResult result) {
-		ITestNGMethod testMethod = result.getMethod();
-		String testId = getIdForMethod(result.getTestContext(), testMethod);
-		String mthdKey = getMessageSenderNameForMethod(testMethod);
+		try {
+			TestMethodDescriptor descriptor = getDescriptor(result.getMethod());
+			long duration = getDuration(result);
+			recordDuration(descriptor, duration);
+			recordEnd(result);
+			Lock lock = lock(descriptor);
+			try {
+				InvocationSummary summary = getInvocationSummary(descriptor,
+						result);
+				if (summary != null) {
+					sendFailedInvocation(descriptor,
+							summary.getNextInvocation(), result);
+					summary.recordFailed(duration);
+					sendSummaryIfDue(descriptor, summary);
+				} else {
+					if (isUnreported(result)) {
+						// failures are never dropped
+						rateLimiter.acquire(1);
+						messageSender.testStarted(descriptor.getTestId(),
+								descriptor.getName(), false);
+					}
+					rateLimiter.acquire(2);
+					sendTestError(descriptor.getTestId(), descriptor.getName(),
+							result.getThrowable());
+					messageSender.testEnded(descriptor.getTestId(),
+							descriptor.getName(), false, duration);
+				}
+			} finally {
+				lock.unlock();
+			}
+			sendUnreportedTests(false);
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+	}
+
+	/**
+	 * Add the duration of an invocation to the method and send the estimate
+	 * of the remaining time when it is due
+	 * 
+	 * @param descriptor
+	 * @param duration
+	 */
+	private void recordDuration(TestMethodDescriptor descriptor, long duration) {
+		long totalDuration = descriptor.addDuration(duration);
+		if (progressEstimator != null) {
+			progressEstimator.recordInvocation(
+					descriptor.getExpectedDuration(), totalDuration, duration);
+			if (progressEstimator.getExpected() > 0
+					&& progressEstimator.isDue()) {
+				long remaining = progressEstimator.getRemaining();
+				sendProgress("progress: about "
+						+ ProgressEstimator.formatDuration(remaining)
+						+ " remaining ("
+						+ (100 - remaining * 100
+								/ progressEstimator.getExpected())
+						+ "% done)");
+			}
+		}
+	}
+
+	/**
+	 * Send the progress of the run as the name of its "progress" test node.
+	 * The node is updated by each estimate.
+	 * 
+	 * @param progress
+	 */
+	private void sendProgress(String progress) {
+		LOGGER.debug("TestInProgress " + runId + ": " + progress);
+		synchronized (progressLock) {
+			try {
+				messageSender.testTree(progressTestId, progress, runTestId,
+						false);
+				messageSender.testStarted(progressTestId, progress, false);
+				messageSender.testEnded(progressTestId, progress, false);
+			} catch (IOException e) {
+				LOGGER.warn("Could not send TestInProgress progress", e);
+			}
+		}
+	}
+
+	/**
+	 * Record the end of a test for the heartbeats and the watchdog
+	 * 
+	 * @param result
+	 */
+	private void recordEnd(ITestResult result) {
+		if (inFlightTests != null) {
+			// tests skipped because of a failed dependency are never started
+			InFlightTest inFlightTest = (InFlightTest) result
+					.removeAttribute(IN_FLIGHT_ATTRIBUTE);
+			if (inFlightTest != null) {
+				inFlightTests.ended(inFlightTest);
+			}
+		}
+		if (heartbeat != null) {
+			heartbeat.testEnded();
+		}
+	}
+
+	private void startPeriodicTasks() {
+		HeartbeatScheduler scheduler = HeartbeatScheduler.getInstance();
+		synchronized (periodicTasksLock) {
+			if (heartbeat != null) {
+				periodicTasks.add(scheduler.schedule(new Runnable() {
+
+					@Override
+					public void run() {
+						sendHeartbeat();
+					}
+				}, heartbeatMs));
+			}
+			if (hangThresholdMs > 0) {
+				periodicTasks.add(scheduler.schedule(new Runnable() {
+
+					@Override
+					public void run() {
+						sendOverdueTests();
+					}
+				}, Math.max(1, hangThresholdMs / 2)));
+			}
+		}
+	}
+
+	private void stopPeriodicTasks() {
+		synchronized (periodicTasksLock) {
+			// a task may be running, it will see that the run is finished
+			finished = true;
+			for (ScheduledFuture<?> periodicTask : periodicTasks) {
+				periodicTask.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Send the activity of the run since the previous heartbeat as the name of
+	 * its "heartbeat" test node. The node is updated by each heartbeat. A
+	 * failed heartbeat is logged, the next one is sent anyway.
+	 */
+	private void sendHeartbeat() {
+		synchronized (periodicTasksLock) {
+			if (finished) {
+				return;
+			}
+			String testName = heartbeat.nextHeartbeat(inFlightTests.size());
+			try {
+				messageSender.testTree(heartbeatTestId, testName, runTestId,
+						false);
+				messageSender.testStarted(heartbeatTestId, testName, false);
+				messageSender.testEnded(heartbeatTestId, testName, false);
+			} catch (IOException e) {
+				LOGGER.warn("Could not send TestInProgress heartbeat", e);
+			}
+		}
+	}
 
-		String trace = getTrace(result.getThrowable());
+	/**
+	 * Send the tests running for more than the hang threshold as test nodes
+	 * of their method, failed with the stack trace of their thread. Only the
+	 * threads of these tests are sampled. A failed send is logged, the next
+	 * checks are done anyway.
+	 */
+	private void sendOverdueTests() {
+		synchronized (periodicTasksLock) {
+			if (finished) {
+				return;
+			}
+			for (InFlightTest inFlightTest : inFlightTests
+					.getOverdueTests(hangThresholdMs)) {
+				sendOverdueTest(inFlightTest);
+			}
+		}
+	}
 
+	private void sendOverdueTest(InFlightTest inFlightTest) {
+		Thread thread = inFlightTest.getThread();
+		StackTraceElement[] stackTrace = thread.getStackTrace();
+		TestMethodDescriptor descriptor = inFlightTest.getDescriptor();
+		String testId = testIdRegistry.newTestId();
+		String testName = "slow test: running for "
+				+ ProgressEstimator.formatDuration(System.currentTimeMillis()
+						- inFlightTest.getStartTime()) + " on thread "
+				+ thread.getName();
+		Exception slowTest = new Exception(descriptor.getName() + " "
+				+ testName);
+		slowTest.setStackTrace(stackTrace);
+		LOGGER.warn("TestInProgress " + runId + ": " + descriptor.getName()
+				+ " " + testName, slowTest);
 		try {
-			messageSender.testError(testId, mthdKey, trace);
-			messageSender.testEnded(testId, mthdKey, false);
+			messageSender.testTree(testId, testName, descriptor.getTestId(),
+					false);
+			messageSender.testStarted(testId, testName, false);
+			sendTestError(testId, testName, slowTest);
+			messageSender.testEnded(testId, testName, false);
 		} catch (IOException e) {
-			throw new RuntimeIOException(e);
+			LOGGER.warn("Could not send TestInProgress slow test", e);
+		}
+	}
+
+	private static boolean isUnreported(ITestResult result) {
+		return result.getAttribute(UNREPORTED_ATTRIBUTE) != null;
+	}
+
+	/**
+	 * Send the tests whose start has been dropped as a test node of the run
+	 * if the rate limit allows it
+	 * 
+	 * @param force
+	 *            true to send them even if the budget is exhausted
+	 * @throws IOException
+	 */
+	private void sendUnreportedTests(boolean force) throws IOException {
+		String testName = rateLimiter.nextSummary(force);
+		if (testName == null) {
+			return;
+		}
+		String testId = testIdRegistry.newTestId();
+		messageSender.testTree(testId, testName, runTestId, false);
+		messageSender.testStarted(testId, testName, false);
+		messageSender.testEnded(testId, testName, false);
+	}
+
+	private void sendTestError(String testId, String testName,
+			Throwable throwable) throws IOException {
+		// trace will be rendered when the message is actually sent
+		messageSender.testError(testId, testName, throwable,
+				stackTraceRenderer);
+	}
+
+	/**
+	 * Get the summary of the invocations of the method if they are coalesced.
+	 * The method is started when its first invocation is coalesced.
+	 * 
+	 * @param descriptor
+	 * @param result
+	 * @return the summary or null if invocations are not coalesced
+	 * @throws IOException
+	 */
+	private InvocationSummary getInvocationSummary(
+			TestMethodDescriptor descriptor, ITestResult result)
+			throws IOException {
+		if (!coalesceInvocations || !result.getMethod().isTest()) {
+			return null;
+		}
+		InvocationSummary summary = invocationSummaries.get(descriptor);
+		if (summary == null
+				&& (result.getParameters().length > 0 || result.getMethod()
+						.getInvocationCount() > 1)) {
+			summary = new InvocationSummary(coalesceIntervalMs);
+			invocationSummaries.put(descriptor, summary);
+			messageSender.testStarted(descriptor.getTestId(),
+					descriptor.getName(), false);
 		}
+		return summary;
 	}
 
-	private String getTrace(Throwable t) {
-		StringWriter stringWriter = new StringWriter();
-		PrintWriter writer = new PrintWriter(stringWriter);
-		t.printStackTrace(writer);
-		StringBuffer buffer = stringWriter.getBuffer();
-		return buffer.toString();
+	private static long getDuration(ITestResult result) {
+		return result.getEndMillis() - result.getStartMillis();
+	}
+
+	private void sendFailedInvocation(TestMethodDescriptor descriptor,
+			int invocation, ITestResult result) throws IOException {
+		String testId = testIdRegistry.newTestId();
+		String testName = "invocation " + invocation
+				+ Arrays.toString(result.getParameters());
+		messageSender.testTree(testId, testName, descriptor.getTestId(), false);
+		messageSender.testStarted(testId, testName, false);
+		sendTestError(testId, testName, result.getThrowable());
+		messageSender.testEnded(testId, testName, false, getDuration(result));
+	}
+
+	private void sendSummaryIfDue(TestMethodDescriptor descriptor,
+			InvocationSummary summary) throws IOException {
+		if (summary.isDue()) {
+			sendSummary(descriptor, summary);
+		}
+	}
+
+	/**
+	 * Send the invocations since the previous summary as a test node of the
+	 * method
+	 * 
+	 * @param descriptor
+	 * @param summary
+	 * @throws IOException
+	 */
+	private void sendSummary(TestMethodDescriptor descriptor,
+			InvocationSummary summary) throws IOException {
+		boolean skipped = summary.isSkipped();
+		String testId = testIdRegistry.newTestId();
+		String testName = summary.nextSummary();
+		messageSender.testTree(testId, testName, descriptor.getTestId(), false);
+		messageSender.testStarted(testId, testName, skipped);
+		messageSender.testEnded(testId, testName, skipped);
 	}
 
 	@Override
 	public void onTestSkipped(ITestResult result) {
-		ITestNGMethod testMethod = result.getMethod();
-		String testId = getIdForMethod(result.getTestContext(), testMethod);
-		String mthdKey = getMessageSenderNameForMethod(testMethod);
-
 		try {
-			messageSender.testStarted(testId, mthdKey, true);
-			messageSender.testEnded(testId, mthdKey, true);
+			TestMethodDescriptor descriptor = getDescriptor(result.getMethod());
+			recordEnd(result);
+			Lock lock = lock(descriptor);
+			try {
+				InvocationSummary summary = getInvocationSummary(descriptor,
+						result);
+				if (summary != null) {
+					summary.recordSkipped();
+					sendSummaryIfDue(descriptor, summary);
+				} else if (isUnreported(result)) {
+					rateLimiter.summarize(true);
+				} else if (result.getAttribute(STARTED_ATTRIBUTE) != null) {
+					// skipped after its start has been sent
+					rateLimiter.acquire(2);
+					sendSkipped(descriptor, result);
+				} else if (rateLimiter.tryStartSkipped()) {
+					sendSkipped(descriptor, result);
+				}
+			} finally {
+				lock.unlock();
+			}
+			sendUnreportedTests(false);
 		} catch (IOException e) {
 			throw new RuntimeIOException(e);
 		}
 	}
 
+	private void sendSkipped(TestMethodDescriptor descriptor,
+			ITestResult result) throws IOException {
+		messageSender.testStarted(descriptor.getTestId(), descriptor.getName(),
+				true);
+		messageSender.testEnded(descriptor.getTestId(), descriptor.getName(),
+				true, getDuration(result));
+	}
+
 	@Override
 	public void onTestFailedButWithinSuccessPercentage(ITestResult result) {
-		// TODO : implement
+		testPassed(result, true);
+	}
+
+	/**
+	 * A configuration method is a test node of its class, handled like a test
+	 * method but never coalesced
+	 * 
+	 * @param result
+	 */
+	public void beforeConfiguration(ITestResult result) {
+		onTestStart(result);
+	}
+
+	public void onConfigurationSuccess(ITestResult result) {
+		testPassed(result, false);
+	}
 
+	public void onConfigurationFailure(ITestResult result) {
+		onTestFailure(result);
+	}
+
+	public void onConfigurationSkip(ITestResult result) {
+		onTestSkipped(result);
 	}
 
 	@Override
@@ -193,55 +763,211 @@ public class RunTestListener implements ITestListener {
 					e);
 			throw new RuntimeIOException(e);
 		}
-		String parentName = runId;
-		String runId = parentName;
 		try {
 			messageSender.testRunStarted(runId);
-
-			Map<String, ArrayList<String>> classMap = processTestContext();
-
-			String testId = getTestId(parentName);
-			messageSender.testTree(testId, context.getCurrentXmlTest()
+			messageSender.testTree(runTestId, context.getCurrentXmlTest()
 					.getName(), null, true);
-			sendTestTree(classMap);
+			loadDurationStore();
+			processTestContext();
 		} catch (IOException e) {
 			throw new RuntimeIOException(e);
 		}
+		startPeriodicTasks();
+		if (progressEstimator != null && progressEstimator.getExpected() > 0) {
+			sendProgress("progress: expected duration "
+					+ ProgressEstimator.formatDuration(progressEstimator
+							.getExpected()));
+		}
 	}
 
-	private Map<String, ArrayList<String>> processTestContext() {
+	private void loadDurationStore() {
+		if (durationStore == null) {
+			return;
+		}
+		try {
+			durationStore.load();
+		} catch (IOException e) {
+			LOGGER.warn("Could not load TestInProgress duration store", e);
+		}
+	}
+
+	/**
+	 * Save the durations of the methods that have run
+	 */
+	private void saveDurationStore() {
+		if (durationStore == null) {
+			return;
+		}
+		for (TestMethodDescriptor descriptor : methodDescriptors.values()) {
+			if (descriptor.getDuration() > 0) {
+				durationStore.record(descriptor.getName(),
+						descriptor.getDuration());
+			}
+		}
+		for (TestMethodDescriptor descriptor : lateMethodDescriptors.values()) {
+			if (descriptor.getDuration() > 0) {
+				durationStore.record(descriptor.getName(),
+						descriptor.getDuration());
+			}
+		}
+		try {
+			durationStore.save();
+		} catch (IOException e) {
+			LOGGER.warn("Could not save TestInProgress duration store", e);
+		}
+	}
 
-		Map<String, ArrayList<String>> classMap = new HashMap<String, ArrayList<String>>();
-		Collection<ITestNGMethod> testMethods = Arrays.asList(context
-				.getAllTestMethods());
+	/**
+	 * Build the descriptors for all the methods of the test context and send
+	 * the test tree depending on the test tree mode.
+	 * 
+	 * @throws IOException
+	 */
+	private void processTestContext() throws IOException {
+		Map<Class<?>, List<TestMethodDescriptor>> classMap = new LinkedHashMap<Class<?>, List<TestMethodDescriptor>>();
+		Map<ConstructorOrMethod, TestMethodDescriptor> descriptors = new HashMap<ConstructorOrMethod, TestMethodDescriptor>();
 
-		for (ITestNGMethod testMethod : testMethods) {
+		for (ITestNGMethod testMethod : context.getAllTestMethods()) {
 			ConstructorOrMethod consMethod = testMethod
 					.getConstructorOrMethod();
-			String methodName = consMethod.getName();
-			String className = consMethod.getDeclaringClass().getName();
-			ArrayList<String> methodList;
-			if (!classMap.containsKey(className)) {
-				methodList = new ArrayList<String>();
-			} else {
-				methodList = classMap.get(className);
+			if (descriptors.containsKey(consMethod)) {
+				// same method for another instance
+				continue;
+			}
+			TestMethodDescriptor descriptor = createDescriptor(consMethod);
+			descriptors.put(consMethod, descriptor);
+
+			switch (testTreeMode) {
+			case EAGER:
+				Class<?> declaringClass = consMethod.getDeclaringClass();
+				List<TestMethodDescriptor> methodList = classMap
+						.get(declaringClass);
+				if (methodList == null) {
+					methodList = new ArrayList<TestMethodDescriptor>();
+					classMap.put(declaringClass, methodList);
+				}
+				methodList.add(descriptor);
+				break;
+			case STREAMING:
+				announce(descriptor);
+				break;
+			case LAZY:
+				// announced before the first start of the method
+				break;
 			}
-			methodList.add(methodName);
-			classMap.put(className, methodList);
 		}
-		return classMap;
+		methodDescriptors = Collections.unmodifiableMap(descriptors);
+		sendTestTree(classMap);
+	}
+
+	/**
+	 * Send the last summary of the coalesced methods and end them. The end of
+	 * the invocations of a method is only known at the end of the run.
+	 * 
+	 * @throws IOException
+	 */
+	private void endCoalescedMethods() throws IOException {
+		for (Map.Entry<TestMethodDescriptor, InvocationSummary> entry : invocationSummaries
+				.entrySet()) {
+			TestMethodDescriptor descriptor = entry.getKey();
+			InvocationSummary summary = entry.getValue();
+			Lock lock = lock(descriptor);
+			try {
+				if (!summary.isEmpty()) {
+					sendSummary(descriptor, summary);
+				}
+				messageSender.testEnded(descriptor.getTestId(),
+						descriptor.getName(), false);
+			} finally {
+				lock.unlock();
+			}
+		}
+		invocationSummaries.clear();
+	}
+
+	/**
+	 * Send the slowest methods and classes of the run as test nodes of the
+	 * run, slowest first. Their duration is part of their name as it is not
+	 * sent by the stock message senders.
+	 * 
+	 * @throws IOException
+	 */
+	private void sendSlowestTests() throws IOException {
+		if (slowestTests <= 0) {
+			return;
+		}
+		SlowestTests slowestMethods = new SlowestTests(slowestTests);
+		for (TestMethodDescriptor descriptor : methodDescriptors.values()) {
+			slowestMethods.offer(descriptor.getName(), descriptor.getDuration());
+		}
+		for (TestMethodDescriptor descriptor : lateMethodDescriptors.values()) {
+			slowestMethods.offer(descriptor.getName(), descriptor.getDuration());
+		}
+		SlowestTests slowestClasses = new SlowestTests(slowestTests);
+		for (TestClassDescriptor classDescriptor : classDescriptors.values()) {
+			slowestClasses.offer(classDescriptor.getName(),
+					classDescriptor.getDuration());
+		}
+		sendSlowestTests("Slowest methods", slowestMethods);
+		sendSlowestTests("Slowest classes", slowestClasses);
+	}
+
+	private void sendSlowestTests(String suiteName, SlowestTests ranking)
+			throws IOException {
+		String suiteId = testIdRegistry.newTestId();
+		messageSender.testTree(suiteId, suiteName, runTestId, true);
+		int rank = 1;
+		for (SlowTest slowTest : ranking.getSlowestTests()) {
+			String testId = testIdRegistry.newTestId();
+			String testName = rank++ + ". " + slowTest.getName() + " ("
+					+ slowTest.getDuration() + " ms)";
+			messageSender.testTree(testId, testName, suiteId, false);
+			messageSender.testStarted(testId, testName, false);
+			messageSender.testEnded(testId, testName, false,
+					slowTest.getDuration());
+		}
 	}
 
 	@Override
 	public void onFinish(ITestContext context) {
 		long elapsedTime = context.getEndDate().getTime()
 				- context.getStartDate().getTime();
+		stopPeriodicTasks();
 		try {
+			endCoalescedMethods();
+			sendUnreportedTests(true);
+			sendSlowestTests();
 			messageSender.testRunEnded(elapsedTime);
 			messageSender.shutdown();
 		} catch (IOException e) {
 			throw new RuntimeIOException(e);
 		}
+		saveDurationStore();
+		statistics.recordRun(messageSender);
+		if (rateLimiter.getDroppedStarts() > 0) {
+			statistics.recordRateLimiting(rateLimiter.getDroppedStarts(),
+					rateLimiter.getSummarizedEnds());
+			LOGGER.info("Rate limit reached for " + runId + ": "
+					+ rateLimiter.getDroppedStarts()
+					+ " test starts dropped, "
+					+ rateLimiter.getSummarizedEnds() + " test ends summarized");
+		}
+		if (printStatistics) {
+			LOGGER.info(statistics.getSummary(runId, messageSender));
+		}
+	}
+
+	/**
+	 * Stop the periodic tasks and close the connection without ending the
+	 * run, after a failure of the listener
+	 */
+	public void abort() {
+		stopPeriodicTasks();
+		try {
+			messageSender.shutdown();
+		} catch (Exception e) {
+			LOGGER.warn("Could not shutdown TestInProgress message sender", e);
+		}
 	}
 
 }
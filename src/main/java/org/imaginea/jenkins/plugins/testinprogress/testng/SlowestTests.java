@@ -0,0 +1,82 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the slowest tests among the tests offered, using a min-heap bounded
+ * to the number of tests to keep.
+ *
+ */
+class SlowestTests {
+	private static final Comparator<SlowTest> BY_DURATION = new Comparator<SlowTest>() {
+
+		@Override
+		public int compare(SlowTest test1, SlowTest test2) {
+			return test1.duration < test2.duration ? -1
+					: (test1.duration == test2.duration ? 0 : 1);
+		}
+	};
+	private final int count;
+	private final PriorityQueue<SlowTest> heap;
+
+	public SlowestTests(int count) {
+		this.count = count;
+		this.heap = new PriorityQueue<SlowTest>(Math.max(1, count),
+				BY_DURATION);
+	}
+
+	/**
+	 * Offer a test. Tests that did not take any time are not kept.
+	 * 
+	 * @param name
+	 * @param duration
+	 */
+	public void offer(String name, long duration) {
+		if (duration <= 0 || count <= 0) {
+			return;
+		}
+		if (heap.size() < count) {
+			heap.add(new SlowTest(name, duration));
+		} else if (duration > heap.peek().duration) {
+			heap.poll();
+			heap.add(new SlowTest(name, duration));
+		}
+	}
+
+	/**
+	 * @return the slowest tests, slowest first
+	 */
+	public List<SlowTest> getSlowestTests() {
+		List<SlowTest> slowestTests = new ArrayList<SlowTest>(heap);
+		Collections.sort(slowestTests,
+				Collections.reverseOrder(BY_DURATION));
+		return slowestTests;
+	}
+
+	public static class SlowTest {
+		private final String name;
+		private final long duration;
+
+		public SlowTest(String name, long duration) {
+			this.name = name;
+			this.duration = duration;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return duration in ms
+		 */
+		public long getDuration() {
+			return duration;
+		}
+
+	}
+
+}
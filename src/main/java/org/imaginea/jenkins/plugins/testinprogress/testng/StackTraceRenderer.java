@@ -0,0 +1,175 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.ITraceRenderer;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.Message;
+
+/**
+ * Renders failure stack traces for a run.
+ *
+ * By default traces are rendered like {@link Throwable#printStackTrace()}.
+ * Optionally, the number of frames and the UTF-8 size of the trace can be
+ * limited, * framework frames (TestNG, reflection, surefire) can be dropped and a trace
+ * identical to one already rendered is replaced by a reference to the first
+ * test that failed with it.
+ *
+ */
+class StackTraceRenderer implements ITraceRenderer {
+	private static final int MAX_FINGERPRINTS = 1024;
+	private static final String[] FRAMEWORK_PACKAGES = { "org.testng.",
+			"sun.reflect.", "java.lang.reflect.", "jdk.internal.reflect.",
+			"org.apache.maven.surefire.", "org.apache.maven.plugin.surefire." };
+	private final int maxDepth;
+	private final int maxLength;
+	private final boolean filterFrameworkFrames;
+	private final boolean deduplicate;
+	// fingerprint -> name of the first test with this trace
+	private final ConcurrentMap<Long, String> fingerprints = new ConcurrentHashMap<Long, String>();
+
+	public StackTraceRenderer(TestInProgressConfiguration configuration) {
+		this.maxDepth = configuration.getTraceMaxDepth();
+		this.maxLength = configuration.getTraceMaxLength();
+		this.filterFrameworkFrames = configuration.isTraceFilterFrameworkFrames();
+		this.deduplicate = configuration.isTraceDeduplicate();
+	}
+
+	public String render(Throwable throwable, String testName) {
+		if (deduplicate) {
+			Long fingerprint = getFingerprint(throwable);
+			String firstTestName = fingerprints.get(fingerprint);
+			if (firstTestName != null) {
+				return throwable.toString() + "\n\t(same stack trace as "
+						+ firstTestName + ")\n";
+			}
+			if (fingerprints.size() < MAX_FINGERPRINTS) {
+				fingerprints.putIfAbsent(fingerprint, testName);
+			}
+		}
+		String trace;
+		if (maxDepth < 0 && !filterFrameworkFrames) {
+			trace = printStackTrace(throwable);
+		} else {
+			StringBuilder sb = new StringBuilder();
+			appendThrowable(sb, throwable, new StackTraceElement[0], "",
+					Collections
+							.newSetFromMap(new IdentityHashMap<Throwable, Boolean>()));
+			trace = sb.toString();
+		}
+		if (maxLength >= 0 && Message.getUTF8Length(trace) > maxLength) {
+			trace = trace.substring(0, getTruncationIndex(trace))
+					+ "\n\t... trace truncated\n";
+		}
+		return trace;
+	}
+
+	/**
+	 * @param trace
+	 * @return the index of the first code point that does not fit in
+	 *         maxLength UTF-8 bytes
+	 */
+	private int getTruncationIndex(String trace) {
+		int length = 0;
+		int i = 0;
+		while (i < trace.length()) {
+			int codePoint = trace.codePointAt(i);
+			length += codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2
+					: codePoint < 0x10000 ? 3 : 4;
+			if (length > maxLength) {
+				break;
+			}
+			i += Character.charCount(codePoint);
+		}
+		return i;
+	}
+
+	private String printStackTrace(Throwable throwable) {
+		StringWriter stringWriter = new StringWriter();
+		PrintWriter writer = new PrintWriter(stringWriter);
+		throwable.printStackTrace(writer);
+		StringBuffer buffer = stringWriter.getBuffer();
+		return buffer.toString();
+	}
+
+	private void appendThrowable(StringBuilder sb, Throwable throwable,
+			StackTraceElement[] enclosingTrace, String caption,
+			Set<Throwable> seen) {
+		seen.add(throwable);
+		sb.append(caption).append(throwable).append('\n');
+		StackTraceElement[] trace = throwable.getStackTrace();
+		// frames in common with the enclosing trace are not printed
+		int m = trace.length - 1;
+		int n = enclosingTrace.length - 1;
+		while (m >= 0 && n >= 0 && trace[m].equals(enclosingTrace[n])) {
+			m--;
+			n--;
+		}
+		int framesInCommon = trace.length - 1 - m;
+		int written = 0;
+		int filtered = 0;
+		int truncated = 0;
+		for (int i = 0; i <= m; i++) {
+			if (filterFrameworkFrames && isFrameworkFrame(trace[i])) {
+				filtered++;
+			} else if (maxDepth >= 0 && written >= maxDepth) {
+				truncated++;
+			} else {
+				sb.append("\tat ").append(trace[i]).append('\n');
+				written++;
+			}
+		}
+		if (filtered > 0) {
+			sb.append("\t... ").append(filtered)
+					.append(" framework frames filtered\n");
+		}
+		if (truncated > 0) {
+			sb.append("\t... ").append(truncated)
+					.append(" frames truncated\n");
+		}
+		if (framesInCommon > 0) {
+			sb.append("\t... ").append(framesInCommon).append(" more\n");
+		}
+		for (Throwable suppressed : throwable.getSuppressed()) {
+			if (!seen.contains(suppressed)) {
+				appendThrowable(sb, suppressed, trace, "\tSuppressed: ", seen);
+			}
+		}
+		Throwable cause = throwable.getCause();
+		if (cause != null && !seen.contains(cause)) {
+			appendThrowable(sb, cause, trace, "Caused by: ", seen);
+		}
+	}
+
+	private boolean isFrameworkFrame(StackTraceElement element) {
+		String className = element.getClassName();
+		for (String frameworkPackage : FRAMEWORK_PACKAGES) {
+			if (className.startsWith(frameworkPackage)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private long getFingerprint(Throwable throwable) {
+		long hash = 17;
+		Set<Throwable> seen = Collections
+				.newSetFromMap(new IdentityHashMap<Throwable, Boolean>());
+		for (Throwable t = throwable; t != null && seen.add(t); t = t
+				.getCause()) {
+			hash = 31 * hash + t.getClass().getName().hashCode();
+			String message = t.getMessage();
+			hash = 31 * hash + (message == null ? 0 : message.hashCode());
+			for (StackTraceElement element : t.getStackTrace()) {
+				hash = 31 * hash + element.hashCode();
+			}
+		}
+		return hash;
+	}
+
+}
@@ -0,0 +1,237 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.AbstractMessageSender;
+import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestContext;
+import org.testng.ITestListener;
+import org.testng.ITestResult;
+import org.testng.log4testng.Logger;
+
+/**
+ * Listener for a given suite. It sends an additional run (with the suite name
+ * as runId) aggregating all the xml tests of the suite, that are otherwise
+ * sent as independent runs.
+ *
+ * Each xml test is a test node of the suite, started and ended with its test
+ * context. The counters of all the tests of the suite (running, passed,
+ * failed, skipped and throughput) are sent periodically by the
+ * {@link HeartbeatScheduler} as the name of a test node of the suite, updated
+ * by each heartbeat.
+ *
+ */
+public class SuiteRunListener implements ISuiteListener, ITestListener {
+	private static final Logger LOGGER = Logger
+			.getLogger(SuiteRunListener.class);
+	private static final String STARTED_ATTRIBUTE = SuiteRunListener.class
+			.getName() + ".started";
+	private final String runId;
+	private final AbstractMessageSender messageSender;
+	private final TestIdRegistry testIdRegistry;
+	private final String suiteTestId;
+	private final String heartbeatTestId;
+	private final long heartbeatMs;
+	private final ConcurrentMap<ITestContext, Long> xmlTestStarts = new ConcurrentHashMap<ITestContext, Long>();
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicLong passed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private volatile ScheduledFuture<?> heartbeat;
+	private long startTime;
+	// guarded by this
+	private boolean finished = false;
+	// only used by the heartbeat thread
+	private long lastHeartbeatTime;
+	private long lastHeartbeatCompleted;
+
+	public SuiteRunListener(ISuite suite,
+			IMessageSenderFactory messageSenderFactory,
+			TestInProgressConfiguration configuration) {
+		this.runId = RunTestListener.getShardRunId(suite.getName(),
+				configuration);
+		this.testIdRegistry = RunTestListener
+				.getTestIdRegistry(configuration);
+		this.suiteTestId = testIdRegistry.getTestId(runId);
+		this.heartbeatTestId = testIdRegistry.newTestId();
+		this.heartbeatMs = configuration.getSuiteHeartbeatMs();
+		this.messageSender = RunTestListener
+				.getThreadSafeMessageSender(messageSenderFactory
+						.getMessageSender());
+	}
+
+	@Override
+	public void onStart(ISuite suite) {
+		try {
+			messageSender.init();
+		} catch (IOException e) {
+			LOGGER.error("Could not initialize TestInProgress message sender",
+					e);
+			throw new RuntimeIOException(e);
+		}
+		try {
+			messageSender.testRunStarted(runId);
+			messageSender.testTree(suiteTestId, runId, null, true);
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+		startTime = System.currentTimeMillis();
+		lastHeartbeatTime = startTime;
+		heartbeat = HeartbeatScheduler.getInstance().schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				sendHeartbeat();
+			}
+		}, heartbeatMs);
+	}
+
+	private synchronized void sendHeartbeat() {
+		if (finished) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long completed = getCompleted();
+		String testName = running.get() + " running, " + passed.get()
+				+ " passed, " + failed.get() + " failed, " + skipped.get()
+				+ " skipped ("
+				+ formatThroughput(completed - lastHeartbeatCompleted,
+						now - lastHeartbeatTime) + ")";
+		lastHeartbeatTime = now;
+		lastHeartbeatCompleted = completed;
+		try {
+			sendSuiteNode(heartbeatTestId, testName);
+		} catch (IOException e) {
+			LOGGER.warn("Could not send TestInProgress suite heartbeat", e);
+		}
+	}
+
+	private long getCompleted() {
+		return passed.get() + failed.get() + skipped.get();
+	}
+
+	static String formatThroughput(long tests, long elapsedMs) {
+		return String.format(Locale.ROOT, "%.1f tests/s",
+				elapsedMs <= 0 ? 0.0 : tests * 1000.0 / elapsedMs);
+	}
+
+	private void sendSuiteNode(String testId, String testName)
+			throws IOException {
+		messageSender.testTree(testId, testName, suiteTestId, false);
+		messageSender.testStarted(testId, testName, false);
+		messageSender.testEnded(testId, testName, false);
+	}
+
+	@Override
+	public void onStart(ITestContext context) {
+		String xmlTestName = context.getCurrentXmlTest().getName();
+		String testId = testIdRegistry.getTestId(context);
+		xmlTestStarts.put(context, System.currentTimeMillis());
+		try {
+			messageSender.testTree(testId, xmlTestName, suiteTestId, false);
+			messageSender.testStarted(testId, xmlTestName, false);
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+	}
+
+	@Override
+	public void onFinish(ITestContext context) {
+		String xmlTestName = context.getCurrentXmlTest().getName();
+		String testId = testIdRegistry.getTestId(context);
+		long duration = System.currentTimeMillis()
+				- xmlTestStarts.remove(context);
+		try {
+			messageSender.testEnded(testId, xmlTestName, false, duration);
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+	}
+
+	@Override
+	public void onTestStart(ITestResult result) {
+		result.setAttribute(STARTED_ATTRIBUTE, Boolean.TRUE);
+		running.incrementAndGet();
+	}
+
+	@Override
+	public void onTestSuccess(ITestResult result) {
+		testEnded(result);
+		passed.incrementAndGet();
+	}
+
+	@Override
+	public void onTestFailure(ITestResult result) {
+		testEnded(result);
+		failed.incrementAndGet();
+	}
+
+	@Override
+	public void onTestSkipped(ITestResult result) {
+		// tests skipped because of a failed dependency are never started
+		testEnded(result);
+		skipped.incrementAndGet();
+	}
+
+	@Override
+	public void onTestFailedButWithinSuccessPercentage(ITestResult result) {
+		onTestSuccess(result);
+	}
+
+	private void testEnded(ITestResult result) {
+		if (result.getAttribute(STARTED_ATTRIBUTE) != null) {
+			result.removeAttribute(STARTED_ATTRIBUTE);
+			running.decrementAndGet();
+		}
+	}
+
+	@Override
+	public void onFinish(ISuite suite) {
+		heartbeat.cancel(false);
+		synchronized (this) {
+			// a heartbeat may be running
+			finished = true;
+		}
+		long elapsedTime = System.currentTimeMillis() - startTime;
+		long completed = getCompleted();
+		try {
+			sendSuiteNode(testIdRegistry.newTestId(), completed + " tests: "
+					+ passed.get() + " passed, " + failed.get() + " failed, "
+					+ skipped.get() + " skipped in "
+					+ ProgressEstimator.formatDuration(elapsedTime) + " ("
+					+ formatThroughput(completed, elapsedTime) + ")");
+			messageSender.testRunEnded(elapsedTime);
+			messageSender.shutdown();
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+	}
+
+	/**
+	 * Stop the heartbeats and close the connection without ending the run,
+	 * after a failure of the listener
+	 */
+	public void abort() {
+		synchronized (this) {
+			finished = true;
+		}
+		ScheduledFuture<?> heartbeat = this.heartbeat;
+		if (heartbeat != null) {
+			heartbeat.cancel(false);
+		}
+		try {
+			messageSender.shutdown();
+		} catch (Exception e) {
+			LOGGER.warn("Could not shutdown TestInProgress message sender", e);
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Description of a test class for a given run.
+ *
+ */
+class TestClassDescriptor {
+	private final String testId;
+	private final String name;
+	// guarded by this
+	private volatile boolean announced = false;
+	private final AtomicLong duration = new AtomicLong();
+
+	public TestClassDescriptor(Class<?> testClass, String testId) {
+		this.testId = testId;
+		this.name = testClass.getName();
+	}
+
+	public String getTestId() {
+		return testId;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return true if the test tree node for this class has been sent
+	 */
+	public boolean isAnnounced() {
+		return announced;
+	}
+
+	public void setAnnounced() {
+		this.announced = true;
+	}
+
+	public void addDuration(long duration) {
+		this.duration.addAndGet(duration);
+	}
+
+	/**
+	 * @return total duration of the tests of this class in ms
+	 */
+	public long getDuration() {
+		return duration.get();
+	}
+
+}
@@ -0,0 +1,54 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gives a test id to each test node (run, class or method) of a run.
+ *
+ * Keys are compared using equals, they should be objects that are already
+ * available when handling an event (ie {@link Class} or
+ * {@link org.testng.internal.ConstructorOrMethod}) so that a lookup does not
+ * allocate. Ids are taken from an atomic counter and their string
+ * representation is computed once.
+ *
+ * Ids can be prefixed (ie by a shard id) so that they do not collide with the
+ * ids of another registry.
+ *
+ */
+class TestIdRegistry {
+	private final ConcurrentMap<Object, String> testIds = new ConcurrentHashMap<Object, String>();
+	private final AtomicLong nextTestId = new AtomicLong(1);
+	private final String prefix;
+
+	public TestIdRegistry() {
+		this("");
+	}
+
+	public TestIdRegistry(String prefix) {
+		this.prefix = prefix;
+	}
+
+	public String getTestId(Object key) {
+		String testId = testIds.get(key);
+		if (testId == null) {
+			String newTestId = newTestId();
+			testId = testIds.putIfAbsent(key, newTestId);
+			if (testId == null) {
+				testId = newTestId;
+			}
+		}
+		return testId;
+	}
+
+	/**
+	 * Get a new test id for a node that has no key (ie an invocation)
+	 * 
+	 * @return
+	 */
+	public String newTestId() {
+		return prefix + nextTestId.getAndIncrement();
+	}
+
+}
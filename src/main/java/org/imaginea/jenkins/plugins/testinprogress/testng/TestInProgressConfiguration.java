@@ -0,0 +1,330 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import java.io.File;
+
+/**
+ * Configuration of the TestInProgress listener.
+ *
+ * Defaults reproduce the historical behavior. Use
+ * {@link #fromSystemProperties()} to read the configuration from the
+ * TEST_IN_PROGRESS_* system properties.
+ *
+ */
+public class TestInProgressConfiguration {
+	public static final String TEST_TREE_MODE_PROPERTY = "TEST_IN_PROGRESS_TEST_TREE_MODE";
+	public static final String TRACE_MAX_DEPTH_PROPERTY = "TEST_IN_PROGRESS_TRACE_MAX_DEPTH";
+	public static final String TRACE_MAX_LENGTH_PROPERTY = "TEST_IN_PROGRESS_TRACE_MAX_LENGTH";
+	public static final String TRACE_FILTER_FRAMEWORK_FRAMES_PROPERTY = "TEST_IN_PROGRESS_TRACE_FILTER_FRAMEWORK_FRAMES";
+	public static final String TRACE_DEDUPLICATE_PROPERTY = "TEST_IN_PROGRESS_TRACE_DEDUPLICATE";
+	public static final String PRINT_STATISTICS_PROPERTY = "TEST_IN_PROGRESS_PRINT_STATISTICS";
+	public static final String COALESCE_INVOCATIONS_PROPERTY = "TEST_IN_PROGRESS_COALESCE_INVOCATIONS";
+	public static final String COALESCE_INTERVAL_MS_PROPERTY = "TEST_IN_PROGRESS_COALESCE_INTERVAL_MS";
+	public static final String RATE_LIMIT_PROPERTY = "TEST_IN_PROGRESS_RATE_LIMIT";
+	public static final String RATE_LIMIT_BURST_PROPERTY = "TEST_IN_PROGRESS_RATE_LIMIT_BURST";
+	public static final String SLOWEST_TESTS_PROPERTY = "TEST_IN_PROGRESS_SLOWEST_TESTS";
+	public static final String DURATION_STORE_PROPERTY = "TEST_IN_PROGRESS_DURATION_STORE";
+	public static final String ETA_INTERVAL_MS_PROPERTY = "TEST_IN_PROGRESS_ETA_INTERVAL_MS";
+	public static final String SUITE_PROGRESS_PROPERTY = "TEST_IN_PROGRESS_SUITE_PROGRESS";
+	public static final String SUITE_HEARTBEAT_MS_PROPERTY = "TEST_IN_PROGRESS_SUITE_HEARTBEAT_MS";
+	public static final String HEARTBEAT_MS_PROPERTY = "TEST_IN_PROGRESS_HEARTBEAT_MS";
+	public static final String HANG_THRESHOLD_MS_PROPERTY = "TEST_IN_PROGRESS_HANG_THRESHOLD_MS";
+	public static final String SHARD_ID_PROPERTY = "TEST_IN_PROGRESS_SHARD_ID";
+	private TestTreeMode testTreeMode = TestTreeMode.EAGER;
+	private int traceMaxDepth = -1;
+	private int traceMaxLength = -1;
+	private boolean traceFilterFrameworkFrames = false;
+	private boolean traceDeduplicate = false;
+	private boolean printStatistics = false;
+	private boolean coalesceInvocations = false;
+	private long coalesceIntervalMs = 1000;
+	private int rateLimit = 0;
+	private int rateLimitBurst = 0;
+	private int slowestTests = 0;
+	private File durationStore = null;
+	private long etaIntervalMs = 10000;
+	private boolean suiteProgress = false;
+	private long suiteHeartbeatMs = 10000;
+	private long heartbeatMs = 0;
+	private long hangThresholdMs = 0;
+	private String shardId = null;
+
+	public static TestInProgressConfiguration fromSystemProperties() {
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		String testTreeMode = System.getProperty(TEST_TREE_MODE_PROPERTY);
+		if (testTreeMode != null) {
+			configuration.setTestTreeMode(TestTreeMode.valueOf(testTreeMode
+					.toUpperCase()));
+		}
+		configuration.setTraceMaxDepth(Integer.getInteger(
+				TRACE_MAX_DEPTH_PROPERTY, configuration.getTraceMaxDepth()));
+		configuration.setTraceMaxLength(Integer.getInteger(
+				TRACE_MAX_LENGTH_PROPERTY, configuration.getTraceMaxLength()));
+		configuration.setTraceFilterFrameworkFrames(Boolean
+				.getBoolean(TRACE_FILTER_FRAMEWORK_FRAMES_PROPERTY));
+		configuration.setTraceDeduplicate(Boolean
+				.getBoolean(TRACE_DEDUPLICATE_PROPERTY));
+		configuration.setPrintStatistics(Boolean
+				.getBoolean(PRINT_STATISTICS_PROPERTY));
+		configuration.setCoalesceInvocations(Boolean
+				.getBoolean(COALESCE_INVOCATIONS_PROPERTY));
+		configuration.setCoalesceIntervalMs(Long.getLong(
+				COALESCE_INTERVAL_MS_PROPERTY,
+				configuration.getCoalesceIntervalMs()));
+		configuration.setRateLimit(Integer.getInteger(RATE_LIMIT_PROPERTY,
+				configuration.getRateLimit()));
+		configuration.setRateLimitBurst(Integer.getInteger(
+				RATE_LIMIT_BURST_PROPERTY, configuration.getRateLimitBurst()));
+		configuration.setSlowestTests(Integer.getInteger(
+				SLOWEST_TESTS_PROPERTY, configuration.getSlowestTests()));
+		String durationStore = System.getProperty(DURATION_STORE_PROPERTY);
+		if (durationStore != null) {
+			configuration.setDurationStore(new File(durationStore));
+		}
+		configuration.setEtaIntervalMs(Long.getLong(ETA_INTERVAL_MS_PROPERTY,
+				configuration.getEtaIntervalMs()));
+		configuration.setSuiteProgress(Boolean
+				.getBoolean(SUITE_PROGRESS_PROPERTY));
+		configuration.setSuiteHeartbeatMs(Long.getLong(
+				SUITE_HEARTBEAT_MS_PROPERTY,
+				configuration.getSuiteHeartbeatMs()));
+		configuration.setHeartbeatMs(Long.getLong(HEARTBEAT_MS_PROPERTY,
+				configuration.getHeartbeatMs()));
+		configuration.setHangThresholdMs(Long.getLong(
+				HANG_THRESHOLD_MS_PROPERTY, configuration.getHangThresholdMs()));
+		configuration.setShardId(System.getProperty(SHARD_ID_PROPERTY));
+		return configuration;
+	}
+
+	public TestTreeMode getTestTreeMode() {
+		return testTreeMode;
+	}
+
+	public void setTestTreeMode(TestTreeMode testTreeMode) {
+		this.testTreeMode = testTreeMode;
+	}
+
+	public int getTraceMaxDepth() {
+		return traceMaxDepth;
+	}
+
+	/**
+	 * @param traceMaxDepth
+	 *            max number of frames rendered for each throwable of a trace,
+	 *            -1 for no limit
+	 */
+	public void setTraceMaxDepth(int traceMaxDepth) {
+		this.traceMaxDepth = traceMaxDepth;
+	}
+
+	public int getTraceMaxLength() {
+		return traceMaxLength;
+	}
+
+	/**
+	 * @param traceMaxLength
+	 *            max UTF-8 size of a trace in bytes, -1 for no limit
+	 */
+	public void setTraceMaxLength(int traceMaxLength) {
+		this.traceMaxLength = traceMaxLength;
+	}
+
+	public boolean isTraceFilterFrameworkFrames() {
+		return traceFilterFrameworkFrames;
+	}
+
+	/**
+	 * @param traceFilterFrameworkFrames
+	 *            true to drop TestNG, reflection and surefire frames from
+	 *            traces
+	 */
+	public void setTraceFilterFrameworkFrames(boolean traceFilterFrameworkFrames) {
+		this.traceFilterFrameworkFrames = traceFilterFrameworkFrames;
+	}
+
+	public boolean isTraceDeduplicate() {
+		return traceDeduplicate;
+	}
+
+	/**
+	 * @param traceDeduplicate
+	 *            true to send a reference to the first failed test instead of
+	 *            a trace that has already been sent
+	 */
+	public void setTraceDeduplicate(boolean traceDeduplicate) {
+		this.traceDeduplicate = traceDeduplicate;
+	}
+
+	public boolean isPrintStatistics() {
+		return printStatistics;
+	}
+
+	/**
+	 * @param printStatistics
+	 *            true to log the overhead of the listener at the end of each
+	 *            run, at INFO level
+	 */
+	public void setPrintStatistics(boolean printStatistics) {
+		this.printStatistics = printStatistics;
+	}
+
+	public boolean isCoalesceInvocations() {
+		return coalesceInvocations;
+	}
+
+	/**
+	 * @param coalesceInvocations
+	 *            true to send periodic summaries of the invocations of data
+	 *            provider methods and methods with an invocation count instead
+	 *            of one test per invocation. Failed invocations are still sent
+	 *            individually.
+	 */
+	public void setCoalesceInvocations(boolean coalesceInvocations) {
+		this.coalesceInvocations = coalesceInvocations;
+	}
+
+	public long getCoalesceIntervalMs() {
+		return coalesceIntervalMs;
+	}
+
+	/**
+	 * @param coalesceIntervalMs
+	 *            min time between two summaries of the invocations of a method
+	 */
+	public void setCoalesceIntervalMs(long coalesceIntervalMs) {
+		this.coalesceIntervalMs = coalesceIntervalMs;
+	}
+
+	public int getRateLimit() {
+		return rateLimit;
+	}
+
+	/**
+	 * @param rateLimit
+	 *            max number of messages per second for a run, 0 for no limit.
+	 *            When the limit is reached, test starts are dropped and the
+	 *            ends of these tests are summarized. Failures are always sent.
+	 */
+	public void setRateLimit(int rateLimit) {
+		this.rateLimit = rateLimit;
+	}
+
+	public int getRateLimitBurst() {
+		return rateLimitBurst;
+	}
+
+	/**
+	 * @param rateLimitBurst
+	 *            number of messages that can be sent at once before the rate
+	 *            limit applies, 0 for the rate limit
+	 */
+	public void setRateLimitBurst(int rateLimitBurst) {
+		this.rateLimitBurst = rateLimitBurst;
+	}
+
+	public int getSlowestTests() {
+		return slowestTests;
+	}
+
+	/**
+	 * @param slowestTests
+	 *            number of slowest methods and classes sent at the end of the
+	 *            run, 0 to send none
+	 */
+	public void setSlowestTests(int slowestTests) {
+		this.slowestTests = slowestTests;
+	}
+
+	public File getDurationStore() {
+		return durationStore;
+	}
+
+	/**
+	 * @param durationStore
+	 *            file where the durations of the methods are kept between runs
+	 *            to estimate the remaining time of a run, null for no
+	 *            estimate
+	 */
+	public void setDurationStore(File durationStore) {
+		this.durationStore = durationStore;
+	}
+
+	public long getEtaIntervalMs() {
+		return etaIntervalMs;
+	}
+
+	/**
+	 * @param etaIntervalMs
+	 *            min time between two estimates of the remaining time
+	 */
+	public void setEtaIntervalMs(long etaIntervalMs) {
+		this.etaIntervalMs = etaIntervalMs;
+	}
+
+	public boolean isSuiteProgress() {
+		return suiteProgress;
+	}
+
+	/**
+	 * @param suiteProgress
+	 *            true to send an additional run for each suite with its xml
+	 *            tests and the aggregated counters of all its tests
+	 */
+	public void setSuiteProgress(boolean suiteProgress) {
+		this.suiteProgress = suiteProgress;
+	}
+
+	public long getSuiteHeartbeatMs() {
+		return suiteHeartbeatMs;
+	}
+
+	/**
+	 * @param suiteHeartbeatMs
+	 *            time between two sends of the counters of a suite
+	 */
+	public void setSuiteHeartbeatMs(long suiteHeartbeatMs) {
+		this.suiteHeartbeatMs = suiteHeartbeatMs;
+	}
+
+	public long getHeartbeatMs() {
+		return heartbeatMs;
+	}
+
+	/**
+	 * @param heartbeatMs
+	 *            time between two heartbeats of a run (tests completed, tests
+	 *            in flight, heap and GC), 0 for no heartbeat
+	 */
+	public void setHeartbeatMs(long heartbeatMs) {
+		this.heartbeatMs = heartbeatMs;
+	}
+
+	public long getHangThresholdMs() {
+		return hangThresholdMs;
+	}
+
+	/**
+	 * @param hangThresholdMs
+	 *            time after which a test that is still running is reported as
+	 *            a slow test with the stack trace of its thread, 0 for no
+	 *            hang detection
+	 */
+	public void setHangThresholdMs(long hangThresholdMs) {
+		this.hangThresholdMs = hangThresholdMs;
+	}
+
+	public String getShardId() {
+		return shardId;
+	}
+
+	/**
+	 * @param shardId
+	 *            id of this JVM when the same suite runs in several JVMs (ie
+	 *            ${surefire.forkNumber}), null if not sharded. It is part of
+	 *            the runIds and of the test ids so that the shards do not
+	 *            collide.
+	 */
+	public void setShardId(String shardId) {
+		this.shardId = shardId;
+	}
+
+}
@@ -0,0 +1,145 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.ITestNGMethod;
+import org.testng.internal.ConstructorOrMethod;
+
+/**
+ * Description of a test or configuration method for a given run. Computed
+ * once so that test events do not have to compute keys or ids.
+ *
+ */
+class TestMethodDescriptor {
+	private final ConstructorOrMethod method;
+	private final String testId;
+	private final String name;
+	private final TestClassDescriptor classDescriptor;
+	// guarded by classDescriptor
+	private volatile boolean announced = false;
+	private final AtomicLong duration = new AtomicLong();
+	private volatile long expectedDuration = -1;
+
+	public TestMethodDescriptor(ConstructorOrMethod method, String testId,
+			TestClassDescriptor classDescriptor) {
+		this(method, testId, getName(method), classDescriptor);
+	}
+
+	public TestMethodDescriptor(ConstructorOrMethod method, String testId,
+			String name, TestClassDescriptor classDescriptor) {
+		this.method = method;
+		this.testId = testId;
+		this.name = name;
+		this.classDescriptor = classDescriptor;
+	}
+
+	/**
+	 * Get the name used for the method in messages
+	 *
+	 * @param method
+	 * @return
+	 */
+	public static String getName(ConstructorOrMethod method) {
+		return method.getName() + "(" + method.getDeclaringClass().getName()
+				+ ")";
+	}
+
+	/**
+	 * Get the name used for a configuration method in messages, ie the name
+	 * of the method prefixed by its configuration annotation
+	 * 
+	 * @param testMethod
+	 * @return
+	 */
+	public static String getConfigurationName(ITestNGMethod testMethod) {
+		return "@" + getConfigurationAnnotation(testMethod) + " "
+				+ getName(testMethod.getConstructorOrMethod());
+	}
+
+	private static String getConfigurationAnnotation(ITestNGMethod testMethod) {
+		if (testMethod.isBeforeMethodConfiguration()) {
+			return "BeforeMethod";
+		} else if (testMethod.isAfterMethodConfiguration()) {
+			return "AfterMethod";
+		} else if (testMethod.isBeforeClassConfiguration()) {
+			return "BeforeClass";
+		} else if (testMethod.isAfterClassConfiguration()) {
+			return "AfterClass";
+		} else if (testMethod.isBeforeTestConfiguration()) {
+			return "BeforeTest";
+		} else if (testMethod.isAfterTestConfiguration()) {
+			return "AfterTest";
+		} else if (testMethod.isBeforeGroupsConfiguration()) {
+			return "BeforeGroups";
+		} else if (testMethod.isAfterGroupsConfiguration()) {
+			return "AfterGroups";
+		} else if (testMethod.isBeforeSuiteConfiguration()) {
+			return "BeforeSuite";
+		} else if (testMethod.isAfterSuiteConfiguration()) {
+			return "AfterSuite";
+		}
+		return "Configuration";
+	}
+
+	public ConstructorOrMethod getMethod() {
+		return method;
+	}
+
+	public String getTestId() {
+		return testId;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public TestClassDescriptor getClassDescriptor() {
+		return classDescriptor;
+	}
+
+	public String getClassTestId() {
+		return classDescriptor.getTestId();
+	}
+
+	/**
+	 * @return true if the test tree node for this method has been sent
+	 */
+	public boolean isAnnounced() {
+		return announced;
+	}
+
+	public void setAnnounced() {
+		this.announced = true;
+	}
+
+	/**
+	 * Add the duration of an invocation of this method to the method and its
+	 * class
+	 * 
+	 * @param duration
+	 * @return the total duration of the method
+	 */
+	public long addDuration(long duration) {
+		classDescriptor.addDuration(duration);
+		return this.duration.addAndGet(duration);
+	}
+
+	/**
+	 * @return total duration of the invocations of this method in ms
+	 */
+	public long getDuration() {
+		return duration.get();
+	}
+
+	/**
+	 * @return duration of the method in the previous runs, -1 if unknown
+	 */
+	public long getExpectedDuration() {
+		return expectedDuration;
+	}
+
+	public void setExpectedDuration(long expectedDuration) {
+		this.expectedDuration = expectedDuration;
+	}
+
+}
@@ -1,9 +1,28 @@
 package org.imaginea.jenkins.plugins.testinprogress.testng;
 
-import java.io.IOException;
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Deflater;
 
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.AsyncMessageSenderFactory;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.BatchingConnectionFactory;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.BinaryMessageSenderFactory;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.BufferedSocketMessageSenderFactory;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.ByteBufferMessageSenderFactory;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.CompressingConnectionFactory;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.ConnectionMessageSenderFactory;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.IConnectionFactory;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.MultiplexingMessageSenderFactory;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.QueueFullPolicy;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.ReconnectingMessageSenderFactory;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.SocketConnectionFactory;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.SpoolingMessageSenderFactory;
 import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
 import org.jenkinsci.testinprogress.messagesender.SocketMessageSenderFactory;
+import org.testng.IConfigurationListener2;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
 import org.testng.ITestContext;
 import org.testng.ITestListener;
 import org.testng.ITestResult;
@@ -13,137 +32,474 @@ import org.testng.log4testng.Logger;
  * Using ITestListener implementation of TestNg to implement the logic of
  * test-In-progress jenkins plugin.
  * 
+ * Configuration methods are reported as test nodes of their class. Suite
+ * configuration methods run outside of any test context and are not
+ * reported.
+ * 
+ * When suite progress is enabled, each suite is also sent as a run of its
+ * own aggregating its xml tests (see {@link SuiteRunListener}).
+ * 
  * @author Varun Menon (github id: menonvarun)
  * @author Cedric Chabanois (github id:cchabanois)
  * 
  */
-public class TestNGProgressRunListener implements ITestListener {
-	private static final String RUN_TEST_LISTENER_ATTRIBUTE = "runTestListener";
+public class TestNGProgressRunListener implements ITestListener,
+		IConfigurationListener2, ISuiteListener {
+	public static final String ASYNC_PROPERTY = "TEST_IN_PROGRESS_ASYNC";
+	public static final String ASYNC_QUEUE_CAPACITY_PROPERTY = "TEST_IN_PROGRESS_ASYNC_QUEUE_CAPACITY";
+	public static final String ASYNC_QUEUE_FULL_POLICY_PROPERTY = "TEST_IN_PROGRESS_ASYNC_QUEUE_FULL_POLICY";
+	public static final String MULTIPLEX_PROPERTY = "TEST_IN_PROGRESS_MULTIPLEX";
+	public static final String BINARY_PROPERTY = "TEST_IN_PROGRESS_BINARY";
+	public static final String DIRECT_ENCODING_PROPERTY = "TEST_IN_PROGRESS_DIRECT_ENCODING";
+	public static final String COMPRESS_PROPERTY = "TEST_IN_PROGRESS_COMPRESS";
+	public static final String COMPRESS_LEVEL_PROPERTY = "TEST_IN_PROGRESS_COMPRESS_LEVEL";
+	public static final String COMPRESS_FLUSH_INTERVAL_MS_PROPERTY = "TEST_IN_PROGRESS_COMPRESS_FLUSH_INTERVAL_MS";
+	public static final String BATCH_PROPERTY = "TEST_IN_PROGRESS_BATCH";
+	public static final String BATCH_SIZE_PROPERTY = "TEST_IN_PROGRESS_BATCH_SIZE";
+	public static final String BATCH_LINGER_MS_PROPERTY = "TEST_IN_PROGRESS_BATCH_LINGER_MS";
+	public static final String RECONNECT_PROPERTY = "TEST_IN_PROGRESS_RECONNECT";
+	public static final String RECONNECT_MAX_BACKLOG_PROPERTY = "TEST_IN_PROGRESS_RECONNECT_MAX_BACKLOG";
+	public static final String SPOOL_PROPERTY = "TEST_IN_PROGRESS_SPOOL";
+	public static final String SPOOL_DIRECTORY_PROPERTY = "TEST_IN_PROGRESS_SPOOL_DIRECTORY";
+	public static final String SPOOL_MAX_BYTES_PROPERTY = "TEST_IN_PROGRESS_SPOOL_MAX_BYTES";
 	private static final Logger LOGGER = Logger
 			.getLogger(TestNGProgressRunListener.class);
 	private final IMessageSenderFactory messageSenderFactory;
+	private final TestInProgressConfiguration configuration;
+	private final ListenerStatistics statistics = ListenerStatistics
+			.getInstance();
+	// context attributes are not thread safe
+	private final ConcurrentMap<ITestContext, RunTestListener> runTestListeners = new ConcurrentHashMap<ITestContext, RunTestListener>();
+	private final ConcurrentMap<ISuite, SuiteRunListener> suiteRunListeners = new ConcurrentHashMap<ISuite, SuiteRunListener>();
 
 	public TestNGProgressRunListener(IMessageSenderFactory messageSenderFactory) {
+		this(messageSenderFactory, new TestInProgressConfiguration());
+	}
+
+	public TestNGProgressRunListener(
+			IMessageSenderFactory messageSenderFactory,
+			TestInProgressConfiguration configuration) {
 		this.messageSenderFactory = messageSenderFactory;
+		this.configuration = configuration;
 	}
 
 	public TestNGProgressRunListener() {
-		this.messageSenderFactory = new SocketMessageSenderFactory();
+		this(createMessageSenderFactory(), TestInProgressConfiguration
+				.fromSystemProperties());
 	}
 
-	public void onTestSuccess(final ITestResult result) {
-		safeRun(result.getTestContext(), new IRunTestListenerRunnable() {
+	/**
+	 * Creates the message sender factory from system properties. When
+	 * TEST_IN_PROGRESS_MULTIPLEX is true, all the runs of the JVM share a single
+	 * connection (the queue of each run is bounded like the queue of the async
+	 * message senders). Otherwise, when TEST_IN_PROGRESS_BINARY is true, messages are
+	 * sent using a compact binary format instead of JSON, and when
+	 * TEST_IN_PROGRESS_DIRECT_ENCODING is true, JSON messages are encoded
+	 * directly into reusable byte buffers. When TEST_IN_PROGRESS_COMPRESS is
+	 * true, connections are compressed. When TEST_IN_PROGRESS_BATCH is true,
+	 * messages are written to the connection in batches, whatever the
+	 * transport (compressed connections are always batched). When
+	 * TEST_IN_PROGRESS_RECONNECT is true, the connection is reopened when it is
+	 * lost. When TEST_IN_PROGRESS_SPOOL is true, messages are spooled to a local
+	 * file and replayed when the connection is lost. When TEST_IN_PROGRESS_ASYNC
+	 * is true, messages are sent by a dedicated thread per run instead of the
+	 * test threads.
+	 * 
+	 * @return
+	 */
+	private static IMessageSenderFactory createMessageSenderFactory() {
+		IMessageSenderFactory messageSenderFactory;
+		warnIfIgnored(MULTIPLEX_PROPERTY, BINARY_PROPERTY,
+				DIRECT_ENCODING_PROPERTY);
+		warnIfIgnored(BINARY_PROPERTY, DIRECT_ENCODING_PROPERTY);
+		if (System.getProperty(TestInProgressConfiguration.SHARD_ID_PROPERTY) != null
+				&& ((Boolean.getBoolean(BINARY_PROPERTY) && !Boolean
+						.getBoolean(MULTIPLEX_PROPERTY)) || Boolean
+						.getBoolean(COMPRESS_PROPERTY))) {
+			LOGGER.warn("Shards using " + BINARY_PROPERTY + " or "
+					+ COMPRESS_PROPERTY
+					+ " cannot be merged by the shard aggregator");
+		}
+		if (Boolean.getBoolean(MULTIPLEX_PROPERTY)) {
+			String host = getHost();
+			int port = getPort();
+			messageSenderFactory = MultiplexingMessageSenderFactory
+					.getInstance(host + ":" + port,
+							createConnectionFactory(host, port),
+							getQueueCapacity(), getQueueFullPolicy());
+		} else if (Boolean.getBoolean(BINARY_PROPERTY)) {
+			messageSenderFactory = new BinaryMessageSenderFactory(
+					createConnectionFactory(getHost(), getPort()));
+		} else if (Boolean.getBoolean(DIRECT_ENCODING_PROPERTY)) {
+			messageSenderFactory = new ByteBufferMessageSenderFactory(
+					createConnectionFactory(getHost(), getPort()));
+		} else if (Boolean.getBoolean(COMPRESS_PROPERTY)) {
+			// compressed connections are already batched
+			messageSenderFactory = new ConnectionMessageSenderFactory(
+					createConnectionFactory(getHost(), getPort()));
+		} else if (Boolean.getBoolean(BATCH_PROPERTY)) {
+			int batchSize = Integer.getInteger(BATCH_SIZE_PROPERTY,
+					BufferedSocketMessageSenderFactory.DEFAULT_BATCH_SIZE);
+			long lingerMs = Long.getLong(BATCH_LINGER_MS_PROPERTY,
+					BufferedSocketMessageSenderFactory.DEFAULT_LINGER_MS);
+			messageSenderFactory = new BufferedSocketMessageSenderFactory(
+					batchSize, lingerMs);
+		} else {
+			messageSenderFactory = new SocketMessageSenderFactory();
+		}
+		if (Boolean.getBoolean(RECONNECT_PROPERTY)) {
+			int maxBacklogSize = Integer.getInteger(
+					RECONNECT_MAX_BACKLOG_PROPERTY,
+					ReconnectingMessageSenderFactory.DEFAULT_MAX_BACKLOG_SIZE);
+			messageSenderFactory = new ReconnectingMessageSenderFactory(
+					messageSenderFactory, maxBacklogSize);
+		}
+		if (Boolean.getBoolean(SPOOL_PROPERTY)) {
+			File spoolDirectory = new File(System.getProperty(
+					SPOOL_DIRECTORY_PROPERTY,
+					System.getProperty("java.io.tmpdir")));
+			long maxSpoolBytes = Long.getLong(SPOOL_MAX_BYTES_PROPERTY,
+					SpoolingMessageSenderFactory.DEFAULT_MAX_SPOOL_BYTES);
+			messageSenderFactory = new SpoolingMessageSenderFactory(
+					messageSenderFactory, spoolDirectory, maxSpoolBytes);
+		}
+		if (Boolean.getBoolean(ASYNC_PROPERTY)) {
+			messageSenderFactory = new AsyncMessageSenderFactory(
+					messageSenderFactory, getQueueCapacity(),
+					getQueueFullPolicy());
+		}
+		return messageSenderFactory;
+	}
 
-			@Override
-			public void run(RunTestListener runTestListener) throws IOException {
-				runTestListener.onTestSuccess(result);
+	/**
+	 * Log a warning for each of the ignored properties that is enabled when
+	 * the given property is enabled
+	 * 
+	 * @param property
+	 * @param ignoredProperties
+	 */
+	private static void warnIfIgnored(String property,
+			String... ignoredProperties) {
+		if (!Boolean.getBoolean(property)) {
+			return;
+		}
+		for (String ignoredProperty : ignoredProperties) {
+			if (Boolean.getBoolean(ignoredProperty)) {
+				LOGGER.warn(ignoredProperty + " is ignored because " + property
+						+ " is enabled");
 			}
-		});
+		}
 	}
 
-	public void onTestFailure(final ITestResult result) {
-		safeRun(result.getTestContext(), new IRunTestListenerRunnable() {
+	/**
+	 * @return capacity of the queues of the async message senders and of the
+	 *         multiplexed channels
+	 */
+	private static int getQueueCapacity() {
+		return Integer.getInteger(ASYNC_QUEUE_CAPACITY_PROPERTY,
+				AsyncMessageSenderFactory.DEFAULT_QUEUE_CAPACITY);
+	}
 
-			@Override
-			public void run(RunTestListener runTestListener) throws IOException {
-				runTestListener.onTestFailure(result);
+	private static QueueFullPolicy getQueueFullPolicy() {
+		return QueueFullPolicy.valueOf(System.getProperty(
+				ASYNC_QUEUE_FULL_POLICY_PROPERTY, QueueFullPolicy.BLOCK.name())
+				.toUpperCase());
+	}
 
-			}
-		});
+	private static String getHost() {
+		return System.getProperty(
+				BufferedSocketMessageSenderFactory.HOST_PROPERTY, "localhost");
 	}
 
-	public void onTestSkipped(final ITestResult result) {
-		safeRun(result.getTestContext(), new IRunTestListenerRunnable() {
+	private static int getPort() {
+		return Integer.parseInt(System
+				.getProperty(BufferedSocketMessageSenderFactory.PORT_PROPERTY));
+	}
 
-			@Override
-			public void run(RunTestListener runTestListener) throws IOException {
-				runTestListener.onTestSkipped(result);
-			}
-		});
+	/**
+	 * Creates the factory for connections to the server. Connections are
+	 * compressed when TEST_IN_PROGRESS_COMPRESS is true, batched when
+	 * TEST_IN_PROGRESS_BATCH is true.
+	 * 
+	 * @param host
+	 * @param port
+	 * @return
+	 */
+	private static IConnectionFactory createConnectionFactory(String host,
+			int port) {
+		IConnectionFactory connectionFactory = new SocketConnectionFactory(
+				host, port);
+		if (Boolean.getBoolean(COMPRESS_PROPERTY)) {
+			int level = Integer.getInteger(COMPRESS_LEVEL_PROPERTY,
+					Deflater.DEFAULT_COMPRESSION);
+			long flushIntervalMs = Long.getLong(
+					COMPRESS_FLUSH_INTERVAL_MS_PROPERTY,
+					CompressingConnectionFactory.DEFAULT_FLUSH_INTERVAL_MS);
+			CompressingConnectionFactory compressingConnectionFactory = new CompressingConnectionFactory(
+					connectionFactory, level, flushIntervalMs);
+			ListenerStatistics.getInstance().addCompressingConnectionFactory(
+					compressingConnectionFactory);
+			connectionFactory = compressingConnectionFactory;
+		} else if (Boolean.getBoolean(BATCH_PROPERTY)) {
+			connectionFactory = new BatchingConnectionFactory(
+					connectionFactory, Integer.getInteger(BATCH_SIZE_PROPERTY,
+							BufferedSocketMessageSenderFactory.DEFAULT_BATCH_SIZE),
+					Long.getLong(BATCH_LINGER_MS_PROPERTY,
+							BufferedSocketMessageSenderFactory.DEFAULT_LINGER_MS));
+		}
+		return connectionFactory;
 	}
 
-	public void onTestFailedButWithinSuccessPercentage(final ITestResult result) {
-		safeRun(result.getTestContext(), new IRunTestListenerRunnable() {
+	public void onTestSuccess(ITestResult result) {
+		updateSuite(ListenerEvent.TEST_SUCCESS, result);
+		safeRun(ListenerEvent.TEST_SUCCESS, result.getTestContext(), result);
+	}
 
-			@Override
-			public void run(RunTestListener runTestListener) throws IOException {
-				runTestListener.onTestFailedButWithinSuccessPercentage(result);
-			}
-		});
+	public void onTestFailure(ITestResult result) {
+		updateSuite(ListenerEvent.TEST_FAILURE, result);
+		safeRun(ListenerEvent.TEST_FAILURE, result.getTestContext(), result);
 	}
 
-	public void onStart(final ITestContext context) {
-		RunTestListener runTestListener = new RunTestListener(context,
-				messageSenderFactory);
-		setRunTestListener(context, runTestListener);
-		safeRun(context, new IRunTestListenerRunnable() {
+	public void onTestSkipped(ITestResult result) {
+		updateSuite(ListenerEvent.TEST_SKIPPED, result);
+		safeRun(ListenerEvent.TEST_SKIPPED, result.getTestContext(), result);
+	}
 
-			@Override
-			public void run(RunTestListener runTestListener) throws IOException {
-				runTestListener.onStart(context);
-			}
-		});
+	public void onTestFailedButWithinSuccessPercentage(ITestResult result) {
+		updateSuite(ListenerEvent.TEST_FAILED_BUT_WITHIN_SUCCESS_PERCENTAGE,
+				result);
+		safeRun(ListenerEvent.TEST_FAILED_BUT_WITHIN_SUCCESS_PERCENTAGE,
+				result.getTestContext(), result);
 	}
 
-	public void onFinish(final ITestContext context) {
-		safeRun(context, new IRunTestListenerRunnable() {
+	public void beforeConfiguration(ITestResult result) {
+		safeRun(ListenerEvent.CONFIGURATION_START, result.getTestContext(),
+				result);
+	}
 
-			@Override
-			public void run(RunTestListener runTestListener) throws IOException {
-				runTestListener.onFinish(context);
+	public void onConfigurationSuccess(ITestResult result) {
+		safeRun(ListenerEvent.CONFIGURATION_SUCCESS, result.getTestContext(),
+				result);
+	}
 
-			}
-		});
+	public void onConfigurationFailure(ITestResult result) {
+		safeRun(ListenerEvent.CONFIGURATION_FAILURE, result.getTestContext(),
+				result);
+	}
+
+	public void onConfigurationSkip(ITestResult result) {
+		safeRun(ListenerEvent.CONFIGURATION_SKIP, result.getTestContext(),
+				result);
 	}
 
-	public void onTestStart(final ITestResult result) {
-		safeRun(result.getTestContext(), new IRunTestListenerRunnable() {
+	public void onStart(ISuite suite) {
+		if (!configuration.isSuiteProgress()) {
+			return;
+		}
+		// TestNG notifies the suite listeners that are also test listeners
+		// twice
+		if (suiteRunListeners.containsKey(suite)) {
+			return;
+		}
+		long start = System.nanoTime();
+		SuiteRunListener suiteRunListener = new SuiteRunListener(suite,
+				messageSenderFactory, configuration);
+		suiteRunListeners.put(suite, suiteRunListener);
+		try {
+			suiteRunListener.onStart(suite);
+		} catch (Exception e) {
+			LOGGER.error(
+					"Exception occured while starting suite. The TestInProgress suite progress is disabled for this suite.",
+					e);
+			suiteRunListeners.remove(suite);
+			suiteRunListener.abort();
+		} finally {
+			statistics.recordCallback(ListenerEvent.SUITE_START,
+					System.nanoTime() - start);
+		}
+	}
+
+	public void onFinish(ISuite suite) {
+		long start = System.nanoTime();
+		SuiteRunListener suiteRunListener = suiteRunListeners.remove(suite);
+		if (suiteRunListener == null) {
+			return;
+		}
+		try {
+			suiteRunListener.onFinish(suite);
+		} catch (Exception e) {
+			LOGGER.error("Exception occured while finishing suite.", e);
+		} finally {
+			statistics.recordCallback(ListenerEvent.SUITE_FINISH,
+					System.nanoTime() - start);
+		}
+	}
+
+	public void onStart(ITestContext context) {
+		RunTestListener runTestListener = new RunTestListener(context,
+				messageSenderFactory, configuration);
+		setRunTestListener(context, runTestListener);
+		updateSuite(ListenerEvent.START, context, null);
+		safeRun(ListenerEvent.START, context, null);
+	}
+
+	public void onFinish(ITestContext context) {
+		safeRun(ListenerEvent.FINISH, context, null);
+		removeRunTestListener(context);
+		updateSuite(ListenerEvent.FINISH, context, null);
+	}
+
+	public void onTestStart(ITestResult result) {
+		updateSuite(ListenerEvent.TEST_START, result);
+		safeRun(ListenerEvent.TEST_START, result.getTestContext(), result);
+	}
 
-			@Override
-			public void run(RunTestListener runTestListener) throws IOException {
+	/**
+	 * Dispatch the event to the listener of the run. Events are dispatched
+	 * with a switch rather than a callback object so that no object is
+	 * allocated per event.
+	 * 
+	 * @param event
+	 * @param context
+	 * @param result
+	 *            the result of the test or null for the events of the test
+	 *            context
+	 */
+	private void safeRun(ListenerEvent event, ITestContext context,
+			ITestResult result) {
+		long start = System.nanoTime();
+		// When parallel="methods", several test methods (and listener
+		// methods) can run at the same time. RunTestListener only serializes
+		// the events of a given test.
+		RunTestListener runTestListener = getRunTestListener(context);
+		if (runTestListener == null) {
+			return;
+		}
+		try {
+			switch (event) {
+			case START:
+				runTestListener.onStart(context);
+				break;
+			case FINISH:
+				runTestListener.onFinish(context);
+				break;
+			case TEST_START:
 				runTestListener.onTestStart(result);
+				break;
+			case TEST_SUCCESS:
+				runTestListener.onTestSuccess(result);
+				break;
+			case TEST_FAILURE:
+				runTestListener.onTestFailure(result);
+				break;
+			case TEST_SKIPPED:
+				runTestListener.onTestSkipped(result);
+				break;
+			case TEST_FAILED_BUT_WITHIN_SUCCESS_PERCENTAGE:
+				runTestListener.onTestFailedButWithinSuccessPercentage(result);
+				break;
+			case CONFIGURATION_START:
+				runTestListener.beforeConfiguration(result);
+				break;
+			case CONFIGURATION_SUCCESS:
+				runTestListener.onConfigurationSuccess(result);
+				break;
+			case CONFIGURATION_FAILURE:
+				runTestListener.onConfigurationFailure(result);
+				break;
+			case CONFIGURATION_SKIP:
+				runTestListener.onConfigurationSkip(result);
+				break;
+			default:
+				break;
 			}
-		});
+		} catch (Exception e) {
+			LOGGER.error(
+					"Exception occured while handling test event. The TestInProgress listener has been removed for this run.",
+					e);
+			if (runTestListeners.remove(context, runTestListener)) {
+				runTestListener.abort();
+			}
+		} finally {
+			statistics.recordCallback(event, System.nanoTime() - start);
+		}
+	}
 
+	private void updateSuite(ListenerEvent event, ITestResult result) {
+		updateSuite(event, result.getTestContext(), result);
 	}
 
-	private void safeRun(ITestContext context, IRunTestListenerRunnable runnable) {
-		// When parallel="methods", several test methods (and listener methods) can run at the same time
-		synchronized (context) {
-			RunTestListener runTestListener = getRunTestListener(context);
-			if (runTestListener == null) {
-				return;
+	/**
+	 * Update the suite of the test context with the event. Events of the
+	 * configuration methods are not part of the suite progress.
+	 * 
+	 * @param event
+	 * @param context
+	 * @param result
+	 *            the result of the test or null for the events of the test
+	 *            context
+	 */
+	private void updateSuite(ListenerEvent event, ITestContext context,
+			ITestResult result) {
+		if (context == null || suiteRunListeners.isEmpty()) {
+			return;
+		}
+		ISuite suite = context.getSuite();
+		SuiteRunListener suiteRunListener = suiteRunListeners.get(suite);
+		if (suiteRunListener == null) {
+			return;
+		}
+		try {
+			switch (event) {
+			case START:
+				suiteRunListener.onStart(context);
+				break;
+			case FINISH:
+				suiteRunListener.onFinish(context);
+				break;
+			case TEST_START:
+				suiteRunListener.onTestStart(result);
+				break;
+			case TEST_SUCCESS:
+				suiteRunListener.onTestSuccess(result);
+				break;
+			case TEST_FAILURE:
+				suiteRunListener.onTestFailure(result);
+				break;
+			case TEST_SKIPPED:
+				suiteRunListener.onTestSkipped(result);
+				break;
+			case TEST_FAILED_BUT_WITHIN_SUCCESS_PERCENTAGE:
+				suiteRunListener.onTestFailedButWithinSuccessPercentage(result);
+				break;
+			default:
+				break;
 			}
-			try {
-				runnable.run(runTestListener);
-			} catch (Exception e) {
-				LOGGER.error(
-						"Exception occured while handling test event. The TestInProgress listener has been removed for this run.",
-						e);
-				removeRunTestListener(context);
+		} catch (Exception e) {
+			LOGGER.error(
+					"Exception occured while handling suite event. The TestInProgress suite progress is disabled for this suite.",
+					e);
+			if (suiteRunListeners.remove(suite, suiteRunListener)) {
+				suiteRunListener.abort();
 			}
 		}
 	}
 
 	private void setRunTestListener(ITestContext context,
 			RunTestListener runTestListener) {
-		context.setAttribute(RUN_TEST_LISTENER_ATTRIBUTE, runTestListener);
+		runTestListeners.put(context, runTestListener);
 	}
 
 	private RunTestListener getRunTestListener(ITestContext context) {
-		RunTestListener runTestListener = (RunTestListener) context
-				.getAttribute(RUN_TEST_LISTENER_ATTRIBUTE);
-		return runTestListener;
+		if (context == null) {
+			// suite configuration methods
+			return null;
+		}
+		return runTestListeners.get(context);
 	}
 
 	private void removeRunTestListener(ITestContext context) {
-		context.removeAttribute(RUN_TEST_LISTENER_ATTRIBUTE);
-	}
-
-	private static interface IRunTestListenerRunnable {
-
-		public void run(RunTestListener runTestListener) throws IOException;
-
+		runTestListeners.remove(context);
 	}
 
 }
@@ -0,0 +1,22 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+/**
+ * How the test tree is sent to the server
+ *
+ */
+public enum TestTreeMode {
+	/**
+	 * The whole tree, grouped by class, is sent before the first test starts
+	 */
+	EAGER,
+	/**
+	 * Class and method nodes are sent while walking the test methods, without
+	 * building the tree first
+	 */
+	STREAMING,
+	/**
+	 * A class node and a method node are only sent right before the first
+	 * start of the method
+	 */
+	LAZY
+}
@@ -0,0 +1,61 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+/**
+ * Budget of messages of a run.
+ *
+ * Tokens are added at a constant rate up to the capacity of the bucket.
+ * Messages that must be sent can take tokens that are not available yet: the
+ * following messages have to wait for the debt to be paid.
+ *
+ */
+class TokenBucket {
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	private final double tokensPerNano;
+	private final double capacity;
+	private double tokens;
+	private long lastRefill;
+
+	/**
+	 * @param tokensPerSecond
+	 * @param capacity
+	 *            max number of tokens, ie max burst
+	 */
+	public TokenBucket(double tokensPerSecond, double capacity) {
+		this.tokensPerNano = tokensPerSecond / NANOS_PER_SECOND;
+		this.capacity = capacity;
+		this.tokens = capacity;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Take tokens if they are available
+	 * 
+	 * @param count
+	 * @return false if there are not enough tokens
+	 */
+	public synchronized boolean tryAcquire(int count) {
+		refill();
+		if (tokens < count) {
+			return false;
+		}
+		tokens -= count;
+		return true;
+	}
+
+	/**
+	 * Take tokens even if they are not available
+	 * 
+	 * @param count
+	 */
+	public synchronized void acquire(int count) {
+		refill();
+		tokens -= count;
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+		lastRefill = now;
+	}
+
+}
@@ -0,0 +1,98 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.IOException;
+
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * A {@link MessageSender} that converts each event to a {@link Message} and
+ * handles it in {@link #send(Message)}.
+ *
+ */
+public abstract class AbstractMessageSender extends MessageSender {
+
+	@Override
+	public void testRunStarted(String runId) throws IOException {
+		send(Message.testRunStarted(runId));
+	}
+
+	@Override
+	public void testRunEnded(long elapsedTime) throws IOException {
+		send(Message.testRunEnded(elapsedTime));
+	}
+
+	@Override
+	public void testTree(String testId, String testName, String parentId,
+			boolean isSuite) throws IOException {
+		send(Message.testTree(testId, testName, parentId, isSuite));
+	}
+
+	@Override
+	public void testStarted(String testId, String testName, boolean ignored)
+			throws IOException {
+		send(Message.testStarted(testId, testName, ignored));
+	}
+
+	@Override
+	public void testEnded(String testId, String testName, boolean ignored)
+			throws IOException {
+		send(Message.testEnded(testId, testName, ignored));
+	}
+
+	/**
+	 * Send a test end with the duration of the test. The duration is lost if
+	 * the message is finally sent by a stock {@link MessageSender}.
+	 * 
+	 * @param testId
+	 * @param testName
+	 * @param ignored
+	 * @param duration
+	 *            duration of the test in ms
+	 * @throws IOException
+	 */
+	public void testEnded(String testId, String testName, boolean ignored,
+			long duration) throws IOException {
+		send(Message.testEnded(testId, testName, ignored, duration));
+	}
+
+	@Override
+	public void testError(String testId, String testName, String trace)
+			throws IOException {
+		send(Message.testError(testId, testName, trace));
+	}
+
+	/**
+	 * Send a test error. The trace is rendered when the message is actually
+	 * sent, which may be on another thread.
+	 * 
+	 * @param testId
+	 * @param testName
+	 * @param throwable
+	 * @param traceRenderer
+	 * @throws IOException
+	 */
+	public void testError(String testId, String testName, Throwable throwable,
+			ITraceRenderer traceRenderer) throws IOException {
+		send(Message.testError(testId, testName, throwable, traceRenderer));
+	}
+
+	/**
+	 * Get the number of messages accepted by this message sender that have
+	 * not been sent yet
+	 * 
+	 * @return
+	 */
+	public int getBacklog() {
+		return 0;
+	}
+
+	/**
+	 * @return true if events can be sent concurrently by several threads
+	 */
+	public boolean isThreadSafe() {
+		return false;
+	}
+
+	protected abstract void send(Message message) throws IOException;
+
+}
@@ -0,0 +1,232 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+import org.testng.log4testng.Logger;
+
+/**
+ * A {@link MessageSender} that puts messages in a bounded queue and returns
+ * immediately. A dedicated writer thread sends the messages, in order, using
+ * the delegate message sender.
+ *
+ * Traces are rendered by the writer thread, except for the messages that a
+ * test thread spills to a file when the queue is full: those are rendered by
+ * the test thread, as the throwable itself cannot be spilled.
+ *
+ */
+public class AsyncMessageSender extends ForwardingMessageSender {
+	private static final Logger LOGGER = Logger
+			.getLogger(AsyncMessageSender.class);
+	private static final long POLL_TIMEOUT_MS = 100;
+	private final BlockingQueue<Message> queue;
+	private final QueueFullPolicy queueFullPolicy;
+	private final SpillFile spillFile = new SpillFile();
+	private final AtomicLong droppedMessages = new AtomicLong();
+	private volatile boolean shutdownRequested = false;
+	private volatile IOException failure;
+	private Thread writerThread;
+
+	public AsyncMessageSender(MessageSender delegate, int queueCapacity,
+			QueueFullPolicy queueFullPolicy) {
+		super(delegate);
+		this.queue = new ArrayBlockingQueue<Message>(queueCapacity);
+		this.queueFullPolicy = queueFullPolicy;
+	}
+
+	@Override
+	public void init() throws IOException {
+		super.init();
+		writerThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				writeMessages();
+			}
+		}, "TestInProgress async writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	@Override
+	protected void send(Message message) throws IOException {
+		checkWriterFailure();
+		switch (queueFullPolicy) {
+		case BLOCK:
+			put(message);
+			break;
+		case DROP:
+			if (!queue.offer(message)) {
+				droppedMessages.incrementAndGet();
+			}
+			break;
+		case SPILL:
+			synchronized (spillFile) {
+				// once we started to spill, all messages must go to the spill
+				// file until it is drained to keep ordering
+				if (spillFile.size() > 0 || !queue.offer(message)) {
+					spillFile.append(message);
+				}
+			}
+			break;
+		}
+	}
+
+	private void put(Message message) throws IOException {
+		try {
+			while (!queue.offer(message, POLL_TIMEOUT_MS,
+					TimeUnit.MILLISECONDS)) {
+				checkWriterFailure();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while waiting for space in the queue");
+		}
+	}
+
+	private void checkWriterFailure() throws IOException {
+		IOException writerFailure = failure;
+		if (writerFailure != null) {
+			throw new IOException("Writer thread failed to send message",
+					writerFailure);
+		}
+	}
+
+	private void writeMessages() {
+		try {
+			Message message;
+			while ((message = nextMessage()) != null) {
+				super.send(message);
+			}
+		} catch (IOException e) {
+			writerFailed(e);
+		} catch (InterruptedException e) {
+			failure = new InterruptedIOException("Writer thread interrupted");
+			queue.clear();
+		} catch (RuntimeException e) {
+			// rendering a trace can fail too
+			writerFailed(new IOException(e));
+		} catch (Error e) {
+			writerFailed(new IOException(e));
+			throw e;
+		}
+	}
+
+	/**
+	 * Record the failure of the writer thread. Producers blocked on a full
+	 * queue get the failure instead of waiting forever.
+	 * 
+	 * @param e
+	 */
+	private void writerFailed(IOException e) {
+		LOGGER.error("Could not send TestInProgress message", e);
+		failure = e;
+		queue.clear();
+	}
+
+	private Message nextMessage() throws InterruptedException, IOException {
+		while (true) {
+			Message message = queue.poll();
+			if (message != null) {
+				return message;
+			}
+			message = readSpilledMessage();
+			if (message != null) {
+				return message;
+			}
+			if (shutdownRequested && queue.isEmpty()
+					&& getSpilledMessages() == 0) {
+				return null;
+			}
+			message = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			if (message != null) {
+				return message;
+			}
+		}
+	}
+
+	private Message readSpilledMessage() throws IOException {
+		if (queueFullPolicy != QueueFullPolicy.SPILL) {
+			return null;
+		}
+		synchronized (spillFile) {
+			// messages cannot be queued while we hold the lock. If the queue
+			// is not empty, its messages are older than the spilled ones.
+			if (!queue.isEmpty()) {
+				return null;
+			}
+			return spillFile.read();
+		}
+	}
+
+	private int getSpilledMessages() {
+		if (queueFullPolicy != QueueFullPolicy.SPILL) {
+			return 0;
+		}
+		synchronized (spillFile) {
+			return spillFile.size();
+		}
+	}
+
+	@Override
+	public void shutdown() throws IOException {
+		shutdownRequested = true;
+		try {
+			if (writerThread != null) {
+				writerThread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while waiting for writer thread");
+		}
+		long dropped = droppedMessages.get();
+		if (dropped > 0) {
+			LOGGER.warn(dropped
+					+ " TestInProgress messages have been dropped because the queue was full");
+		}
+		try {
+			synchronized (spillFile) {
+				spillFile.close();
+			}
+		} finally {
+			super.shutdown();
+		}
+	}
+
+	/**
+	 * Get the number of messages dropped because the queue was full (only
+	 * when policy is {@link QueueFullPolicy#DROP})
+	 *
+	 * @return
+	 */
+	public long getDroppedMessages() {
+		return droppedMessages.get();
+	}
+
+	/**
+	 * Get the number of messages waiting to be sent
+	 *
+	 * @return
+	 */
+	public int getPendingMessages() {
+		return queue.size() + getSpilledMessages();
+	}
+
+	@Override
+	public int getBacklog() {
+		return getPendingMessages() + super.getBacklog();
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+}
@@ -0,0 +1,35 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * Factory for {@link AsyncMessageSender}. Each run gets its own queue and
+ * writer thread.
+ *
+ */
+public class AsyncMessageSenderFactory implements IMessageSenderFactory {
+	public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+	private final IMessageSenderFactory messageSenderFactory;
+	private final int queueCapacity;
+	private final QueueFullPolicy queueFullPolicy;
+
+	public AsyncMessageSenderFactory(
+			IMessageSenderFactory messageSenderFactory, int queueCapacity,
+			QueueFullPolicy queueFullPolicy) {
+		this.messageSenderFactory = messageSenderFactory;
+		this.queueCapacity = queueCapacity;
+		this.queueFullPolicy = queueFullPolicy;
+	}
+
+	public AsyncMessageSenderFactory(IMessageSenderFactory messageSenderFactory) {
+		this(messageSenderFactory, DEFAULT_QUEUE_CAPACITY,
+				QueueFullPolicy.BLOCK);
+	}
+
+	public MessageSender getMessageSender() {
+		return new AsyncMessageSender(messageSenderFactory.getMessageSender(),
+				queueCapacity, queueFullPolicy);
+	}
+
+}
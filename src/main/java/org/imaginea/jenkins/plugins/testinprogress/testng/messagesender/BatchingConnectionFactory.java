@@ -0,0 +1,28 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Batches the writes to the connections of another {@link IConnectionFactory}
+ * (see {@link BatchingOutputStream})
+ *
+ */
+public class BatchingConnectionFactory implements IConnectionFactory {
+	private final IConnectionFactory connectionFactory;
+	private final int batchSize;
+	private final long lingerMs;
+
+	public BatchingConnectionFactory(IConnectionFactory connectionFactory,
+			int batchSize, long lingerMs) {
+		this.connectionFactory = connectionFactory;
+		this.batchSize = batchSize;
+		this.lingerMs = lingerMs;
+	}
+
+	public OutputStream openConnection() throws IOException {
+		return new BatchingOutputStream(connectionFactory.openConnection(),
+				batchSize, lingerMs);
+	}
+
+}
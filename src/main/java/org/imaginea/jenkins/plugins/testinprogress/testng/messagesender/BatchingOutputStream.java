@@ -0,0 +1,143 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link OutputStream} that collects bytes and writes them to the
+ * underlying stream when the batch is full or when the oldest buffered byte
+ * is older than the linger time.
+ *
+ * {@link #flush()} does not write the batch immediately, it only makes sure
+ * the batch will be written within the linger time. Use {@link #forceFlush()}
+ * or {@link #close()} to write it immediately.
+ *
+ */
+public class BatchingOutputStream extends FilterOutputStream {
+	private static final ScheduledExecutorService LINGER_SCHEDULER = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable,
+							"TestInProgress batch flusher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	private final byte[] batch;
+	private final long lingerMs;
+	private int count = 0;
+	private boolean flushScheduled = false;
+	private boolean closed = false;
+	private IOException lingerFlushFailure;
+
+	public BatchingOutputStream(OutputStream out, int batchSize, long lingerMs) {
+		super(out);
+		this.batch = new byte[batchSize];
+		this.lingerMs = lingerMs;
+	}
+
+	@Override
+	public synchronized void write(int b) throws IOException {
+		checkLingerFlushFailure();
+		if (count == batch.length) {
+			writeBatch();
+		}
+		batch[count++] = (byte) b;
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len)
+			throws IOException {
+		checkLingerFlushFailure();
+		if (len > batch.length - count) {
+			writeBatch();
+			if (len > batch.length) {
+				out.write(b, off, len);
+				out.flush();
+				return;
+			}
+		}
+		System.arraycopy(b, off, batch, count, len);
+		count += len;
+	}
+
+	/**
+	 * Make sure buffered bytes will be written within the linger time
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		checkLingerFlushFailure();
+		if (count == 0 || flushScheduled) {
+			return;
+		}
+		if (lingerMs <= 0) {
+			writeBatch();
+			return;
+		}
+		flushScheduled = true;
+		LINGER_SCHEDULER.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				lingerFlush();
+			}
+		}, lingerMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Write buffered bytes to the underlying stream now
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void forceFlush() throws IOException {
+		checkLingerFlushFailure();
+		writeBatch();
+	}
+
+	private synchronized void lingerFlush() {
+		flushScheduled = false;
+		if (closed) {
+			return;
+		}
+		try {
+			writeBatch();
+		} catch (IOException e) {
+			lingerFlushFailure = e;
+		}
+	}
+
+	private void writeBatch() throws IOException {
+		if (count > 0) {
+			out.write(batch, 0, count);
+			count = 0;
+		}
+		out.flush();
+	}
+
+	private void checkLingerFlushFailure() throws IOException {
+		if (lingerFlushFailure != null) {
+			throw new IOException("Could not write batch", lingerFlushFailure);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			writeBatch();
+		} finally {
+			out.close();
+		}
+	}
+
+}
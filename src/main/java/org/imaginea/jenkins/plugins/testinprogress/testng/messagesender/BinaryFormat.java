@@ -0,0 +1,95 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compact binary encoding of the TestInProgress messages.
+ *
+ * <pre>
+ * stream  := MAGIC VERSION frame*
+ * frame   := varint(length) type payload
+ * type    := kind | FLAG (isSuite/ignored) | NAME (test name present)
+ *            | PARENT (parent id present) | DURATION (duration present)
+ * id      := varint(2 * n) for numeric test ids, varint(2 * ref + 1) otherwise
+ * </pre>
+ *
+ * Strings that repeat (test names, non numeric ids) are defined once in a
+ * STRING frame (varint(ref) utf8) and then referenced by their ref. At most
+ * MAX_STRING_REFS strings are defined at a time: once the table is full, a
+ * STRING frame redefines the ref of the least recently used string. The name
+ * of a test is sent with its TEST_TREE node and omitted from the other
+ * messages of that test.
+ *
+ */
+final class BinaryFormat {
+	static final byte[] MAGIC = { 'T', 'I', 'P', 'B' };
+	static final int VERSION = 2;
+	static final int MAX_STRING_REFS = 4096;
+
+	static final int STRING = 0;
+	static final int TEST_RUN_STARTED = 1;
+	static final int TEST_RUN_ENDED = 2;
+	static final int TEST_TREE = 3;
+	static final int TEST_STARTED = 4;
+	static final int TEST_ENDED = 5;
+	static final int TEST_ERROR = 6;
+	static final int KIND_MASK = 0x0F;
+	static final int FLAG = 0x80;
+	static final int NAME = 0x40;
+	static final int PARENT = 0x20;
+	static final int DURATION = 0x10;
+
+	private BinaryFormat() {
+	}
+
+	static void writeVarLong(OutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	static long readVarLong(InputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b == -1) {
+				throw new EOFException();
+			}
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	/**
+	 * Get the numeric value of a test id, -1 if it is not a canonical decimal
+	 * number
+	 *
+	 * @param testId
+	 * @return
+	 */
+	static long parseNumericId(String testId) {
+		int length = testId.length();
+		if (length == 0 || length > 18
+				|| (length > 1 && testId.charAt(0) == '0')) {
+			return -1;
+		}
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			char c = testId.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+}
@@ -0,0 +1,145 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import static org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.BinaryFormat.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * Decodes a stream written by a {@link BinaryMessageSender} and replays its
+ * messages to a {@link MessageSender} (to get them as JSON for example)
+ *
+ */
+public class BinaryMessageDecoder {
+	private final List<String> strings = new ArrayList<String>();
+	private final Map<String, String> testNames = new HashMap<String, String>();
+
+	/**
+	 * Decode the whole stream
+	 *
+	 * @param in
+	 * @param messageSender
+	 * @throws IOException
+	 */
+	public void decode(InputStream in, MessageSender messageSender)
+			throws IOException {
+		DataInputStream dataIn = new DataInputStream(in);
+		byte[] magic = new byte[MAGIC.length];
+		dataIn.readFully(magic);
+		if (!Arrays.equals(MAGIC, magic)) {
+			throw new IOException("Not a TestInProgress binary stream");
+		}
+		int version = dataIn.read();
+		if (version != VERSION) {
+			throw new IOException("Unsupported version " + version);
+		}
+		while (true) {
+			long length;
+			try {
+				length = readVarLong(dataIn);
+			} catch (EOFException e) {
+				return;
+			}
+			byte[] frame = new byte[(int) length];
+			dataIn.readFully(frame);
+			decodeFrame(new ByteArrayInputStream(frame), messageSender);
+		}
+	}
+
+	private void decodeFrame(ByteArrayInputStream frame,
+			MessageSender messageSender) throws IOException {
+		int type = frame.read();
+		boolean flag = (type & FLAG) != 0;
+		String testId;
+		String testName;
+		switch (type & KIND_MASK) {
+		case STRING:
+			int ref = (int) readVarLong(frame);
+			if (ref < strings.size()) {
+				// the sender replaced a least recently used string
+				strings.set(ref, readRemaining(frame));
+			} else if (ref == strings.size() && ref < MAX_STRING_REFS) {
+				strings.add(readRemaining(frame));
+			} else {
+				throw new IOException("Unexpected string ref " + ref);
+			}
+			break;
+		case TEST_RUN_STARTED:
+			messageSender.testRunStarted(readString(frame));
+			break;
+		case TEST_RUN_ENDED:
+			messageSender.testRunEnded(readVarLong(frame));
+			break;
+		case TEST_TREE:
+			testId = readId(frame);
+			testName = strings.get((int) readVarLong(frame));
+			testNames.put(testId, testName);
+			String parentId = (type & PARENT) != 0 ? readId(frame) : null;
+			messageSender.testTree(testId, testName, parentId, flag);
+			break;
+		case TEST_STARTED:
+			testId = readId(frame);
+			messageSender.testStarted(testId, readTestName(frame, type, testId),
+					flag);
+			break;
+		case TEST_ENDED:
+			testId = readId(frame);
+			testName = readTestName(frame, type, testId);
+			if ((type & DURATION) != 0
+					&& messageSender instanceof AbstractMessageSender) {
+				((AbstractMessageSender) messageSender).testEnded(testId,
+						testName, flag, readVarLong(frame));
+			} else {
+				messageSender.testEnded(testId, testName, flag);
+			}
+			break;
+		case TEST_ERROR:
+			testId = readId(frame);
+			messageSender.testError(testId,
+					readTestName(frame, type, testId), readString(frame));
+			break;
+		default:
+			throw new IOException("Unknown frame type " + type);
+		}
+	}
+
+	private String readTestName(InputStream frame, int type, String testId)
+			throws IOException {
+		if ((type & NAME) != 0) {
+			return strings.get((int) readVarLong(frame));
+		}
+		return testNames.get(testId);
+	}
+
+	private String readId(InputStream frame) throws IOException {
+		long value = readVarLong(frame);
+		if ((value & 1) == 0) {
+			return Long.toString(value / 2);
+		}
+		return strings.get((int) (value / 2));
+	}
+
+	private static String readString(InputStream frame) throws IOException {
+		byte[] bytes = new byte[(int) readVarLong(frame)];
+		new DataInputStream(frame).readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static String readRemaining(ByteArrayInputStream frame)
+			throws IOException {
+		byte[] bytes = new byte[frame.available()];
+		frame.read(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+}
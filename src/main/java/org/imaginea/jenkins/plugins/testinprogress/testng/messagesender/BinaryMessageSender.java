@@ -0,0 +1,178 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import static org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.BinaryFormat.*;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * A {@link MessageSender} using the compact {@link BinaryFormat} instead of
+ * JSON. The stream starts with a magic number so that the server can detect
+ * the encoding.
+ *
+ * @see BinaryMessageDecoder
+ */
+public class BinaryMessageSender extends AbstractMessageSender {
+	private final IConnectionFactory connectionFactory;
+	private final ByteArrayOutputStream payload = new ByteArrayOutputStream(
+			256);
+	private final ByteArrayOutputStream stringPayload = new ByteArrayOutputStream(
+			256);
+	// least recently used first
+	private final Map<String, Integer> stringRefs = new LinkedHashMap<String, Integer>(
+			16, 0.75f, true);
+	// test id -> name sent with the test tree node, for the last nodes only
+	private final Map<String, String> testNames = new LinkedHashMap<String, String>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > MAX_STRING_REFS;
+		}
+	};
+	private OutputStream out;
+
+	public BinaryMessageSender(IConnectionFactory connectionFactory) {
+		this.connectionFactory = connectionFactory;
+	}
+
+	@Override
+	public void init() throws IOException {
+		out = new BufferedOutputStream(connectionFactory.openConnection());
+		out.write(MAGIC);
+		out.write(VERSION);
+		out.flush();
+	}
+
+	@Override
+	public void shutdown() throws IOException {
+		out.close();
+	}
+
+	@Override
+	protected void send(Message message) throws IOException {
+		int type;
+		String testId = message.getTestId();
+		switch (message.getKind()) {
+		case TEST_RUN_STARTED:
+			type = TEST_RUN_STARTED;
+			writeString(payload, message.getText());
+			break;
+		case TEST_RUN_ENDED:
+			type = TEST_RUN_ENDED;
+			writeVarLong(payload, message.getValue());
+			break;
+		case TEST_TREE:
+			type = TEST_TREE | NAME;
+			writeId(testId);
+			writeVarLong(payload, getStringRef(message.getTestName()));
+			testNames.put(testId, message.getTestName());
+			if (message.getText() != null) {
+				type |= PARENT;
+				writeId(message.getText());
+			}
+			break;
+		case TEST_STARTED:
+			type = TEST_STARTED | writeTestIdAndName(message);
+			break;
+		case TEST_ENDED:
+			type = TEST_ENDED | writeTestIdAndName(message);
+			if (message.getValue() >= 0) {
+				type |= DURATION;
+				writeVarLong(payload, message.getValue());
+			}
+			break;
+		case TEST_ERROR:
+			type = TEST_ERROR | writeTestIdAndName(message);
+			writeString(payload, message.getText());
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown message kind "
+					+ message.getKind());
+		}
+		if (message.getFlag()) {
+			type |= FLAG;
+		}
+		writeFrame(out, type, payload);
+		out.flush();
+	}
+
+	/**
+	 * Write the test id and the test name if it is not the one sent with the
+	 * test tree
+	 *
+	 * @param message
+	 * @return NAME if the name has been written
+	 * @throws IOException
+	 */
+	private int writeTestIdAndName(Message message) throws IOException {
+		writeId(message.getTestId());
+		String testName = message.getTestName();
+		if (testName != null
+				&& testName.equals(testNames.get(message.getTestId()))) {
+			return 0;
+		}
+		writeVarLong(payload, getStringRef(testName));
+		return NAME;
+	}
+
+	private void writeId(String testId) throws IOException {
+		long numericId = parseNumericId(testId);
+		if (numericId >= 0) {
+			writeVarLong(payload, numericId * 2);
+		} else {
+			writeVarLong(payload, getStringRef(testId) * 2L + 1);
+		}
+	}
+
+	/**
+	 * Get the ref of the given string, defining it first if needed. When the
+	 * table is full, the ref of the least recently used string is reused.
+	 *
+	 * @param value
+	 * @return
+	 * @throws IOException
+	 */
+	private int getStringRef(String value) throws IOException {
+		String string = value == null ? "" : value;
+		Integer ref = stringRefs.get(string);
+		if (ref == null) {
+			if (stringRefs.size() < MAX_STRING_REFS) {
+				ref = stringRefs.size();
+			} else {
+				Iterator<Integer> it = stringRefs.values().iterator();
+				ref = it.next();
+				it.remove();
+			}
+			stringRefs.put(string, ref);
+			writeVarLong(stringPayload, ref);
+			stringPayload.write(string.getBytes("UTF-8"));
+			writeFrame(out, STRING, stringPayload);
+		}
+		return ref;
+	}
+
+	private static void writeString(OutputStream out, String value)
+			throws IOException {
+		byte[] bytes = (value == null ? "" : value).getBytes("UTF-8");
+		writeVarLong(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static void writeFrame(OutputStream out, int type,
+			ByteArrayOutputStream payload) throws IOException {
+		writeVarLong(out, payload.size() + 1);
+		out.write(type);
+		payload.writeTo(out);
+		payload.reset();
+	}
+
+}
@@ -0,0 +1,22 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * Factory for {@link BinaryMessageSender}. The server must support the binary
+ * format, JSON remains the default.
+ *
+ */
+public class BinaryMessageSenderFactory implements IMessageSenderFactory {
+	private final IConnectionFactory connectionFactory;
+
+	public BinaryMessageSenderFactory(IConnectionFactory connectionFactory) {
+		this.connectionFactory = connectionFactory;
+	}
+
+	public MessageSender getMessageSender() {
+		return new BinaryMessageSender(connectionFactory);
+	}
+
+}
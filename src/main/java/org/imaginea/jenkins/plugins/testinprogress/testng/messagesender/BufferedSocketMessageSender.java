@@ -0,0 +1,60 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * A {@link MessageSender} sending messages to a socket. Messages are batched :
+ * they are written when the batch is full, after the linger time or at the
+ * end of the run.
+ *
+ */
+public class BufferedSocketMessageSender extends MessageSender {
+	private final String host;
+	private final int port;
+	private final int batchSize;
+	private final long lingerMs;
+	private Socket socket;
+	private BatchingOutputStream outputStream;
+
+	public BufferedSocketMessageSender(String host, int port, int batchSize,
+			long lingerMs) {
+		this.host = host;
+		this.port = port;
+		this.batchSize = batchSize;
+		this.lingerMs = lingerMs;
+	}
+
+	@Override
+	public void init() throws IOException {
+		socket = new Socket(host, port);
+		outputStream = new BatchingOutputStream(socket.getOutputStream(),
+				batchSize, lingerMs);
+		writer = new OutputStreamWriter(outputStream, "UTF-8");
+	}
+
+	@Override
+	public void testRunEnded(long elapsedTime) throws IOException {
+		super.testRunEnded(elapsedTime);
+		forceFlush();
+	}
+
+	private void forceFlush() throws IOException {
+		writer.flush();
+		outputStream.forceFlush();
+	}
+
+	@Override
+	public void shutdown() throws IOException {
+		try {
+			forceFlush();
+			super.shutdown();
+		} finally {
+			socket.close();
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * Factory for {@link BufferedSocketMessageSender}. Host and port are given by
+ * TEST_IN_PROGRESS_HOST (localhost by default) and TEST_IN_PROGRESS_PORT
+ * system properties.
+ *
+ */
+public class BufferedSocketMessageSenderFactory implements
+		IMessageSenderFactory {
+	public static final String HOST_PROPERTY = "TEST_IN_PROGRESS_HOST";
+	public static final String PORT_PROPERTY = "TEST_IN_PROGRESS_PORT";
+	public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+	public static final long DEFAULT_LINGER_MS = 50;
+	private final int batchSize;
+	private final long lingerMs;
+
+	public BufferedSocketMessageSenderFactory(int batchSize, long lingerMs) {
+		this.batchSize = batchSize;
+		this.lingerMs = lingerMs;
+	}
+
+	public BufferedSocketMessageSenderFactory() {
+		this(DEFAULT_BATCH_SIZE, DEFAULT_LINGER_MS);
+	}
+
+	public MessageSender getMessageSender() {
+		String host = System.getProperty(HOST_PROPERTY, "localhost");
+		int port = Integer.parseInt(System.getProperty(PORT_PROPERTY));
+		return new BufferedSocketMessageSender(host, port, batchSize, lingerMs);
+	}
+
+}
@@ -0,0 +1,348 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * A {@link MessageSender} writing the same JSON messages as the stock message
+ * sender, without building JSON objects or strings.
+ *
+ * Each message is encoded directly as UTF-8 into a byte buffer owned by the
+ * sending thread and reused for all its messages, then written to the
+ * connection at once. Message ids and field names are encoded once, the
+ * runId once per run. Events received directly (not as a {@link Message}) do
+ * not allocate, except to render traces.
+ *
+ */
+public class ByteBufferMessageSender extends AbstractMessageSender {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+	private static final byte[] TEST_RUN_STARTED = ascii("{\"messageId\":\"TESTC\"");
+	private static final byte[] TEST_RUN_ENDED = ascii("{\"messageId\":\"RUNTIME\"");
+	private static final byte[] TEST_TREE = ascii("{\"messageId\":\"TSTTREE\"");
+	private static final byte[] TEST_STARTED = ascii("{\"messageId\":\"TESTS\"");
+	private static final byte[] TEST_ENDED = ascii("{\"messageId\":\"TESTE\"");
+	private static final byte[] TEST_ERROR = ascii("{\"messageId\":\"ERROR\"");
+	private static final byte[] TEST_ID = ascii(",\"testId\":");
+	private static final byte[] TEST_NAME = ascii(",\"testName\":");
+	private static final byte[] PARENT_ID = ascii(",\"parentId\":");
+	private static final byte[] IS_SUITE = ascii(",\"isSuite\":");
+	private static final byte[] IGNORED = ascii(",\"ignored\":");
+	private static final byte[] TRACE = ascii(",\"trace\":");
+	private static final byte[] ELAPSED_TIME = ascii(",\"elapsedTime\":");
+	private static final byte[] TRUE = ascii("true");
+	private static final byte[] FALSE = ascii("false");
+	private static final byte[] END = ascii("}\n");
+	private static final byte[] HEX = ascii("0123456789abcdef");
+	private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		}
+	};
+	private final IConnectionFactory connectionFactory;
+	private final Object lock = new Object();
+	// ,"runId":"..." or nothing before the run starts
+	private volatile byte[] runIdField = new byte[0];
+	private OutputStream out;
+
+	public ByteBufferMessageSender(IConnectionFactory connectionFactory) {
+		this.connectionFactory = connectionFactory;
+	}
+
+	private static byte[] ascii(String value) {
+		return value.getBytes(UTF8);
+	}
+
+	@Override
+	public void init() throws IOException {
+		out = connectionFactory.openConnection();
+	}
+
+	@Override
+	public void shutdown() throws IOException {
+		synchronized (lock) {
+			out.close();
+		}
+	}
+
+	@Override
+	public void testRunStarted(String runId) throws IOException {
+		runIdField = encodeRunIdField(runId);
+		sendMessage(startMessage(TEST_RUN_STARTED, null));
+	}
+
+	private static byte[] encodeRunIdField(String runId) {
+		ByteBuffer buffer = ByteBuffer.allocate(16 + maxStringSize(runId));
+		buffer.put(ascii(",\"runId\":"));
+		putString(buffer, runId);
+		byte[] runIdField = new byte[buffer.position()];
+		System.arraycopy(buffer.array(), 0, runIdField, 0, runIdField.length);
+		return runIdField;
+	}
+
+	@Override
+	public void testRunEnded(long elapsedTime) throws IOException {
+		ByteBuffer buffer = startMessage(TEST_RUN_ENDED, null);
+		buffer.put(ELAPSED_TIME);
+		putLong(buffer, elapsedTime);
+		sendMessage(buffer);
+	}
+
+	@Override
+	public void testTree(String testId, String testName, String parentId,
+			boolean isSuite) throws IOException {
+		ByteBuffer buffer = startTestMessage(TEST_TREE, testId, testName,
+				parentId);
+		if (parentId != null) {
+			buffer.put(PARENT_ID);
+			putString(buffer, parentId);
+		}
+		buffer.put(IS_SUITE);
+		buffer.put(isSuite ? TRUE : FALSE);
+		sendMessage(buffer);
+	}
+
+	@Override
+	public void testStarted(String testId, String testName, boolean ignored)
+			throws IOException {
+		ByteBuffer buffer = startTestMessage(TEST_STARTED, testId, testName,
+				null);
+		buffer.put(IGNORED);
+		buffer.put(ignored ? TRUE : FALSE);
+		sendMessage(buffer);
+	}
+
+	@Override
+	public void testEnded(String testId, String testName, boolean ignored)
+			throws IOException {
+		ByteBuffer buffer = startTestMessage(TEST_ENDED, testId, testName,
+				null);
+		buffer.put(IGNORED);
+		buffer.put(ignored ? TRUE : FALSE);
+		sendMessage(buffer);
+	}
+
+	/**
+	 * The duration is not part of the JSON messages
+	 */
+	@Override
+	public void testEnded(String testId, String testName, boolean ignored,
+			long duration) throws IOException {
+		testEnded(testId, testName, ignored);
+	}
+
+	@Override
+	public void testError(String testId, String testName, String trace)
+			throws IOException {
+		ByteBuffer buffer = startTestMessage(TEST_ERROR, testId, testName,
+				trace);
+		buffer.put(TRACE);
+		putString(buffer, trace);
+		sendMessage(buffer);
+	}
+
+	@Override
+	public void testError(String testId, String testName, Throwable throwable,
+			ITraceRenderer traceRenderer) throws IOException {
+		testError(testId, testName, traceRenderer.render(throwable, testName));
+	}
+
+	@Override
+	protected void send(Message message) throws IOException {
+		switch (message.getKind()) {
+		case TEST_RUN_STARTED:
+			testRunStarted(message.getText());
+			break;
+		case TEST_RUN_ENDED:
+			testRunEnded(message.getValue());
+			break;
+		case TEST_TREE:
+			testTree(message.getTestId(), message.getTestName(),
+					message.getText(), message.getFlag());
+			break;
+		case TEST_STARTED:
+			testStarted(message.getTestId(), message.getTestName(),
+					message.getFlag());
+			break;
+		case TEST_ENDED:
+			testEnded(message.getTestId(), message.getTestName(),
+					message.getFlag());
+			break;
+		case TEST_ERROR:
+			testError(message.getTestId(), message.getTestName(),
+					message.getText());
+			break;
+		}
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	/**
+	 * Get the buffer of the current thread with the message id and the runId
+	 *
+	 * @param messageId
+	 * @param text
+	 *            a string that will be written in the message, to reserve
+	 *            space for it
+	 * @return
+	 */
+	private ByteBuffer startMessage(byte[] messageId, String text) {
+		byte[] runIdField = this.runIdField;
+		ByteBuffer buffer = getBuffer(messageId.length + runIdField.length
+				+ maxStringSize(text) + 64);
+		buffer.put(messageId);
+		buffer.put(runIdField);
+		return buffer;
+	}
+
+	private ByteBuffer startTestMessage(byte[] messageId, String testId,
+			String testName, String text) {
+		byte[] runIdField = this.runIdField;
+		ByteBuffer buffer = getBuffer(messageId.length + runIdField.length
+				+ maxStringSize(testId) + maxStringSize(testName)
+				+ maxStringSize(text) + 128);
+		buffer.put(messageId);
+		buffer.put(runIdField);
+		buffer.put(TEST_ID);
+		putString(buffer, testId);
+		buffer.put(TEST_NAME);
+		putString(buffer, testName);
+		return buffer;
+	}
+
+	/**
+	 * Get the cleared buffer of the current thread, growing it if needed
+	 *
+	 * @param size
+	 *            max size of the message
+	 * @return
+	 */
+	private static ByteBuffer getBuffer(int size) {
+		ByteBuffer buffer = BUFFERS.get();
+		if (buffer.capacity() < size) {
+			buffer = ByteBuffer.allocate(Math.max(size,
+					buffer.capacity() * 2));
+			BUFFERS.set(buffer);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	private void sendMessage(ByteBuffer buffer) throws IOException {
+		buffer.put(END);
+		synchronized (lock) {
+			out.write(buffer.array(), 0, buffer.position());
+			out.flush();
+		}
+	}
+
+	/**
+	 * @param value
+	 * @return max size of the JSON string for the value (null or quoted and
+	 *         escaped)
+	 */
+	private static int maxStringSize(String value) {
+		return value == null ? 4 : value.length() * 6 + 2;
+	}
+
+	/**
+	 * Put the value as a JSON string, escaped and encoded as UTF-8
+	 *
+	 * @param buffer
+	 * @param value
+	 */
+	private static void putString(ByteBuffer buffer, String value) {
+		if (value == null) {
+			buffer.put((byte) 'n').put((byte) 'u').put((byte) 'l')
+					.put((byte) 'l');
+			return;
+		}
+		buffer.put((byte) '"');
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				buffer.put((byte) '\\').put((byte) c);
+			} else if (c < 0x20) {
+				putControlChar(buffer, c);
+			} else if (c < 0x80) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xc0 | c >> 6));
+				buffer.put((byte) (0x80 | c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer.put((byte) (0xf0 | codePoint >> 18));
+				buffer.put((byte) (0x80 | codePoint >> 12 & 0x3f));
+				buffer.put((byte) (0x80 | codePoint >> 6 & 0x3f));
+				buffer.put((byte) (0x80 | codePoint & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				// unpaired surrogate, like String.getBytes
+				buffer.put((byte) '?');
+			} else {
+				buffer.put((byte) (0xe0 | c >> 12));
+				buffer.put((byte) (0x80 | c >> 6 & 0x3f));
+				buffer.put((byte) (0x80 | c & 0x3f));
+			}
+		}
+		buffer.put((byte) '"');
+	}
+
+	private static void putControlChar(ByteBuffer buffer, char c) {
+		buffer.put((byte) '\\');
+		switch (c) {
+		case '\n':
+			buffer.put((byte) 'n');
+			break;
+		case '\r':
+			buffer.put((byte) 'r');
+			break;
+		case '\t':
+			buffer.put((byte) 't');
+			break;
+		case '\b':
+			buffer.put((byte) 'b');
+			break;
+		case '\f':
+			buffer.put((byte) 'f');
+			break;
+		default:
+			buffer.put((byte) 'u').put((byte) '0').put((byte) '0')
+					.put(HEX[c >> 4]).put(HEX[c & 0xf]);
+		}
+	}
+
+	private static void putLong(ByteBuffer buffer, long value) {
+		if (value == Long.MIN_VALUE) {
+			buffer.put(ascii(Long.toString(value)));
+			return;
+		}
+		if (value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		// digits are written backwards then reversed
+		int start = buffer.position();
+		do {
+			buffer.put((byte) ('0' + value % 10));
+			value /= 10;
+		} while (value > 0);
+		byte[] array = buffer.array();
+		for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+			byte digit = array[i];
+			array[i] = array[j];
+			array[j] = digit;
+		}
+	}
+
+}
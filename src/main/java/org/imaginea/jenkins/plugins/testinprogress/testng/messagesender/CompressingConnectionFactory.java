@@ -0,0 +1,104 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compresses the connections of another {@link IConnectionFactory} using
+ * deflate.
+ *
+ * The deflater is sync flushed so that the server can decompress everything
+ * that has been sent so far. As sync flushes degrade the compression, they
+ * happen at most once per flush interval (see {@link BatchingOutputStream}).
+ *
+ */
+public class CompressingConnectionFactory implements IConnectionFactory {
+	public static final long DEFAULT_FLUSH_INTERVAL_MS = 100;
+	private static final int BUFFER_SIZE = 16 * 1024;
+	private final IConnectionFactory connectionFactory;
+	private final int level;
+	private final long flushIntervalMs;
+	private final AtomicLong uncompressedBytes = new AtomicLong();
+	private final AtomicLong compressedBytes = new AtomicLong();
+
+	/**
+	 * @param connectionFactory
+	 * @param level
+	 *            the compression level (0-9)
+	 * @param flushIntervalMs
+	 *            min time between sync flushes, 0 to sync flush on each flush
+	 */
+	public CompressingConnectionFactory(IConnectionFactory connectionFactory,
+			int level, long flushIntervalMs) {
+		this.connectionFactory = connectionFactory;
+		this.level = level;
+		this.flushIntervalMs = flushIntervalMs;
+	}
+
+	public CompressingConnectionFactory(IConnectionFactory connectionFactory) {
+		this(connectionFactory, Deflater.DEFAULT_COMPRESSION,
+				DEFAULT_FLUSH_INTERVAL_MS);
+	}
+
+	public OutputStream openConnection() throws IOException {
+		OutputStream connection = new CountingOutputStream(
+				connectionFactory.openConnection(), compressedBytes);
+		final Deflater deflater = new Deflater(level);
+		OutputStream deflaterOutputStream = new DeflaterOutputStream(
+				connection, deflater, BUFFER_SIZE, true) {
+
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					deflater.end();
+				}
+			}
+		};
+		return new BatchingOutputStream(new CountingOutputStream(
+				deflaterOutputStream, uncompressedBytes), BUFFER_SIZE,
+				flushIntervalMs);
+	}
+
+	/**
+	 * @return number of bytes written to the connections before compression
+	 */
+	public long getUncompressedBytes() {
+		return uncompressedBytes.get();
+	}
+
+	/**
+	 * @return number of bytes actually sent
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes.get();
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+		private final AtomicLong count;
+
+		public CountingOutputStream(OutputStream out, AtomicLong count) {
+			super(out);
+			this.count = count;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count.incrementAndGet();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count.addAndGet(len);
+		}
+
+	}
+
+}
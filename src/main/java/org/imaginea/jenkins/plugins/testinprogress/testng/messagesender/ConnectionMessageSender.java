@@ -0,0 +1,36 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * A {@link MessageSender} writing JSON messages to a connection opened by an
+ * {@link IConnectionFactory}
+ *
+ */
+public class ConnectionMessageSender extends MessageSender {
+	private final IConnectionFactory connectionFactory;
+
+	public ConnectionMessageSender(IConnectionFactory connectionFactory) {
+		this.connectionFactory = connectionFactory;
+	}
+
+	@Override
+	public void init() throws IOException {
+		writer = new OutputStreamWriter(connectionFactory.openConnection(),
+				"UTF-8");
+	}
+
+	@Override
+	public void shutdown() throws IOException {
+		try {
+			super.shutdown();
+		} finally {
+			// closing the writer closes the connection
+			writer.close();
+		}
+	}
+
+}
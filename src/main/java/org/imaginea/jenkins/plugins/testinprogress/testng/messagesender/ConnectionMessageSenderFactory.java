@@ -0,0 +1,21 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * Factory for {@link ConnectionMessageSender}
+ *
+ */
+public class ConnectionMessageSenderFactory implements IMessageSenderFactory {
+	private final IConnectionFactory connectionFactory;
+
+	public ConnectionMessageSenderFactory(IConnectionFactory connectionFactory) {
+		this.connectionFactory = connectionFactory;
+	}
+
+	public MessageSender getMessageSender() {
+		return new ConnectionMessageSender(connectionFactory);
+	}
+
+}
@@ -0,0 +1,177 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * A {@link MessageSender} that counts the messages and bytes sent through it
+ * and samples the backlog of its delegate.
+ *
+ * The size of a message is the size of its fields, the framing added by the
+ * delegate (JSON ...) is not counted. Traces rendered lazily are counted when
+ * they are rendered.
+ *
+ * Events are forwarded as events to the delegate, without creating a
+ * {@link Message}, so that a delegate that does not allocate (see
+ * {@link ByteBufferMessageSender}) still does not.
+ *
+ */
+public class CountingMessageSender extends ForwardingMessageSender {
+	// the backlog is only sampled every BACKLOG_SAMPLING messages
+	private static final int BACKLOG_SAMPLING = 16;
+	private final AtomicLong messages = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicInteger maxBacklog = new AtomicInteger();
+
+	public CountingMessageSender(MessageSender delegate) {
+		super(delegate);
+	}
+
+	@Override
+	public void testRunStarted(String runId) throws IOException {
+		delegate.testRunStarted(runId);
+		count(Message.getUTF8Length(runId));
+	}
+
+	@Override
+	public void testRunEnded(long elapsedTime) throws IOException {
+		delegate.testRunEnded(elapsedTime);
+		count(0);
+	}
+
+	@Override
+	public void testTree(String testId, String testName, String parentId,
+			boolean isSuite) throws IOException {
+		delegate.testTree(testId, testName, parentId, isSuite);
+		count(Message.getUTF8Length(testId) + Message.getUTF8Length(testName)
+				+ Message.getUTF8Length(parentId));
+	}
+
+	@Override
+	public void testStarted(String testId, String testName, boolean ignored)
+			throws IOException {
+		delegate.testStarted(testId, testName, ignored);
+		count(Message.getUTF8Length(testId) + Message.getUTF8Length(testName));
+	}
+
+	@Override
+	public void testEnded(String testId, String testName, boolean ignored)
+			throws IOException {
+		delegate.testEnded(testId, testName, ignored);
+		count(Message.getUTF8Length(testId) + Message.getUTF8Length(testName));
+	}
+
+	@Override
+	public void testEnded(String testId, String testName, boolean ignored,
+			long duration) throws IOException {
+		if (delegate instanceof AbstractMessageSender) {
+			((AbstractMessageSender) delegate).testEnded(testId, testName,
+					ignored, duration);
+		} else {
+			delegate.testEnded(testId, testName, ignored);
+		}
+		count(Message.getUTF8Length(testId) + Message.getUTF8Length(testName));
+	}
+
+	@Override
+	public void testError(String testId, String testName, String trace)
+			throws IOException {
+		delegate.testError(testId, testName, trace);
+		count(Message.getUTF8Length(testId) + Message.getUTF8Length(testName)
+				+ Message.getUTF8Length(trace));
+	}
+
+	@Override
+	public void testError(String testId, String testName, Throwable throwable,
+			ITraceRenderer traceRenderer) throws IOException {
+		if (!(delegate instanceof AbstractMessageSender)) {
+			// rendered by the stock message sender
+			super.testError(testId, testName, throwable, traceRenderer);
+			return;
+		}
+		((AbstractMessageSender) delegate).testError(testId, testName,
+				throwable, countWhenRendered(traceRenderer));
+		count(Message.getUTF8Length(testId) + Message.getUTF8Length(testName));
+	}
+
+	@Override
+	protected void send(Message message) throws IOException {
+		if (message.isRendered()) {
+			super.send(message);
+			count(message.getSize());
+		} else {
+			super.send(message.withTraceRenderer(countWhenRendered(message
+					.getTraceRenderer())));
+			count(Message.getUTF8Length(message.getTestId())
+					+ Message.getUTF8Length(message.getTestName()));
+		}
+	}
+
+	/**
+	 * Count a message sent to the delegate
+	 * 
+	 * @param size
+	 *            size of the message
+	 */
+	private void count(int size) {
+		bytes.addAndGet(size);
+		if (messages.incrementAndGet() % BACKLOG_SAMPLING == 0) {
+			sampleBacklog();
+		}
+	}
+
+	/**
+	 * Count the size of the trace once rendered
+	 * 
+	 * @param traceRenderer
+	 * @return the renderer to send the trace with
+	 */
+	private ITraceRenderer countWhenRendered(final ITraceRenderer traceRenderer) {
+		return new ITraceRenderer() {
+
+			@Override
+			public String render(Throwable throwable, String testName) {
+				String trace = traceRenderer.render(throwable, testName);
+				bytes.addAndGet(Message.getUTF8Length(trace));
+				return trace;
+			}
+		};
+	}
+
+	@Override
+	public void shutdown() throws IOException {
+		sampleBacklog();
+		super.shutdown();
+	}
+
+	private void sampleBacklog() {
+		int backlog = getBacklog();
+		int max;
+		while (backlog > (max = maxBacklog.get())) {
+			if (maxBacklog.compareAndSet(max, backlog)) {
+				return;
+			}
+		}
+	}
+
+	public long getMessages() {
+		return messages.get();
+	}
+
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Get the max backlog of the delegate that has been observed
+	 *
+	 * @return
+	 */
+	public int getMaxBacklog() {
+		return maxBacklog.get();
+	}
+
+}
@@ -0,0 +1,43 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.IOException;
+
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * A {@link MessageSender} that converts each event to a {@link Message} and
+ * forwards it to a delegate message sender. Subclasses can override
+ * {@link #send(Message)} to change how messages are delivered.
+ *
+ */
+public class ForwardingMessageSender extends AbstractMessageSender {
+	protected final MessageSender delegate;
+
+	public ForwardingMessageSender(MessageSender delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void init() throws IOException {
+		delegate.init();
+	}
+
+	@Override
+	public void shutdown() throws IOException {
+		delegate.shutdown();
+	}
+
+	@Override
+	public int getBacklog() {
+		if (delegate instanceof AbstractMessageSender) {
+			return ((AbstractMessageSender) delegate).getBacklog();
+		}
+		return 0;
+	}
+
+	@Override
+	protected void send(Message message) throws IOException {
+		message.sendTo(delegate);
+	}
+
+}
@@ -0,0 +1,14 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Opens the stream messages are written to
+ *
+ */
+public interface IConnectionFactory {
+
+	public OutputStream openConnection() throws IOException;
+
+}
@@ -0,0 +1,11 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+/**
+ * Renders the stack trace of a test failure
+ *
+ */
+public interface ITraceRenderer {
+
+	public String render(Throwable throwable, String testName);
+
+}
@@ -0,0 +1,299 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * An event sent through a {@link MessageSender}. Used when events need to be
+ * stored before being sent (queue, spill file ...)
+ *
+ */
+public final class Message {
+
+	public static enum Kind {
+		TEST_RUN_STARTED, TEST_RUN_ENDED, TEST_TREE, TEST_STARTED, TEST_ENDED, TEST_ERROR
+	}
+
+	private final Kind kind;
+	private final String testId;
+	private final String testName;
+	// parentId for TEST_TREE, trace for TEST_ERROR, runId for TEST_RUN_STARTED
+	private final String text;
+	// isSuite for TEST_TREE, ignored for TEST_STARTED and TEST_ENDED
+	private final boolean flag;
+	// elapsedTime for TEST_RUN_ENDED, duration for TEST_ENDED
+	private final long value;
+	// for TEST_ERROR when the trace is rendered lazily
+	private final Throwable throwable;
+	private final ITraceRenderer traceRenderer;
+	// the trace is rendered only once even if the message is sent again
+	private String renderedTrace;
+
+	private Message(Kind kind, String testId, String testName, String text,
+			boolean flag, long value) {
+		this(kind, testId, testName, text, flag, value, null, null);
+	}
+
+	private Message(Kind kind, String testId, String testName, String text,
+			boolean flag, long value, Throwable throwable,
+			ITraceRenderer traceRenderer) {
+		this.kind = kind;
+		this.testId = testId;
+		this.testName = testName;
+		this.text = text;
+		this.flag = flag;
+		this.value = value;
+		this.throwable = throwable;
+		this.traceRenderer = traceRenderer;
+	}
+
+	public static Message testRunStarted(String runId) {
+		return new Message(Kind.TEST_RUN_STARTED, null, null, runId, false, 0);
+	}
+
+	public static Message testRunEnded(long elapsedTime) {
+		return new Message(Kind.TEST_RUN_ENDED, null, null, null, false,
+				elapsedTime);
+	}
+
+	public static Message testTree(String testId, String testName,
+			String parentId, boolean isSuite) {
+		return new Message(Kind.TEST_TREE, testId, testName, parentId,
+				isSuite, 0);
+	}
+
+	public static Message testStarted(String testId, String testName,
+			boolean ignored) {
+		return new Message(Kind.TEST_STARTED, testId, testName, null, ignored,
+				0);
+	}
+
+	public static Message testEnded(String testId, String testName,
+			boolean ignored) {
+		return testEnded(testId, testName, ignored, -1);
+	}
+
+	/**
+	 * @param testId
+	 * @param testName
+	 * @param ignored
+	 * @param duration
+	 *            duration of the test in ms, -1 if unknown
+	 * @return
+	 */
+	public static Message testEnded(String testId, String testName,
+			boolean ignored, long duration) {
+		return new Message(Kind.TEST_ENDED, testId, testName, null, ignored,
+				duration);
+	}
+
+	public static Message testError(String testId, String testName,
+			String trace) {
+		return new Message(Kind.TEST_ERROR, testId, testName, trace, false, 0);
+	}
+
+	/**
+	 * Create a TEST_ERROR message whose trace will only be rendered when the
+	 * message is sent
+	 * 
+	 * @param testId
+	 * @param testName
+	 * @param throwable
+	 * @param traceRenderer
+	 * @return
+	 */
+	public static Message testError(String testId, String testName,
+			Throwable throwable, ITraceRenderer traceRenderer) {
+		return new Message(Kind.TEST_ERROR, testId, testName, null, false, 0,
+				throwable, traceRenderer);
+	}
+
+	/**
+	 * Get a copy of this TEST_ERROR message whose trace will be rendered by
+	 * the given renderer
+	 * 
+	 * @param traceRenderer
+	 * @return
+	 */
+	public Message withTraceRenderer(ITraceRenderer traceRenderer) {
+		return new Message(kind, testId, testName, text, flag, value,
+				throwable, traceRenderer);
+	}
+
+	/**
+	 * @return the renderer of the trace or null if the trace is not rendered
+	 *         lazily
+	 */
+	public ITraceRenderer getTraceRenderer() {
+		return traceRenderer;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public String getTestId() {
+		return testId;
+	}
+
+	public String getTestName() {
+		return testName;
+	}
+
+	/**
+	 * @return isSuite for TEST_TREE, ignored for TEST_STARTED and TEST_ENDED
+	 */
+	public boolean getFlag() {
+		return flag;
+	}
+
+	/**
+	 * @return elapsedTime for TEST_RUN_ENDED, duration in ms for TEST_ENDED
+	 *         (-1 if unknown)
+	 */
+	public long getValue() {
+		return value;
+	}
+
+	/**
+	 * Send this message using the given message sender. An
+	 * {@link AbstractMessageSender} gets the message as is (trace not
+	 * rendered yet, duration ...).
+	 *
+	 * @param messageSender
+	 * @throws IOException
+	 */
+	public void sendTo(MessageSender messageSender) throws IOException {
+		if (messageSender instanceof AbstractMessageSender) {
+			((AbstractMessageSender) messageSender).send(this);
+			return;
+		}
+		switch (kind) {
+		case TEST_RUN_STARTED:
+			messageSender.testRunStarted(text);
+			break;
+		case TEST_RUN_ENDED:
+			messageSender.testRunEnded(value);
+			break;
+		case TEST_TREE:
+			messageSender.testTree(testId, testName, text, flag);
+			break;
+		case TEST_STARTED:
+			messageSender.testStarted(testId, testName, flag);
+			break;
+		case TEST_ENDED:
+			messageSender.testEnded(testId, testName, flag);
+			break;
+		case TEST_ERROR:
+			messageSender.testError(testId, testName, getText());
+			break;
+		}
+	}
+
+	/**
+	 * Get the parentId for TEST_TREE, the trace for TEST_ERROR (rendered if
+	 * needed) or the runId for TEST_RUN_STARTED
+	 * 
+	 * @return
+	 */
+	public synchronized String getText() {
+		if (throwable == null) {
+			return text;
+		}
+		if (renderedTrace == null) {
+			renderedTrace = traceRenderer.render(throwable, testName);
+		}
+		return renderedTrace;
+	}
+
+	/**
+	 * @return false if the trace of this message has not been rendered yet
+	 */
+	public synchronized boolean isRendered() {
+		return throwable == null || renderedTrace != null;
+	}
+
+	/**
+	 * Get the size of this message, ie the UTF-8 size of its fields. Renders
+	 * the trace if needed.
+	 * 
+	 * @return
+	 */
+	public int getSize() {
+		return getUTF8Length(testId) + getUTF8Length(testName)
+				+ getUTF8Length(getText());
+	}
+
+	/**
+	 * @param value
+	 * @return the UTF-8 size of the value, 0 if null
+	 */
+	public static int getUTF8Length(String value) {
+		if (value == null) {
+			return 0;
+		}
+		int length = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c)) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeByte(kind.ordinal());
+		writeNullableString(out, testId);
+		writeNullableString(out, testName);
+		writeNullableString(out, getText());
+		out.writeBoolean(flag);
+		out.writeLong(value);
+	}
+
+	public static Message readFrom(DataInput in) throws IOException {
+		Kind kind = Kind.values()[in.readByte()];
+		String testId = readNullableString(in);
+		String testName = readNullableString(in);
+		String text = readNullableString(in);
+		boolean flag = in.readBoolean();
+		long value = in.readLong();
+		return new Message(kind, testId, testName, text, flag, value);
+	}
+
+	private static void writeNullableString(DataOutput out, String value)
+			throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			// writeUTF is limited to 64k, traces can be longer
+			byte[] bytes = value.getBytes("UTF-8");
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readNullableString(DataInput in) throws IOException {
+		if (!in.readBoolean()) {
+			return null;
+		}
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	@Override
+	public String toString() {
+		return kind + "[testId=" + testId + ", testName=" + testName + "]";
+	}
+
+}
@@ -0,0 +1,99 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.MultiplexingMessageSenderFactory.Channel;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+import org.json.JSONObject;
+
+/**
+ * A {@link MessageSender} writing to a channel of a shared connection
+ *
+ * @see MultiplexingMessageSenderFactory
+ */
+public class MultiplexedMessageSender extends MessageSender {
+	private final MultiplexingMessageSenderFactory multiplexingMessageSenderFactory;
+	private Channel channel;
+	private volatile String runIdField;
+
+	MultiplexedMessageSender(
+			MultiplexingMessageSenderFactory multiplexingMessageSenderFactory) {
+		this.multiplexingMessageSenderFactory = multiplexingMessageSenderFactory;
+	}
+
+	@Override
+	public void init() throws IOException {
+		channel = multiplexingMessageSenderFactory.openChannel();
+		writer = new ChannelWriter();
+	}
+
+	@Override
+	public void testRunStarted(String runId) throws IOException {
+		runIdField = JSONObject.quote("runId") + ":" + JSONObject.quote(runId);
+		super.testRunStarted(runId);
+	}
+
+	@Override
+	public void shutdown() throws IOException {
+		writer.flush();
+		channel.close();
+	}
+
+	/**
+	 * @return number of messages dropped because the channel was full (only
+	 *         when policy is {@link QueueFullPolicy#DROP})
+	 */
+	public long getDroppedMessages() {
+		return channel.getDroppedLines();
+	}
+
+	/**
+	 * Add the runId to the message if it is not already there
+	 *
+	 * @param line
+	 * @return
+	 */
+	private String tag(String line) {
+		String field = runIdField;
+		if (field == null || !line.startsWith("{")
+				|| line.indexOf("\"runId\"") != -1) {
+			return line;
+		}
+		if (line.startsWith("{}")) {
+			return "{" + field + line.substring(1);
+		}
+		return "{" + field + "," + line.substring(1);
+	}
+
+	/**
+	 * Writes complete lines to the channel
+	 */
+	private class ChannelWriter extends Writer {
+		private final StringBuilder line = new StringBuilder();
+
+		@Override
+		public synchronized void write(char[] cbuf, int off, int len)
+				throws IOException {
+			for (int i = off; i < off + len; i++) {
+				line.append(cbuf[i]);
+				if (cbuf[i] == '\n') {
+					channel.write(tag(line.toString()));
+					line.setLength(0);
+				}
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			// lines are written as soon as they are complete
+		}
+
+		@Override
+		public void close() throws IOException {
+			// the channel is closed on shutdown
+		}
+
+	}
+
+}
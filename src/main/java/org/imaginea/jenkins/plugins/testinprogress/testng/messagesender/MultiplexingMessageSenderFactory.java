@@ -0,0 +1,367 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+import org.testng.log4testng.Logger;
+
+/**
+ * A factory whose message senders all share a single connection.
+ *
+ * Each message sender writes its messages (one per line) to its own channel.
+ * A writer thread takes lines from the channels in a round robin fashion and
+ * writes them to the shared connection, so that a busy run cannot starve the
+ * others. Messages of a given run keep their order. Each message is tagged
+ * with the runId so that the server can demultiplex the runs.
+ *
+ * Each channel holds at most queueCapacity lines, the queue full policy tells
+ * what happens to the lines of a run that writes faster than the connection.
+ *
+ * The connection is opened when the first run starts and is kept open until
+ * the JVM exits. When it fails, the runs using it fail and the next run opens
+ * a new connection.
+ *
+ */
+public class MultiplexingMessageSenderFactory implements IMessageSenderFactory {
+	private static final Logger LOGGER = Logger
+			.getLogger(MultiplexingMessageSenderFactory.class);
+	private static final int MAX_LINES_PER_TURN = 16;
+	private static final Map<String, MultiplexingMessageSenderFactory> SOCKET_FACTORIES = new HashMap<String, MultiplexingMessageSenderFactory>();
+	private final IConnectionFactory connectionFactory;
+	private final int queueCapacity;
+	private final QueueFullPolicy queueFullPolicy;
+	private final Object lock = new Object();
+	// guarded by lock
+	private final List<Channel> channels = new ArrayList<Channel>();
+	private Writer connection;
+	private boolean shutdownHookAdded = false;
+
+	public MultiplexingMessageSenderFactory(
+			IConnectionFactory connectionFactory, int queueCapacity,
+			QueueFullPolicy queueFullPolicy) {
+		this.connectionFactory = connectionFactory;
+		this.queueCapacity = queueCapacity;
+		this.queueFullPolicy = queueFullPolicy;
+	}
+
+	public MultiplexingMessageSenderFactory(IConnectionFactory connectionFactory) {
+		this(connectionFactory, AsyncMessageSenderFactory.DEFAULT_QUEUE_CAPACITY,
+				QueueFullPolicy.BLOCK);
+	}
+
+	/**
+	 * Get the factory for the given server. There is only one per JVM.
+	 *
+	 * @param host
+	 * @param port
+	 * @return
+	 */
+	public static MultiplexingMessageSenderFactory getSocketInstance(
+			String host, int port) {
+		return getInstance(host + ":" + port, new SocketConnectionFactory(
+				host, port));
+	}
+
+	/**
+	 * Get the factory for the given key. There is only one per JVM, the
+	 * connection factory is only used when the factory does not exist yet.
+	 *
+	 * @param key
+	 * @param connectionFactory
+	 * @return
+	 */
+	public static MultiplexingMessageSenderFactory getInstance(String key,
+			IConnectionFactory connectionFactory) {
+		return getInstance(key, connectionFactory,
+				AsyncMessageSenderFactory.DEFAULT_QUEUE_CAPACITY,
+				QueueFullPolicy.BLOCK);
+	}
+
+	/**
+	 * Get the factory for the given key. There is only one per JVM, the other
+	 * parameters are only used when the factory does not exist yet.
+	 *
+	 * @param key
+	 * @param connectionFactory
+	 * @param queueCapacity
+	 *            max number of lines queued by a channel
+	 * @param queueFullPolicy
+	 * @return
+	 */
+	public static MultiplexingMessageSenderFactory getInstance(String key,
+			IConnectionFactory connectionFactory, int queueCapacity,
+			QueueFullPolicy queueFullPolicy) {
+		synchronized (SOCKET_FACTORIES) {
+			MultiplexingMessageSenderFactory factory = SOCKET_FACTORIES
+					.get(key);
+			if (factory == null) {
+				factory = new MultiplexingMessageSenderFactory(
+						connectionFactory, queueCapacity, queueFullPolicy);
+				SOCKET_FACTORIES.put(key, factory);
+			}
+			return factory;
+		}
+	}
+
+	public MessageSender getMessageSender() {
+		return new MultiplexedMessageSender(this);
+	}
+
+	Channel openChannel() throws IOException {
+		synchronized (lock) {
+			if (connection == null) {
+				openConnection();
+			}
+			Channel channel = new Channel();
+			channels.add(channel);
+			return channel;
+		}
+	}
+
+	private void openConnection() throws IOException {
+		connection = new BufferedWriter(new OutputStreamWriter(
+				connectionFactory.openConnection(), "UTF-8"));
+		final Writer writer = connection;
+		Thread writerThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				writeLines(writer);
+			}
+		}, "TestInProgress multiplexer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+		if (!shutdownHookAdded) {
+			shutdownHookAdded = true;
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+
+				@Override
+				public void run() {
+					closeConnection();
+				}
+			});
+		}
+	}
+
+	private void writeLines(Writer writer) {
+		List<String> lines = new ArrayList<String>();
+		try {
+			while (true) {
+				synchronized (lock) {
+					while (!takeLines(lines)) {
+						lock.wait();
+					}
+				}
+				for (String line : lines) {
+					writer.write(line);
+				}
+				writer.flush();
+				lines.clear();
+				synchronized (lock) {
+					removeDrainedChannels();
+				}
+			}
+		} catch (InterruptedException e) {
+			failed(new IOException("Multiplexer thread interrupted"));
+		} catch (IOException e) {
+			LOGGER.error(
+					"Could not write to TestInProgress shared connection, it will be reopened for the next runs",
+					e);
+			failed(e);
+		}
+	}
+
+	/**
+	 * Take lines from each channel in turn
+	 *
+	 * @param lines
+	 * @return false if there was no line to take
+	 * @throws IOException
+	 */
+	private boolean takeLines(List<String> lines) throws IOException {
+		for (Channel channel : channels) {
+			for (int i = 0; i < MAX_LINES_PER_TURN && !channel.lines.isEmpty(); i++) {
+				lines.add(channel.lines.removeFirst());
+			}
+			channel.unspill();
+		}
+		if (lines.isEmpty()) {
+			removeDrainedChannels();
+			return false;
+		}
+		// there is room in the channels
+		lock.notifyAll();
+		return true;
+	}
+
+	private void removeDrainedChannels() throws IOException {
+		Iterator<Channel> it = channels.iterator();
+		while (it.hasNext()) {
+			Channel channel = it.next();
+			if (channel.closed && channel.lines.isEmpty()
+					&& channel.spillFile.size() == 0) {
+				it.remove();
+				channel.spillFile.close();
+				channel.drained = true;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Fail the channels of the broken connection. The next channel opens a new
+	 * connection.
+	 *
+	 * @param e
+	 */
+	private void failed(IOException e) {
+		synchronized (lock) {
+			for (Channel channel : channels) {
+				channel.failure = e;
+				channel.lines.clear();
+				try {
+					channel.spillFile.close();
+				} catch (IOException e1) {
+					// the channel has failed anyway
+				}
+				channel.drained = true;
+			}
+			channels.clear();
+			closeConnection();
+			connection = null;
+			lock.notifyAll();
+		}
+	}
+
+	private void closeConnection() {
+		synchronized (lock) {
+			try {
+				if (connection != null) {
+					connection.close();
+				}
+			} catch (IOException e) {
+				// JVM is exiting or connection is broken
+			}
+		}
+	}
+
+	/**
+	 * The lines of a run waiting to be written to the shared connection
+	 */
+	class Channel {
+		// guarded by lock
+		private final ArrayDeque<String> lines = new ArrayDeque<String>();
+		private final SpillFile spillFile = new SpillFile();
+		private boolean closed = false;
+		private boolean drained = false;
+		private long droppedLines = 0;
+		private IOException failure;
+
+		public void write(String line) throws IOException {
+			synchronized (lock) {
+				checkNoFailure();
+				switch (queueFullPolicy) {
+				case BLOCK:
+					waitForRoom();
+					lines.addLast(line);
+					break;
+				case DROP:
+					if (lines.size() >= queueCapacity) {
+						droppedLines++;
+						return;
+					}
+					lines.addLast(line);
+					break;
+				case SPILL:
+					// once we started to spill, all lines must go to the spill
+					// file until it is drained to keep ordering
+					if (spillFile.size() > 0 || lines.size() >= queueCapacity) {
+						spillFile.appendLine(line);
+					} else {
+						lines.addLast(line);
+					}
+					break;
+				}
+				lock.notifyAll();
+			}
+		}
+
+		private void waitForRoom() throws IOException {
+			try {
+				while (lines.size() >= queueCapacity) {
+					lock.wait();
+					checkNoFailure();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(
+						"Interrupted while waiting for space in the channel");
+			}
+		}
+
+		/**
+		 * Move spilled lines back to the queue
+		 *
+		 * @throws IOException
+		 */
+		private void unspill() throws IOException {
+			while (lines.size() < queueCapacity && spillFile.size() > 0) {
+				lines.addLast(spillFile.readLine());
+			}
+		}
+
+		private void checkNoFailure() throws IOException {
+			if (failure != null) {
+				throw new IOException("Shared connection failed", failure);
+			}
+		}
+
+		/**
+		 * @return number of lines dropped because the channel was full (only
+		 *         when policy is {@link QueueFullPolicy#DROP})
+		 */
+		public long getDroppedLines() {
+			synchronized (lock) {
+				return droppedLines;
+			}
+		}
+
+		/**
+		 * Close the channel and wait until all its lines have been written
+		 *
+		 * @throws IOException
+		 */
+		public void close() throws IOException {
+			synchronized (lock) {
+				closed = true;
+				lock.notifyAll();
+				try {
+					while (!drained) {
+						lock.wait();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException(
+							"Interrupted while waiting for messages to be written");
+				}
+				if (droppedLines > 0) {
+					LOGGER.warn(droppedLines
+							+ " TestInProgress messages have been dropped because the channel was full");
+				}
+				checkNoFailure();
+			}
+		}
+	}
+
+}
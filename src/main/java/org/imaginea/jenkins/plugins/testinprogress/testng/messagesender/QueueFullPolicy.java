@@ -0,0 +1,21 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+/**
+ * What {@link AsyncMessageSender} does with a message when its queue is full
+ *
+ */
+public enum QueueFullPolicy {
+	/**
+	 * Wait until the writer thread makes room in the queue
+	 */
+	BLOCK,
+	/**
+	 * Drop the message. Dropped messages are counted
+	 */
+	DROP,
+	/**
+	 * Write the message to a temporary file. Messages are read back in order
+	 * once the queue has been drained
+	 */
+	SPILL
+}
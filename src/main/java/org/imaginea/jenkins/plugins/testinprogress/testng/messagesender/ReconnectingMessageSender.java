@@ -0,0 +1,338 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+import org.testng.log4testng.Logger;
+
+/**
+ * A {@link MessageSender} that survives connection failures.
+ *
+ * When a message cannot be sent, the connection is dropped and messages are
+ * kept in a bounded backlog. Test threads only add messages to the backlog
+ * while disconnected: a dedicated thread reconnects, with exponential backoff
+ * and jitter between attempts. Once reconnected, testRunStarted and the test
+ * tree (only the last message of each test node) are sent again so that the
+ * server can rebuild its state, followed by the backlog.
+ *
+ * Suite nodes, nodes with children and nodes that have not ended are always
+ * kept in the test tree. Ended leaf nodes (finished tests, summaries ...) are
+ * only kept up to the backlog size, the oldest ones being dropped first.
+ *
+ */
+public class ReconnectingMessageSender extends AbstractMessageSender {
+	private static final Logger LOGGER = Logger
+			.getLogger(ReconnectingMessageSender.class);
+	private final IMessageSenderFactory messageSenderFactory;
+	private final int maxBacklogSize;
+	private final long initialBackoffMs;
+	private final long maxBackoffMs;
+	// guarded by this
+	private Message runStarted;
+	// test tree messages by testId
+	private final Map<String, Message> testTree = new LinkedHashMap<String, Message>();
+	// ids of the test nodes that have children
+	private final Set<String> parentIds = new HashSet<String>();
+	// ids of the ended leaf test nodes, oldest first
+	private final Set<String> endedLeaves = new LinkedHashSet<String>();
+	private final Deque<Message> backlog = new ArrayDeque<Message>();
+	// header messages still to be sent by the replay in progress
+	private Deque<Message> replayedHeader;
+	private MessageSender connection;
+	private long backoffMs;
+	private long retryDelayMs = 0;
+	private long droppedMessages = 0;
+	private int reconnections = 0;
+	private boolean shutdownRequested = false;
+	private Thread reconnectThread;
+
+	public ReconnectingMessageSender(
+			IMessageSenderFactory messageSenderFactory, int maxBacklogSize,
+			long initialBackoffMs, long maxBackoffMs) {
+		this.messageSenderFactory = messageSenderFactory;
+		this.maxBacklogSize = maxBacklogSize;
+		this.initialBackoffMs = initialBackoffMs;
+		this.maxBackoffMs = maxBackoffMs;
+		this.backoffMs = initialBackoffMs;
+	}
+
+	@Override
+	public synchronized void init() throws IOException {
+		connection = connect();
+		if (connection == null) {
+			LOGGER.warn("Could not connect to TestInProgress server, will retry later");
+		}
+		reconnectThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				reconnectWhenDisconnected();
+			}
+		}, "TestInProgress reconnection");
+		reconnectThread.setDaemon(true);
+		reconnectThread.start();
+	}
+
+	@Override
+	protected synchronized void send(Message message) throws IOException {
+		boolean headerMessage = addToHeader(message);
+		if (connection != null) {
+			try {
+				message.sendTo(connection);
+				return;
+			} catch (Exception e) {
+				LOGGER.warn(
+						"Could not send TestInProgress message, will reconnect",
+						e);
+				disconnect();
+			}
+		}
+		if (!headerMessage) {
+			addToBacklog(message);
+		} else if (replayedHeader != null) {
+			replayedHeader.addLast(message);
+		}
+	}
+
+	/**
+	 * Keep the message if it is needed to rebuild the state of the run
+	 *
+	 * @param message
+	 * @return true if the message is part of the header
+	 */
+	private boolean addToHeader(Message message) {
+		switch (message.getKind()) {
+		case TEST_RUN_STARTED:
+			runStarted = message;
+			testTree.clear();
+			parentIds.clear();
+			endedLeaves.clear();
+			return true;
+		case TEST_TREE:
+			testTree.put(message.getTestId(), message);
+			endedLeaves.remove(message.getTestId());
+			String parentId = message.getText();
+			if (parentId != null && parentIds.add(parentId)) {
+				endedLeaves.remove(parentId);
+			}
+			return true;
+		case TEST_STARTED:
+			endedLeaves.remove(message.getTestId());
+			return false;
+		case TEST_ENDED:
+			addToEndedLeaves(message.getTestId());
+			return false;
+		default:
+			return false;
+		}
+	}
+
+	private void addToEndedLeaves(String testId) {
+		Message treeMessage = testTree.get(testId);
+		if (treeMessage == null || treeMessage.getFlag()
+				|| parentIds.contains(testId)) {
+			return;
+		}
+		endedLeaves.remove(testId);
+		endedLeaves.add(testId);
+		if (endedLeaves.size() > maxBacklogSize) {
+			Iterator<String> it = endedLeaves.iterator();
+			testTree.remove(it.next());
+			it.remove();
+		}
+	}
+
+	private void addToBacklog(Message message) {
+		if (backlog.size() >= maxBacklogSize) {
+			backlog.removeFirst();
+			droppedMessages++;
+		}
+		backlog.addLast(message);
+	}
+
+	private void reconnectWhenDisconnected() {
+		try {
+			while (true) {
+				synchronized (this) {
+					while (connection != null && !shutdownRequested) {
+						wait();
+					}
+					long retryTime = System.currentTimeMillis() + retryDelayMs;
+					long delay;
+					while (!shutdownRequested
+							&& (delay = retryTime - System.currentTimeMillis()) > 0) {
+						wait(delay);
+					}
+					if (shutdownRequested) {
+						return;
+					}
+				}
+				reconnect();
+			}
+		} catch (InterruptedException e) {
+			// shutdown
+		}
+	}
+
+	/**
+	 * Reconnect and send the header then the backlog. The lock is only held
+	 * to take the next message, test threads add their messages to the
+	 * backlog until the replay is complete.
+	 */
+	private void reconnect() {
+		MessageSender newConnection = connect();
+		if (newConnection == null) {
+			synchronized (this) {
+				scheduleNextAttempt();
+			}
+			return;
+		}
+		Message message = null;
+		try {
+			synchronized (this) {
+				replayedHeader = new ArrayDeque<Message>();
+				if (runStarted != null) {
+					replayedHeader.add(runStarted);
+				}
+				replayedHeader.addAll(testTree.values());
+			}
+			while (true) {
+				synchronized (this) {
+					message = replayedHeader.pollFirst();
+					if (message == null) {
+						message = backlog.pollFirst();
+					}
+					if (message == null) {
+						replayedHeader = null;
+						connection = newConnection;
+						reconnections++;
+						backoffMs = initialBackoffMs;
+						retryDelayMs = 0;
+						return;
+					}
+				}
+				message.sendTo(newConnection);
+			}
+		} catch (Exception e) {
+			LOGGER.debug("Could not replay TestInProgress messages", e);
+			synchronized (this) {
+				if (message != null && !isHeaderMessage(message)) {
+					backlog.addFirst(message);
+				}
+				replayedHeader = null;
+				scheduleNextAttempt();
+			}
+			shutdownQuietly(newConnection);
+		}
+	}
+
+	private boolean isHeaderMessage(Message message) {
+		return message.getKind() == Message.Kind.TEST_RUN_STARTED
+				|| message.getKind() == Message.Kind.TEST_TREE;
+	}
+
+	private void scheduleNextAttempt() {
+		// jitter between 50% and 150% of the backoff
+		retryDelayMs = backoffMs / 2
+				+ (long) (ThreadLocalRandom.current().nextDouble() * backoffMs);
+		backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
+	}
+
+	private MessageSender connect() {
+		MessageSender messageSender = messageSenderFactory.getMessageSender();
+		try {
+			messageSender.init();
+			return messageSender;
+		} catch (Exception e) {
+			LOGGER.debug("Could not connect to TestInProgress server", e);
+			return null;
+		}
+	}
+
+	private void disconnect() {
+		if (connection != null) {
+			shutdownQuietly(connection);
+			connection = null;
+			// wake up the reconnection thread
+			notifyAll();
+		}
+	}
+
+	private void shutdownQuietly(MessageSender messageSender) {
+		try {
+			messageSender.shutdown();
+		} catch (Exception e) {
+			// connection is already broken
+		}
+	}
+
+	@Override
+	public void shutdown() throws IOException {
+		Thread thread;
+		synchronized (this) {
+			shutdownRequested = true;
+			notifyAll();
+			thread = reconnectThread;
+		}
+		try {
+			if (thread != null) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while waiting for reconnection thread");
+		}
+		boolean connected;
+		synchronized (this) {
+			connected = connection != null;
+		}
+		if (!connected) {
+			// last chance to send the backlog
+			reconnect();
+		}
+		synchronized (this) {
+			if (droppedMessages > 0) {
+				LOGGER.warn(droppedMessages
+						+ " TestInProgress messages have been dropped while disconnected");
+			}
+			if (connection == null) {
+				LOGGER.warn(backlog.size()
+						+ " TestInProgress messages could not be sent");
+				return;
+			}
+			connection.shutdown();
+			connection = null;
+		}
+	}
+
+	public synchronized long getDroppedMessages() {
+		return droppedMessages;
+	}
+
+	public synchronized int getReconnections() {
+		return reconnections;
+	}
+
+	@Override
+	public synchronized int getBacklog() {
+		return backlog.size();
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+}
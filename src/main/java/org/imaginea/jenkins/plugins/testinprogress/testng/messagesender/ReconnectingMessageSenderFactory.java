@@ -0,0 +1,39 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * Factory for {@link ReconnectingMessageSender}
+ *
+ */
+public class ReconnectingMessageSenderFactory implements IMessageSenderFactory {
+	public static final int DEFAULT_MAX_BACKLOG_SIZE = 10000;
+	public static final long DEFAULT_INITIAL_BACKOFF_MS = 100;
+	public static final long DEFAULT_MAX_BACKOFF_MS = 30000;
+	private final IMessageSenderFactory messageSenderFactory;
+	private final int maxBacklogSize;
+	private final long initialBackoffMs;
+	private final long maxBackoffMs;
+
+	public ReconnectingMessageSenderFactory(
+			IMessageSenderFactory messageSenderFactory, int maxBacklogSize,
+			long initialBackoffMs, long maxBackoffMs) {
+		this.messageSenderFactory = messageSenderFactory;
+		this.maxBacklogSize = maxBacklogSize;
+		this.initialBackoffMs = initialBackoffMs;
+		this.maxBackoffMs = maxBackoffMs;
+	}
+
+	public ReconnectingMessageSenderFactory(
+			IMessageSenderFactory messageSenderFactory, int maxBacklogSize) {
+		this(messageSenderFactory, maxBacklogSize, DEFAULT_INITIAL_BACKOFF_MS,
+				DEFAULT_MAX_BACKOFF_MS);
+	}
+
+	public MessageSender getMessageSender() {
+		return new ReconnectingMessageSender(messageSenderFactory,
+				maxBacklogSize, initialBackoffMs, maxBackoffMs);
+	}
+
+}
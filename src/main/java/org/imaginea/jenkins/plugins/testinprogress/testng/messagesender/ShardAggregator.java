@@ -0,0 +1,349 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.testng.log4testng.Logger;
+
+/**
+ * Merges the JSON streams of the shards (ie surefire forks) of a suite into a
+ * single stream toward the TestInProgress server.
+ *
+ * Each shard connects to the aggregator instead of the server. Its runIds end
+ * with {@link #SHARD_SEPARATOR} followed by its shard id, and its test ids are
+ * prefixed by its shard id so that they do not collide. The runs of the
+ * shards that only differ by their shard id are merged into a single run:
+ * only the first run start and the first root test node are sent, and the run
+ * end is sent once all the shards have ended their run. A shard whose
+ * connection closes before the end of its run is considered to have ended
+ * it, and the runs still waiting for shards that never ran them are ended
+ * when the aggregator is stopped. Messages of a given shard keep their order.
+ * Messages of runs that are not sharded are sent unchanged.
+ *
+ * Shards must send uncompressed JSON messages (one per line): the streams of
+ * shards using TEST_IN_PROGRESS_BINARY or TEST_IN_PROGRESS_COMPRESS cannot be
+ * aggregated. Reading such a shard fails and its runs are ended.
+ *
+ * Run it with: java ShardAggregator &lt;port&gt; &lt;shards&gt;. The server is
+ * given by TEST_IN_PROGRESS_HOST (localhost by default) and
+ * TEST_IN_PROGRESS_PORT system properties.
+ *
+ */
+public class ShardAggregator {
+	public static final char SHARD_SEPARATOR = '#';
+	private static final Logger LOGGER = Logger
+			.getLogger(ShardAggregator.class);
+	private final int port;
+	private final IConnectionFactory connectionFactory;
+	private final int shards;
+	private final List<Thread> shardThreads = new ArrayList<Thread>();
+	// guarded by this
+	private final Map<String, MergedRun> mergedRuns = new HashMap<String, MergedRun>();
+	private ServerSocket serverSocket;
+	private Thread acceptThread;
+	private Writer connection;
+
+	/**
+	 * @param port
+	 *            port where the shards connect, 0 for any free port
+	 * @param connectionFactory
+	 *            factory for the connection to the server
+	 * @param shards
+	 *            number of shards of each run
+	 */
+	public ShardAggregator(int port, IConnectionFactory connectionFactory,
+			int shards) {
+		this.port = port;
+		this.connectionFactory = connectionFactory;
+		this.shards = shards;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("Usage: ShardAggregator <port> <shards>");
+			System.exit(1);
+		}
+		String host = System.getProperty(
+				BufferedSocketMessageSenderFactory.HOST_PROPERTY, "localhost");
+		int serverPort = Integer.parseInt(System
+				.getProperty(BufferedSocketMessageSenderFactory.PORT_PROPERTY));
+		final ShardAggregator shardAggregator = new ShardAggregator(
+				Integer.parseInt(args[0]), new SocketConnectionFactory(host,
+						serverPort), Integer.parseInt(args[1]));
+		shardAggregator.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					shardAggregator.stop();
+				} catch (Exception e) {
+					LOGGER.error("Could not stop shard aggregator", e);
+				}
+			}
+		}, "TestInProgress shard aggregator shutdown"));
+		shardAggregator.acceptThread.join();
+	}
+
+	public void start() throws IOException {
+		connection = new BufferedWriter(new OutputStreamWriter(
+				connectionFactory.openConnection(), "UTF-8"));
+		serverSocket = new ServerSocket(port);
+		acceptThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				acceptShards();
+			}
+		}, "TestInProgress shard aggregator");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	/**
+	 * @return the port where the shards connect
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	private void acceptShards() {
+		try {
+			while (true) {
+				final Socket socket = serverSocket.accept();
+				Thread shardThread = new Thread(new Runnable() {
+
+					@Override
+					public void run() {
+						readShard(socket);
+					}
+				}, "TestInProgress shard " + socket.getRemoteSocketAddress());
+				shardThread.setDaemon(true);
+				synchronized (shardThreads) {
+					shardThreads.add(shardThread);
+				}
+				shardThread.start();
+			}
+		} catch (SocketException e) {
+			// server socket closed
+		} catch (IOException e) {
+			LOGGER.error("Could not accept shard connection", e);
+		}
+	}
+
+	private void readShard(Socket socket) {
+		// merged runId by runId of the runs started and not ended
+		Map<String, String> openRuns = new HashMap<String, String>();
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					socket.getInputStream(), "UTF-8"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (!line.isEmpty()) {
+						send(line, !reader.ready(), openRuns);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			LOGGER.error("Could not aggregate shard messages", e);
+		} catch (JSONException e) {
+			LOGGER.error(
+					"Could not aggregate shard messages: shards must send JSON messages, not TEST_IN_PROGRESS_BINARY or TEST_IN_PROGRESS_COMPRESS streams",
+					e);
+		} finally {
+			endOpenRuns(openRuns);
+		}
+	}
+
+	/**
+	 * End the runs of a shard whose connection has been closed before their
+	 * end
+	 *
+	 * @param openRuns
+	 */
+	private synchronized void endOpenRuns(Map<String, String> openRuns) {
+		try {
+			for (Map.Entry<String, String> openRun : openRuns.entrySet()) {
+				String runId = openRun.getKey();
+				String mergedRunId = openRun.getValue();
+				MergedRun mergedRun = mergedRuns.get(mergedRunId);
+				if (mergedRun != null
+						&& mergedRun.endedShards.add(getShardId(runId))) {
+					LOGGER.warn("Shard run " + runId
+							+ " has been closed before its end");
+					if (mergedRun.endedShards.size() >= shards) {
+						sendRunEnd(mergedRunId, mergedRun);
+					}
+				}
+			}
+			connection.flush();
+		} catch (IOException e) {
+			LOGGER.error("Could not aggregate shard messages", e);
+		}
+	}
+
+	private void sendRunEnd(String mergedRunId, MergedRun mergedRun)
+			throws IOException {
+		JSONObject message = new JSONObject();
+		message.put("messageId", "RUNTIME");
+		message.put("runId", mergedRunId);
+		message.put("elapsedTime", mergedRun.elapsedTime);
+		connection.write(message.toString());
+		connection.write('\n');
+		mergedRuns.remove(mergedRunId);
+	}
+
+	private static String getShardId(String runId) {
+		return runId.substring(runId.lastIndexOf(SHARD_SEPARATOR) + 1);
+	}
+
+	/**
+	 * Send a message of a shard to the server, merging it with the other
+	 * shards of its run
+	 *
+	 * @param line
+	 *            the JSON message
+	 * @param flush
+	 *            true to flush the connection
+	 * @throws IOException
+	 */
+	void send(String line, boolean flush) throws IOException {
+		send(line, flush, new HashMap<String, String>());
+	}
+
+	/**
+	 * @param line
+	 * @param flush
+	 * @param openRuns
+	 *            the runs started and not ended by the connection of the
+	 *            shard
+	 * @throws IOException
+	 */
+	private synchronized void send(String line, boolean flush,
+			Map<String, String> openRuns) throws IOException {
+		JSONObject message = new JSONObject(line);
+		String runId = message.optString("runId", null);
+		int separator = runId == null ? -1 : runId
+				.lastIndexOf(SHARD_SEPARATOR);
+		if (separator != -1
+				&& !merge(message, runId, runId.substring(0, separator),
+						openRuns)) {
+			return;
+		}
+		connection.write(message.toString());
+		connection.write('\n');
+		if (flush) {
+			connection.flush();
+		}
+	}
+
+	/**
+	 * @param message
+	 * @param runId
+	 * @param mergedRunId
+	 * @param openRuns
+	 * @return false if the message must not be sent
+	 */
+	private boolean merge(JSONObject message, String runId,
+			String mergedRunId, Map<String, String> openRuns) {
+		MergedRun mergedRun = mergedRuns.get(mergedRunId);
+		if (mergedRun == null) {
+			mergedRun = new MergedRun();
+			mergedRuns.put(mergedRunId, mergedRun);
+		}
+		message.put("runId", mergedRunId);
+		String messageId = message.getString("messageId");
+		if ("TESTC".equals(messageId)) {
+			openRuns.put(runId, mergedRunId);
+			if (mergedRun.started) {
+				return false;
+			}
+			mergedRun.started = true;
+		} else if ("RUNTIME".equals(messageId)) {
+			openRuns.remove(runId);
+			if (!mergedRun.endedShards.add(getShardId(runId))) {
+				// already ended
+				return false;
+			}
+			mergedRun.elapsedTime = Math.max(mergedRun.elapsedTime,
+					message.getLong("elapsedTime"));
+			if (mergedRun.endedShards.size() < shards) {
+				return false;
+			}
+			message.put("elapsedTime", mergedRun.elapsedTime);
+			mergedRuns.remove(mergedRunId);
+		} else if ("TSTTREE".equals(messageId) && message.isNull("parentId")) {
+			String testId = message.getString("testId");
+			if (mergedRun.rootTestId != null) {
+				// root of another shard
+				mergedRun.rootTestIds.put(testId, mergedRun.rootTestId);
+				return false;
+			}
+			mergedRun.rootTestId = testId;
+		} else if (!message.isNull("parentId")) {
+			String rootTestId = mergedRun.rootTestIds.get(message
+					.getString("parentId"));
+			if (rootTestId != null) {
+				message.put("parentId", rootTestId);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stop accepting shards and wait for the connected shards to close their
+	 * connection. The runs that some shards never ran are ended.
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void stop() throws IOException, InterruptedException {
+		serverSocket.close();
+		acceptThread.join();
+		List<Thread> threads;
+		synchronized (shardThreads) {
+			threads = new ArrayList<Thread>(shardThreads);
+		}
+		for (Thread shardThread : threads) {
+			shardThread.join();
+		}
+		synchronized (this) {
+			for (Map.Entry<String, MergedRun> mergedRun : new ArrayList<Map.Entry<String, MergedRun>>(
+					mergedRuns.entrySet())) {
+				LOGGER.warn("Only " + mergedRun.getValue().endedShards.size()
+						+ " of " + shards + " shards have run "
+						+ mergedRun.getKey());
+				sendRunEnd(mergedRun.getKey(), mergedRun.getValue());
+			}
+			connection.close();
+		}
+	}
+
+	private static class MergedRun {
+		private boolean started = false;
+		private final Set<String> endedShards = new HashSet<String>();
+		private long elapsedTime = 0;
+		private String rootTestId;
+		// root test id of a shard -> root test id of the merged run
+		private final Map<String, String> rootTestIds = new HashMap<String, String>();
+	}
+
+}
@@ -0,0 +1,41 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Opens a socket connection to the TestInProgress server
+ *
+ */
+public class SocketConnectionFactory implements IConnectionFactory {
+	private final String host;
+	private final int port;
+
+	public SocketConnectionFactory(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	public OutputStream openConnection() throws IOException {
+		final Socket socket = new Socket(host, port);
+		return new FilterOutputStream(socket.getOutputStream()) {
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					socket.close();
+				}
+			}
+		};
+	}
+
+}
@@ -0,0 +1,119 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A temporary FIFO file of messages (or of lines, a given spill file should
+ * only contain one or the other). Not thread safe.
+ *
+ */
+class SpillFile {
+	private File file;
+	private DataOutputStream out;
+	private DataInputStream in;
+	private int size = 0;
+
+	public void append(Message message) throws IOException {
+		openForWriting();
+		message.writeTo(out);
+		size++;
+	}
+
+	public void appendLine(String line) throws IOException {
+		openForWriting();
+		byte[] bytes = line.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		size++;
+	}
+
+	private void openForWriting() throws IOException {
+		if (out == null) {
+			file = File.createTempFile("testInProgress", ".spill");
+			file.deleteOnExit();
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(file)));
+		}
+	}
+
+	/**
+	 * Read the oldest message. The file is deleted once all messages have been
+	 * read.
+	 *
+	 * @return the message or null if there is no message left
+	 * @throws IOException
+	 */
+	public Message read() throws IOException {
+		if (size == 0) {
+			return null;
+		}
+		openForReading();
+		Message message = Message.readFrom(in);
+		removeRead();
+		return message;
+	}
+
+	/**
+	 * Read the oldest line
+	 *
+	 * @return the line or null if there is no line left
+	 * @throws IOException
+	 * @see #read()
+	 */
+	public String readLine() throws IOException {
+		if (size == 0) {
+			return null;
+		}
+		openForReading();
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		removeRead();
+		return new String(bytes, "UTF-8");
+	}
+
+	private void openForReading() throws IOException {
+		if (in == null) {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+		}
+		out.flush();
+	}
+
+	private void removeRead() throws IOException {
+		size--;
+		if (size == 0) {
+			close();
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void close() throws IOException {
+		try {
+			if (in != null) {
+				in.close();
+			}
+			if (out != null) {
+				out.close();
+			}
+		} finally {
+			in = null;
+			out = null;
+			size = 0;
+			if (file != null) {
+				file.delete();
+				file = null;
+			}
+		}
+	}
+
+}
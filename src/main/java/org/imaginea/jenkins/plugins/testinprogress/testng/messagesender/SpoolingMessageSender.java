@@ -0,0 +1,436 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+import org.testng.log4testng.Logger;
+
+/**
+ * A {@link MessageSender} that appends messages to a local spool file and
+ * returns. A dedicated thread sends the spooled messages using message senders
+ * created by the given factory. The spool file is flushed by that thread when
+ * it has sent all the flushed messages, not by the test threads.
+ *
+ * When sending fails, the thread gets a new message sender from the factory
+ * and replays the spool file from the beginning so that the server can
+ * rebuild the whole state of the run.
+ *
+ * Messages are dropped when the messages that have not been sent yet exceed
+ * the max spool size. Once the messages that have been sent exceed it too, the
+ * spool file is compacted: only the run and test tree messages of the sent
+ * part are kept, so that a replay still rebuilds the test tree.
+ *
+ */
+public class SpoolingMessageSender extends AbstractMessageSender {
+	private static final Logger LOGGER = Logger
+			.getLogger(SpoolingMessageSender.class);
+	private final IMessageSenderFactory messageSenderFactory;
+	private final File spoolDirectory;
+	private final long maxSpoolBytes;
+	private final long retryIntervalMs;
+	private final long shutdownTimeoutMs;
+	private final Object lock = new Object();
+	// guarded by lock
+	private File spoolFile;
+	private DataOutputStream out;
+	private long spooledMessages = 0;
+	private long spooledBytes = 0;
+	// bytes of the spool file that can be read, only written by the sender
+	// thread
+	private long flushedBytes = 0;
+	private long droppedMessages = 0;
+	private boolean shutdownRequested = false;
+	// only written by the sender thread
+	private volatile long sentMessages = 0;
+	// bytes of the spool file that have been sent at least once
+	private volatile long acknowledgedBytes = 0;
+	// only used by the sender thread
+	private CountingInputStream in;
+	private DataInputStream dataIn;
+	// bytes of the spool file sent on the current connection
+	private long sentBytes = 0;
+	// bytes kept by the last compaction
+	private long compactedBytes = 0;
+	private MessageSender connection;
+	private Thread senderThread;
+
+	public SpoolingMessageSender(IMessageSenderFactory messageSenderFactory,
+			File spoolDirectory, long maxSpoolBytes, long retryIntervalMs,
+			long shutdownTimeoutMs) {
+		this.messageSenderFactory = messageSenderFactory;
+		this.spoolDirectory = spoolDirectory;
+		this.maxSpoolBytes = maxSpoolBytes;
+		this.retryIntervalMs = retryIntervalMs;
+		this.shutdownTimeoutMs = shutdownTimeoutMs;
+	}
+
+	@Override
+	public void init() throws IOException {
+		spoolFile = File.createTempFile("testInProgress", ".spool",
+				spoolDirectory);
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(spoolFile)));
+		senderThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				sendSpooledMessages();
+			}
+		}, "TestInProgress spool sender");
+		senderThread.setDaemon(true);
+		senderThread.start();
+	}
+
+	@Override
+	protected void send(Message message) throws IOException {
+		spool(message);
+	}
+
+	private void spool(Message message) throws IOException {
+		synchronized (lock) {
+			// the end of the run is always spooled, the server would
+			// otherwise consider the run is still in progress
+			if (spooledBytes - acknowledgedBytes >= maxSpoolBytes
+					&& message.getKind() != Message.Kind.TEST_RUN_ENDED) {
+				droppedMessages++;
+				return;
+			}
+			int size = out.size();
+			message.writeTo(out);
+			spooledBytes += out.size() - size;
+			spooledMessages++;
+			lock.notifyAll();
+		}
+	}
+
+	private void sendSpooledMessages() {
+		try {
+			while (waitForSpooledMessage()) {
+				if (connection == null && !connect()) {
+					sleep(retryIntervalMs);
+					continue;
+				}
+				if (in.getCount() >= flushedBytes) {
+					flush();
+				}
+				Message message = Message.readFrom(dataIn);
+				try {
+					message.sendTo(connection);
+				} catch (Exception e) {
+					LOGGER.warn(
+							"Could not send TestInProgress message, will reconnect and replay spooled messages",
+							e);
+					disconnect();
+					continue;
+				}
+				sentMessages++;
+				sentBytes = in.getCount();
+				if (sentBytes >= acknowledgedBytes) {
+					acknowledgedBytes = sentBytes;
+					if (sentBytes - compactedBytes >= maxSpoolBytes) {
+						compact();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			// shutdown timeout
+		} catch (IOException e) {
+			LOGGER.error("Could not read TestInProgress spool file", e);
+		} finally {
+			disconnect();
+			closeQuietly(in);
+		}
+	}
+
+	private boolean waitForSpooledMessage() throws InterruptedException {
+		synchronized (lock) {
+			while (sentMessages == spooledMessages) {
+				if (shutdownRequested) {
+					return false;
+				}
+				lock.wait();
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Make the spooled messages readable by the sender thread
+	 * 
+	 * @throws IOException
+	 */
+	private void flush() throws IOException {
+		synchronized (lock) {
+			out.flush();
+			flushedBytes = spooledBytes;
+		}
+	}
+
+	private boolean connect() throws IOException {
+		MessageSender messageSender = messageSenderFactory.getMessageSender();
+		try {
+			messageSender.init();
+		} catch (Exception e) {
+			LOGGER.debug("Could not connect to TestInProgress server", e);
+			return false;
+		}
+		connection = messageSender;
+		// replay from the beginning
+		openSpoolFileAt(0);
+		sentMessages = 0;
+		sentBytes = 0;
+		return true;
+	}
+
+	private CountingInputStream openSpoolFile() throws IOException {
+		File file;
+		synchronized (lock) {
+			file = spoolFile;
+		}
+		return new CountingInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+	}
+
+	/**
+	 * Open the spool file for the sender thread
+	 * 
+	 * @param offset
+	 *            offset of the next message to send
+	 * @throws IOException
+	 */
+	private void openSpoolFileAt(long offset) throws IOException {
+		closeQuietly(in);
+		in = openSpoolFile();
+		dataIn = new DataInputStream(in);
+		while (in.getCount() < offset) {
+			if (in.skip(offset - in.getCount()) == 0) {
+				throw new EOFException("Spool file is too short");
+			}
+		}
+	}
+
+	/**
+	 * Replace the spool file with a file only keeping the run and test tree
+	 * messages of the sent messages, followed by the messages that have not
+	 * been sent yet. Only called when no message is being replayed.
+	 * 
+	 * The lock is only held to copy the messages spooled while the file was
+	 * being copied and to swap the files.
+	 * 
+	 * @throws IOException
+	 */
+	private void compact() throws IOException {
+		File compactedFile = File.createTempFile("testInProgress", ".spool",
+				spoolDirectory);
+		CountingInputStream spoolIn = openSpoolFile();
+		DataOutputStream compactedOut = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(compactedFile)));
+		boolean compacted = false;
+		try {
+			// the sent messages cannot change, no need to hold the lock
+			long keptMessages = 0;
+			DataInputStream dataIn = new DataInputStream(spoolIn);
+			while (spoolIn.getCount() < sentBytes) {
+				Message message = Message.readFrom(dataIn);
+				if (message.getKind() != Message.Kind.TEST_STARTED
+						&& message.getKind() != Message.Kind.TEST_ENDED
+						&& message.getKind() != Message.Kind.TEST_ERROR) {
+					message.writeTo(compactedOut);
+					keptMessages++;
+				}
+			}
+			long keptBytes = compactedOut.size();
+			byte[] buffer = new byte[8192];
+			flush();
+			// the flushed messages cannot change either
+			copy(spoolIn, compactedOut, flushedBytes, buffer);
+			synchronized (lock) {
+				out.flush();
+				flushedBytes = spooledBytes;
+				copy(spoolIn, compactedOut, flushedBytes, buffer);
+				compactedOut.close();
+				out.close();
+				spoolFile.delete();
+				spoolFile = compactedFile;
+				out = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(spoolFile, true)));
+				spooledBytes -= sentBytes - keptBytes;
+				flushedBytes = spooledBytes;
+				spooledMessages -= sentMessages - keptMessages;
+				sentMessages = keptMessages;
+				acknowledgedBytes = keptBytes;
+			}
+			compacted = true;
+			sentBytes = keptBytes;
+			compactedBytes = keptBytes;
+			openSpoolFileAt(sentBytes);
+		} finally {
+			closeQuietly(spoolIn);
+			if (!compacted) {
+				compactedOut.close();
+				compactedFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Copy the spool file up to the given offset
+	 */
+	private void copy(CountingInputStream spoolIn, OutputStream copyOut,
+			long offset, byte[] buffer) throws IOException {
+		while (spoolIn.getCount() < offset) {
+			int length = spoolIn.read(buffer, 0,
+					(int) Math.min(buffer.length, offset - spoolIn.getCount()));
+			if (length == -1) {
+				throw new EOFException("Spool file is too short");
+			}
+			copyOut.write(buffer, 0, length);
+		}
+	}
+
+	private void disconnect() {
+		if (connection != null) {
+			try {
+				connection.shutdown();
+			} catch (Exception e) {
+				// connection is already broken
+			}
+			connection = null;
+		}
+	}
+
+	private void closeQuietly(InputStream inputStream) {
+		if (inputStream != null) {
+			try {
+				inputStream.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	private void sleep(long ms) throws InterruptedException {
+		synchronized (lock) {
+			lock.wait(ms);
+		}
+	}
+
+	@Override
+	public void shutdown() throws IOException {
+		synchronized (lock) {
+			shutdownRequested = true;
+			lock.notifyAll();
+		}
+		try {
+			senderThread.join(shutdownTimeoutMs);
+			if (senderThread.isAlive()) {
+				// we do not wait more, the thread is a daemon thread
+				senderThread.interrupt();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while waiting for spool sender thread");
+		}
+		closeSpoolFile();
+	}
+
+	private void closeSpoolFile() throws IOException {
+		synchronized (lock) {
+			out.close();
+			if (droppedMessages > 0) {
+				LOGGER.warn(droppedMessages
+						+ " TestInProgress messages have been dropped because the spool file is full");
+			}
+			if (sentMessages == spooledMessages) {
+				spoolFile.delete();
+			} else {
+				LOGGER.warn((spooledMessages - sentMessages)
+						+ " TestInProgress messages could not be sent. They are kept in "
+						+ spoolFile.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * @return the size of the spool file
+	 */
+	long getSpooledBytes() {
+		synchronized (lock) {
+			return spooledBytes;
+		}
+	}
+
+	public long getDroppedMessages() {
+		synchronized (lock) {
+			return droppedMessages;
+		}
+	}
+
+	@Override
+	public int getBacklog() {
+		synchronized (lock) {
+			return (int) (spooledMessages - sentMessages);
+		}
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	/**
+	 * Counts the bytes read from the spool file
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long count = 0;
+
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int length = super.read(b, off, len);
+			if (length != -1) {
+				count += length;
+			}
+			return length;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+	}
+
+}
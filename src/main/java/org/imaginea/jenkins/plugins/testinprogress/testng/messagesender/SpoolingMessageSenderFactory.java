@@ -0,0 +1,44 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.File;
+
+import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * Factory for {@link SpoolingMessageSender}. Each run gets its own spool file.
+ *
+ */
+public class SpoolingMessageSenderFactory implements IMessageSenderFactory {
+	public static final long DEFAULT_MAX_SPOOL_BYTES = 64 * 1024 * 1024;
+	public static final long DEFAULT_RETRY_INTERVAL_MS = 1000;
+	public static final long DEFAULT_SHUTDOWN_TIMEOUT_MS = 30000;
+	private final IMessageSenderFactory messageSenderFactory;
+	private final File spoolDirectory;
+	private final long maxSpoolBytes;
+	private final long retryIntervalMs;
+	private final long shutdownTimeoutMs;
+
+	public SpoolingMessageSenderFactory(
+			IMessageSenderFactory messageSenderFactory, File spoolDirectory,
+			long maxSpoolBytes, long retryIntervalMs, long shutdownTimeoutMs) {
+		this.messageSenderFactory = messageSenderFactory;
+		this.spoolDirectory = spoolDirectory;
+		this.maxSpoolBytes = maxSpoolBytes;
+		this.retryIntervalMs = retryIntervalMs;
+		this.shutdownTimeoutMs = shutdownTimeoutMs;
+	}
+
+	public SpoolingMessageSenderFactory(
+			IMessageSenderFactory messageSenderFactory, File spoolDirectory,
+			long maxSpoolBytes) {
+		this(messageSenderFactory, spoolDirectory, maxSpoolBytes,
+				DEFAULT_RETRY_INTERVAL_MS, DEFAULT_SHUTDOWN_TIMEOUT_MS);
+	}
+
+	public MessageSender getMessageSender() {
+		return new SpoolingMessageSender(messageSenderFactory, spoolDirectory,
+				maxSpoolBytes, retryIntervalMs, shutdownTimeoutMs);
+	}
+
+}
@@ -0,0 +1,38 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.IOException;
+
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * A {@link MessageSender} that can be used by several threads. Messages are
+ * sent to the delegate one at a time.
+ *
+ */
+public class SynchronizedMessageSender extends ForwardingMessageSender {
+
+	public SynchronizedMessageSender(MessageSender delegate) {
+		super(delegate);
+	}
+
+	@Override
+	public synchronized void init() throws IOException {
+		super.init();
+	}
+
+	@Override
+	public synchronized void shutdown() throws IOException {
+		super.shutdown();
+	}
+
+	@Override
+	protected synchronized void send(Message message) throws IOException {
+		super.send(message);
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+}
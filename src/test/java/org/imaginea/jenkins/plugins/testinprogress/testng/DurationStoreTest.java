@@ -0,0 +1,121 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.testng.annotations.Test;
+
+public class DurationStoreTest {
+
+	@Test
+	public void testDurationsAreStoredBetweenRuns() throws Exception {
+		// Given
+		File file = createStoreFile();
+		DurationStore store = new DurationStore(file);
+		store.load();
+		store.record("test1(MyTest)", 100);
+		store.record("test2(MyTest)", 200);
+		store.save();
+
+		// When
+		DurationStore nextStore = new DurationStore(file);
+		nextStore.load();
+		nextStore.record("test2(MyTest)", 400);
+		nextStore.record("test3(MyTest)", 50);
+		nextStore.save();
+		DurationStore lastStore = new DurationStore(file);
+		lastStore.load();
+
+		// Then
+		assertEquals(100, nextStore.getDuration("test1(MyTest)"));
+		assertEquals(-1, nextStore.getDuration("test3(MyTest)"));
+		assertEquals(100, lastStore.getDuration("test1(MyTest)"));
+		assertEquals(300, lastStore.getDuration("test2(MyTest)"));
+		assertEquals(50, lastStore.getDuration("test3(MyTest)"));
+	}
+
+	@Test
+	public void testInvalidFileIsEmptyStore() throws Exception {
+		// Given
+		File file = createStoreFile();
+		Files.write(file.toPath(), "invalid".getBytes("UTF-8"));
+		DurationStore store = new DurationStore(file);
+
+		// When
+		store.load();
+
+		// Then
+		assertEquals(-1, store.getDuration("test1(MyTest)"));
+	}
+
+	@Test
+	public void testLoadingLargeStoreIsFast() throws Exception {
+		// Given
+		File file = createStoreFile();
+		DurationStore store = new DurationStore(file);
+		for (int i = 0; i < 100000; i++) {
+			store.record("test" + i + "(MyTest)", i);
+		}
+		store.save();
+
+		// When
+		long start = System.nanoTime();
+		DurationStore loadedStore = new DurationStore(file);
+		loadedStore.load();
+		for (int i = 0; i < 100000; i++) {
+			assertEquals(i, loadedStore.getDuration("test" + i + "(MyTest)"));
+		}
+		long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+		// Then
+		assertEquals(12 + 16 * 100000, file.length());
+		assertTrue("Took " + elapsedMs + " ms", elapsedMs < 1000);
+	}
+
+	@Test
+	public void testStoreIsSharedPerFile() throws Exception {
+		// Given
+		File file = createStoreFile();
+
+		// When
+		DurationStore store = DurationStore.getInstance(file);
+		DurationStore otherStore = DurationStore.getInstance(new File(file
+				.getParentFile(), file.getName()));
+
+		// Then
+		assertSame(store, otherStore);
+	}
+
+	@Test
+	public void testSavedDurationsAreNotMergedTwice() throws Exception {
+		// Given
+		File directory = Files.createTempDirectory("durations").toFile();
+		directory.deleteOnExit();
+		File file = new File(directory, "durations.tip");
+		file.deleteOnExit();
+		DurationStore store = new DurationStore(file);
+		store.record("test1(MyTest)", 100);
+		store.save();
+
+		// When
+		store.record("test2(MyTest)", 200);
+		store.save();
+		DurationStore loadedStore = new DurationStore(file);
+		loadedStore.load();
+
+		// Then
+		assertEquals(100, loadedStore.getDuration("test1(MyTest)"));
+		assertEquals(200, loadedStore.getDuration("test2(MyTest)"));
+		assertArrayEquals(new File[] { file }, directory.listFiles());
+	}
+
+	private File createStoreFile() throws Exception {
+		File file = File.createTempFile("durations", ".tip");
+		file.delete();
+		file.deleteOnExit();
+		return file;
+	}
+
+}
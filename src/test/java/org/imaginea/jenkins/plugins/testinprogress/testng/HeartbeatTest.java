@@ -0,0 +1,31 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import static org.junit.Assert.*;
+
+import org.testng.annotations.Test;
+
+public class HeartbeatTest {
+
+	@Test
+	public void testHeartbeatCountsTestsSincePreviousHeartbeat() {
+		// Given
+		Heartbeat heartbeat = new Heartbeat();
+		heartbeat.testEnded();
+		heartbeat.testEnded();
+
+		// When
+		String firstHeartbeat = heartbeat.nextHeartbeat(1);
+		String secondHeartbeat = heartbeat.nextHeartbeat(2);
+
+		// Then
+		assertTrue(firstHeartbeat,
+				firstHeartbeat.startsWith("heartbeat: 2 tests completed in "));
+		assertTrue(firstHeartbeat, firstHeartbeat.contains(", 1 in flight, "));
+		assertTrue(secondHeartbeat,
+				secondHeartbeat.startsWith("heartbeat: 0 tests completed in "));
+		assertTrue(secondHeartbeat, secondHeartbeat.contains(", 2 in flight, "));
+		assertTrue(secondHeartbeat,
+				secondHeartbeat.matches(".* heap \\d+/\\d+ MB, GC \\d+%"));
+	}
+
+}
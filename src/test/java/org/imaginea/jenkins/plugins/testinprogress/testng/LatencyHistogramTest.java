@@ -0,0 +1,42 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import static org.junit.Assert.*;
+
+import org.testng.annotations.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testPercentiles() {
+		// Given
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		// When
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000);
+		}
+
+		// Then
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500500, histogram.getMean());
+		assertEquals(1000000, histogram.getMax());
+		assertEquals(500000, histogram.getPercentile(50), 500000 / 8);
+		assertEquals(990000, histogram.getPercentile(99), 990000 / 8);
+		assertEquals(1000000, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void testBucketsContainTheirValues() {
+		for (long value : new long[] { 0, 1, 7, 8, 15, 16, 17, 100, 12345,
+				Integer.MAX_VALUE, Long.MAX_VALUE / 4 }) {
+			// When
+			int bucket = LatencyHistogram.getBucket(value);
+
+			// Then
+			assertTrue(value <= LatencyHistogram.getBucketUpperBound(bucket));
+			assertTrue(bucket == 0
+					|| value > LatencyHistogram.getBucketUpperBound(bucket - 1));
+		}
+	}
+
+}
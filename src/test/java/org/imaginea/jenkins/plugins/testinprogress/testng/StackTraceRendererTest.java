@@ -0,0 +1,100 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng;
+
+import static org.junit.Assert.*;
+
+import org.testng.annotations.Test;
+
+public class StackTraceRendererTest {
+
+	@Test
+	public void testDefaultIsFullStackTrace() {
+		// Given
+		StackTraceRenderer renderer = new StackTraceRenderer(
+				new TestInProgressConfiguration());
+		Exception exception = new IllegalStateException("failure",
+				new RuntimeException("cause"));
+
+		// When
+		String trace = renderer.render(exception, "test1");
+
+		// Then
+		assertTrue(trace.startsWith("java.lang.IllegalStateException: failure"));
+		assertTrue(trace.contains("Caused by: java.lang.RuntimeException: cause"));
+		assertTrue(trace.contains(getClass().getName()
+				+ ".testDefaultIsFullStackTrace"));
+	}
+
+	@Test
+	public void testFrameworkFramesFilteredAndDepthLimited() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setTraceFilterFrameworkFrames(true);
+		configuration.setTraceMaxDepth(1);
+		StackTraceRenderer renderer = new StackTraceRenderer(configuration);
+		Exception exception = new Exception("failure");
+		exception.setStackTrace(new StackTraceElement[] {
+				new StackTraceElement("my.Test", "test1", "Test.java", 10),
+				new StackTraceElement("my.Test", "helper", "Test.java", 20),
+				new StackTraceElement("org.testng.internal.Invoker",
+						"invokeMethod", "Invoker.java", 30) });
+
+		// When
+		String trace = renderer.render(exception, "test1");
+
+		// Then
+		assertEquals("java.lang.Exception: failure\n"
+				+ "\tat my.Test.test1(Test.java:10)\n"
+				+ "\t... 1 framework frames filtered\n"
+				+ "\t... 1 frames truncated\n", trace);
+	}
+
+	@Test
+	public void testTraceLengthIsLimited() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setTraceMaxLength(20);
+		StackTraceRenderer renderer = new StackTraceRenderer(configuration);
+
+		// When
+		String trace = renderer.render(new Exception("failure"), "test1");
+
+		// Then
+		assertEquals("java.lang.Exception:\n\t... trace truncated\n", trace);
+	}
+
+	@Test
+	public void testTraceLengthIsLimitedInUTF8Bytes() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setTraceMaxLength(27);
+		StackTraceRenderer renderer = new StackTraceRenderer(configuration);
+		// 'e' with acute accent (2 bytes) then G clef (4 bytes, 2 chars)
+		Exception exception = new Exception("\u00e9\uD834\uDD1E\uD834\uDD1E");
+
+		// When
+		String trace = renderer.render(exception, "test1");
+
+		// Then
+		assertEquals("java.lang.Exception: \u00e9\uD834\uDD1E"
+				+ "\n\t... trace truncated\n", trace);
+	}
+
+	@Test
+	public void testSameTraceIsDeduplicated() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setTraceDeduplicate(true);
+		StackTraceRenderer renderer = new StackTraceRenderer(configuration);
+		Exception exception = new Exception("failure");
+
+		// When
+		String firstTrace = renderer.render(exception, "test1");
+		String secondTrace = renderer.render(exception, "test2");
+
+		// Then
+		assertTrue(firstTrace.contains("\tat "));
+		assertEquals("java.lang.Exception: failure\n"
+				+ "\t(same stack trace as test1)\n", secondTrace);
+	}
+
+}
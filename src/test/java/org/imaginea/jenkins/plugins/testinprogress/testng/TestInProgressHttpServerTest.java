@@ -46,7 +46,7 @@ public class TestInProgressHttpServerTest {
 		testNG.setUseDefaultListeners(false);
 		testNG.setVerbose(0);
 		testNG.setTestClasses(testClasses);
-		testNG.addListener(new TestNGProgressRunListener());
+		testNG.addListener((Object) new TestNGProgressRunListener());
 		testNG.run();
 	}
 
@@ -4,13 +4,33 @@ import static org.imaginea.jenkins.plugins.testinprogress.testng.utils.TestMessa
 import static org.junit.Assert.*;
 import static org.imaginea.jenkins.plugins.testinprogress.testng.utils.TestMessageUtils.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.AsyncMessageSenderFactory;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.ForwardingMessageSender;
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.Message;
+import org.imaginea.jenkins.plugins.testinprogress.testng.utils.ConfigurationSample;
+import org.imaginea.jenkins.plugins.testinprogress.testng.utils.FailingDataProviderSample;
 import org.imaginea.jenkins.plugins.testinprogress.testng.utils.JSONObjectsMessageSenderFactory;
+import org.imaginea.jenkins.plugins.testinprogress.testng.utils.SkipExceptionSample;
+import org.imaginea.jenkins.plugins.testinprogress.testng.utils.SlowTestsSample;
+import org.imaginea.jenkins.plugins.testinprogress.testng.utils.SuccessPercentageSample;
+import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
 import org.jenkinsci.testinprogress.messagesender.SimpleMessageSenderFactory;
 import org.json.JSONObject;
 import org.skyscreamer.jsonassert.JSONCompareMode;
@@ -21,6 +41,7 @@ import org.testng.xml.XmlSuite;
 
 import com.mkyong.testng.examples.helloworld.TestHelloWorld;
 import com.mkyong.testng.examples.parameter.CharUtilsTest;
+import com.mkyong.testng.examples.suite.TestOrder;
 
 public class TestNGProgressRunListenerTest {
 
@@ -61,6 +82,72 @@ public class TestNGProgressRunListenerTest {
 		printTestMessages(messages);
 	}
 
+	@Test
+	public void testStartedTestsArePartOfTestTree() {
+		// Given
+		Class<?> testClass = TestHelloWorld.class;
+
+		// When
+		JSONObject[] messages = runTests(testClass)[0];
+
+		// Then
+		List<JSONObject> testStartedMessages = getTestMessagesMatching(
+				messages, new JSONObject("{messageId:'TESTS'}"),
+				JSONCompareMode.LENIENT);
+		assertFalse(testStartedMessages.isEmpty());
+		for (JSONObject testStartedMessage : testStartedMessages) {
+			assertTestMessageMatches(messages, new JSONObject(
+					"{messageId:'TSTTREE'}")
+					.put("testId", testStartedMessage.getString("testId"))
+					.put("testName", testStartedMessage.getString("testName")),
+					JSONCompareMode.LENIENT);
+		}
+	}
+
+	@Test
+	public void testStreamingTestTree() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setTestTreeMode(TestTreeMode.STREAMING);
+
+		// When
+		JSONObject[] messages = runTests(configuration, TestHelloWorld.class,
+				CharUtilsTest.class)[0];
+
+		// Then
+		assertTreeNodesSentBeforeTestStarts(messages);
+	}
+
+	@Test
+	public void testLazyTestTree() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setTestTreeMode(TestTreeMode.LAZY);
+
+		// When
+		JSONObject[] messages = runTests(configuration, TestHelloWorld.class,
+				CharUtilsTest.class)[0];
+
+		// Then
+		assertTreeNodesSentBeforeTestStarts(messages);
+		assertEquals("TSTTREE", messages[1].getString("messageId"));
+		assertEquals("TSTTREE", messages[2].getString("messageId"));
+		assertEquals("TSTTREE", messages[3].getString("messageId"));
+		assertEquals("TESTS", messages[4].getString("messageId"));
+	}
+
+	private void assertTreeNodesSentBeforeTestStarts(JSONObject[] messages) {
+		Set<String> treeNodes = new HashSet<String>();
+		for (JSONObject message : messages) {
+			String messageId = message.getString("messageId");
+			if ("TSTTREE".equals(messageId)) {
+				treeNodes.add(message.getString("testId"));
+			} else if ("TESTS".equals(messageId)) {
+				assertTrue(treeNodes.contains(message.getString("testId")));
+			}
+		}
+	}
+
 	@Test
 	public void testSuite() {
 		// Given
@@ -106,19 +193,693 @@ public class TestNGProgressRunListenerTest {
 		assertFalse(firstTestRunId.equals(secondTestRunId));
 	}	
 	
+	@Test
+	public void testSuiteProgress() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setSuiteProgress(true);
+		String resourceName = "testng-suite-parallel-tests.xml";
+
+		// When
+		JSONObject[][] messages = runTests(configuration, resourceName);
+
+		// Then
+		assertEquals(3, messages.length);
+		JSONObject[] suiteMessages = messages[0];
+		assertTestMessageMatches(new JSONObject(
+				"{runId:'TestAll',messageId:'TESTC'}"), suiteMessages[0],
+				JSONCompareMode.LENIENT);
+		assertEquals(Arrays.asList("order"),
+				getTestNamesStartingWith(suiteMessages, "order"));
+		assertEquals(Arrays.asList("database"),
+				getTestNamesStartingWith(suiteMessages, "database"));
+		assertEquals(1,
+				getTestNamesStartingWith(suiteMessages,
+						"8 tests: 8 passed, 0 failed, 0 skipped in ").size());
+		assertEquals("RUNTIME",
+				suiteMessages[suiteMessages.length - 1].getString("messageId"));
+	}
+
+	@Test
+	public void testSuiteHeartbeat() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setSuiteProgress(true);
+		configuration.setSuiteHeartbeatMs(50);
+
+		// When
+		JSONObject[] suiteMessages = runTests(configuration,
+				SlowTestsSample.class)[0];
+
+		// Then
+		List<String> heartbeats = new ArrayList<String>();
+		for (String testName : getTestNamesStartingWith(suiteMessages, "")) {
+			if (testName
+					.matches("\\d+ running, \\d+ passed, 0 failed, 0 skipped \\(.* tests/s\\)")) {
+				heartbeats.add(testName);
+			}
+		}
+		assertFalse(heartbeats.isEmpty());
+	}
+
+	@Test
+	public void testSuiteHeartbeatStopsAfterFailure() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setSuiteProgress(true);
+		configuration.setSuiteHeartbeatMs(50);
+		final JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		final AtomicBoolean shutdown = new AtomicBoolean(false);
+		final AtomicInteger messagesAfterFailure = new AtomicInteger();
+		IMessageSenderFactory messageSenderFactory = new IMessageSenderFactory() {
+			private final AtomicInteger messageSenders = new AtomicInteger();
+
+			@Override
+			public MessageSender getMessageSender() {
+				MessageSender messageSender = jsonObjectsMessageSenderFactory
+						.getMessageSender();
+				if (messageSenders.getAndIncrement() > 0) {
+					return messageSender;
+				}
+				// the suite message sender fails when the first xml test
+				// starts
+				return new ForwardingMessageSender(messageSender) {
+
+					@Override
+					protected void send(Message message) throws IOException {
+						if (failed.get()) {
+							messagesAfterFailure.incrementAndGet();
+						} else if (message.getKind() == Message.Kind.TEST_STARTED) {
+							failed.set(true);
+							throw new IOException("Connection reset");
+						}
+						super.send(message);
+					}
+
+					@Override
+					public void shutdown() throws IOException {
+						shutdown.set(true);
+						super.shutdown();
+					}
+				};
+			}
+		};
+
+		// When
+		runTests(messageSenderFactory, configuration, SlowTestsSample.class);
+
+		// Then
+		assertTrue(failed.get());
+		assertTrue(shutdown.get());
+		assertEquals(0, messagesAfterFailure.get());
+	}
+
+	@Test
+	public void testHeartbeats() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setHeartbeatMs(50);
+
+		// When
+		JSONObject[] messages = runTests(configuration,
+				SlowTestsSample.class)[0];
+
+		// Then
+		List<String> heartbeats = getTestNamesStartingWith(messages,
+				"heartbeat: ");
+		assertFalse(heartbeats.isEmpty());
+		assertTrue(heartbeats.get(0), heartbeats.get(0).contains(
+				", 1 in flight, "));
+		assertEquals(1, getHeartbeatTestIds(messages).size());
+	}
+
+	@Test
+	public void testHeartbeatsContinueAfterSendFailure() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setHeartbeatMs(50);
+		final JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		IMessageSenderFactory messageSenderFactory = new IMessageSenderFactory() {
+
+			@Override
+			public MessageSender getMessageSender() {
+				return new ForwardingMessageSender(
+						jsonObjectsMessageSenderFactory.getMessageSender()) {
+
+					@Override
+					protected void send(Message message) throws IOException {
+						if (message.getKind() == Message.Kind.TEST_TREE
+								&& message.getTestName().startsWith(
+										"heartbeat: ")
+								&& failed.compareAndSet(false, true)) {
+							throw new IOException("Transient failure");
+						}
+						super.send(message);
+					}
+				};
+			}
+		};
+
+		// When
+		runTests(messageSenderFactory, configuration, SlowTestsSample.class);
+
+		// Then
+		JSONObject[] messages = jsonObjectsMessageSenderFactory.getMessages()[0];
+		assertTrue(failed.get());
+		assertFalse(getTestNamesStartingWith(messages, "heartbeat: ")
+				.isEmpty());
+	}
+
+	@Test
+	public void testHeartbeatsStopAfterListenerFailure() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setHeartbeatMs(50);
+		final JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		final AtomicBoolean shutdown = new AtomicBoolean(false);
+		final AtomicInteger messagesAfterFailure = new AtomicInteger();
+		IMessageSenderFactory messageSenderFactory = new IMessageSenderFactory() {
+
+			@Override
+			public MessageSender getMessageSender() {
+				return new ForwardingMessageSender(
+						jsonObjectsMessageSenderFactory.getMessageSender()) {
+
+					@Override
+					protected void send(Message message) throws IOException {
+						if (failed.get()) {
+							messagesAfterFailure.incrementAndGet();
+						} else if (message.getKind() == Message.Kind.TEST_STARTED
+								&& !message.getTestName().startsWith(
+										"heartbeat: ")) {
+							failed.set(true);
+							throw new IOException("Connection reset");
+						}
+						super.send(message);
+					}
+
+					@Override
+					public void shutdown() throws IOException {
+						shutdown.set(true);
+						super.shutdown();
+					}
+				};
+			}
+		};
+
+		// When
+		runTests(messageSenderFactory, configuration, SlowTestsSample.class);
+
+		// Then
+		assertTrue(failed.get());
+		assertTrue(shutdown.get());
+		assertEquals(0, messagesAfterFailure.get());
+	}
+
+	@Test
+	public void testSlowTestsAreReportedAfterSendFailure() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setHangThresholdMs(50);
+		final JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		IMessageSenderFactory messageSenderFactory = new IMessageSenderFactory() {
+
+			@Override
+			public MessageSender getMessageSender() {
+				return new ForwardingMessageSender(
+						jsonObjectsMessageSenderFactory.getMessageSender()) {
+
+					@Override
+					protected void send(Message message) throws IOException {
+						if (message.getKind() == Message.Kind.TEST_TREE
+								&& message.getTestName().contains(
+										"slow test: running for")
+								&& failed.compareAndSet(false, true)) {
+							throw new IOException("Transient failure");
+						}
+						super.send(message);
+					}
+				};
+			}
+		};
+
+		// When
+		runTests(messageSenderFactory, configuration, SlowTestsSample.class);
+
+		// Then
+		JSONObject[] messages = jsonObjectsMessageSenderFactory.getMessages()[0];
+		assertTrue(failed.get());
+		assertFalse(getTestNamesStartingWith(messages,
+				"slow test: running for").isEmpty());
+	}
+
+	private Set<String> getHeartbeatTestIds(JSONObject[] messages) {
+		Set<String> testIds = new HashSet<String>();
+		for (JSONObject message : getTestMessagesMatching(messages,
+				new JSONObject("{messageId:'TSTTREE'}"),
+				JSONCompareMode.LENIENT)) {
+			if (message.getString("testName").startsWith("heartbeat: ")) {
+				testIds.add(message.getString("testId"));
+			}
+		}
+		return testIds;
+	}
+
+	@Test
+	public void testSlowTestsAreReportedWithTheirStackTrace() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setHangThresholdMs(50);
+
+		// When
+		JSONObject[] messages = runTests(configuration,
+				SlowTestsSample.class)[0];
+
+		// Then
+		List<JSONObject> errors = getTestMessagesMatching(messages,
+				new JSONObject("{messageId:'ERROR'}"), JSONCompareMode.LENIENT);
+		assertFalse(errors.isEmpty());
+		boolean testSlowestReported = false;
+		for (JSONObject error : errors) {
+			assertTrue(error.getString("testName").startsWith(
+					"slow test: running for "));
+			String trace = error.getString("trace");
+			assertTrue(trace, trace.contains("Thread.sleep"));
+			assertFalse(trace, trace.contains("testFast"));
+			testSlowestReported |= trace.contains(SlowTestsSample.class
+					.getName() + ".testSlowest");
+		}
+		assertTrue(testSlowestReported);
+	}
+
+	@Test
+	public void testAsyncSendsSameMessages() {
+		// Given
+		Class<?> testClass = CharUtilsTest.class;
+		JSONObject[] syncMessages = runTests(testClass)[0];
+
+		// When
+		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		runTests(new AsyncMessageSenderFactory(jsonObjectsMessageSenderFactory),
+				testClass);
+		JSONObject[] asyncMessages = jsonObjectsMessageSenderFactory
+				.getMessages()[0];
+
+		// Then
+		assertEquals(syncMessages.length, asyncMessages.length);
+		for (int i = 0; i < syncMessages.length; i++) {
+			assertEquals(syncMessages[i].getString("messageId"),
+					asyncMessages[i].getString("messageId"));
+		}
+	}
+
+	@Test
+	public void testEventsOfDifferentTestsAreHandledConcurrently() {
+		// Given
+		final JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		final CountDownLatch testsStarted = new CountDownLatch(2);
+		final AtomicBoolean timedOut = new AtomicBoolean(false);
+		IMessageSenderFactory messageSenderFactory = new IMessageSenderFactory() {
+
+			@Override
+			public MessageSender getMessageSender() {
+				return new ForwardingMessageSender(
+						jsonObjectsMessageSenderFactory.getMessageSender()) {
+
+					@Override
+					protected void send(Message message) throws IOException {
+						if (message.getKind() == Message.Kind.TEST_STARTED) {
+							// wait until another test starts
+							testsStarted.countDown();
+							try {
+								if (!testsStarted.await(5, TimeUnit.SECONDS)) {
+									timedOut.set(true);
+								}
+							} catch (InterruptedException e) {
+								throw new InterruptedIOException();
+							}
+						}
+						synchronized (this) {
+							super.send(message);
+						}
+					}
+
+					@Override
+					public boolean isThreadSafe() {
+						return true;
+					}
+				};
+			}
+		};
+		TestNG testNG = new TestNG();
+		testNG.setUseDefaultListeners(false);
+		testNG.setVerbose(0);
+		testNG.setParallel("methods");
+		testNG.setThreadCount(4);
+		testNG.setTestClasses(new Class<?>[] { TestOrder.class });
+		testNG.addListener((Object) new TestNGProgressRunListener(
+				messageSenderFactory));
+
+		// When
+		testNG.run();
+
+		// Then
+		assertFalse(timedOut.get());
+		List<JSONObject> testStartedMessages = getTestMessagesMatching(
+				jsonObjectsMessageSenderFactory.getMessages()[0],
+				new JSONObject("{messageId:'TESTS'}"), JSONCompareMode.LENIENT);
+		assertEquals(4, testStartedMessages.size());
+	}
+
+	@Test
+	public void testStatisticsAreRecorded() {
+		// Given
+		ListenerStatistics statistics = ListenerStatistics.getInstance();
+		long runs = statistics.getRuns();
+		long messagesSent = statistics.getMessagesSent();
+		long testStarts = statistics.getCallbackLatencies()
+				.get(ListenerEvent.TEST_START.name()).getCount();
+
+		// When
+		JSONObject[] messages = runTests(TestHelloWorld.class)[0];
+
+		// Then
+		assertEquals(runs + 1, statistics.getRuns());
+		assertEquals(messagesSent + messages.length,
+				statistics.getMessagesSent());
+		assertEquals(testStarts + 1, statistics.getCallbackLatencies()
+				.get(ListenerEvent.TEST_START.name()).getCount());
+	}
+
+	@Test
+	public void testCoalescedInvocations() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setCoalesceInvocations(true);
+		configuration.setCoalesceIntervalMs(Long.MAX_VALUE);
+
+		// When
+		JSONObject[] messages = runTests(configuration, CharUtilsTest.class)[0];
+
+		// Then
+		// one test per method and one per summary instead of one per
+		// invocation
+		assertEquals(
+				4,
+				getTestMessagesMatching(messages,
+						new JSONObject("{messageId:'TESTS'}"),
+						JSONCompareMode.LENIENT).size());
+		assertEquals(
+				2,
+				getTestNamesStartingWith(messages,
+						"invocations 1-12: 12 passed, 0 failed, 0 skipped")
+						.size());
+		assertTreeNodesSentBeforeTestStarts(messages);
+	}
+
+	@Test
+	public void testFailedInvocationsAreSentWhenCoalesced() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setCoalesceInvocations(true);
+		configuration.setCoalesceIntervalMs(Long.MAX_VALUE);
+
+		// When
+		JSONObject[] messages = runTests(configuration,
+				FailingDataProviderSample.class)[0];
+
+		// Then
+		List<JSONObject> errors = getTestMessagesMatching(messages,
+				new JSONObject("{messageId:'ERROR'}"), JSONCompareMode.LENIENT);
+		assertEquals(1, errors.size());
+		assertEquals("invocation 2[2]", errors.get(0).getString("testName"));
+		assertEquals(
+				1,
+				getTestNamesStartingWith(messages,
+						"invocations 1-3: 2 passed, 1 failed, 0 skipped")
+						.size());
+	}
+
+	@Test
+	public void testRateLimitedTestsAreSummarized() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setRateLimit(1);
+		configuration.setRateLimitBurst(4);
+
+		// When
+		JSONObject[] messages = runTests(configuration, CharUtilsTest.class)[0];
+
+		// Then
+		int reportedTests = getTestMessagesMatching(messages,
+				new JSONObject("{messageId:'TESTE'}"), JSONCompareMode.LENIENT)
+				.size();
+		List<String> summaries = getTestNamesStartingWith(messages, "");
+		int unreportedTests = 0;
+		for (String summary : summaries) {
+			if (summary.contains("not reported (rate limited)")) {
+				unreportedTests += Integer.parseInt(summary.substring(0,
+						summary.indexOf(' ')));
+				// the summary itself is a test
+				reportedTests--;
+			}
+		}
+		assertTrue(unreportedTests > 0);
+		assertEquals(24, reportedTests + unreportedTests);
+	}
+
+	@Test
+	public void testFailuresAreNotRateLimited() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setRateLimit(1);
+		configuration.setRateLimitBurst(1);
+
+		// When
+		JSONObject[] messages = runTests(configuration,
+				FailingDataProviderSample.class)[0];
+
+		// Then
+		List<JSONObject> errors = getTestMessagesMatching(messages,
+				new JSONObject("{messageId:'ERROR'}"), JSONCompareMode.LENIENT);
+		assertEquals(1, errors.size());
+		assertTreeNodesSentBeforeTestStarts(messages);
+		assertEquals("RUNTIME",
+				messages[messages.length - 1].getString("messageId"));
+	}
+
+	@Test
+	public void testStartedTestSkippedWhenRateLimitedIsEnded() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setRateLimit(1);
+		configuration.setRateLimitBurst(2);
+
+		// When
+		JSONObject[] messages = runTests(configuration,
+				SkipExceptionSample.class)[0];
+
+		// Then
+		assertEquals(
+				1,
+				getTestMessagesMatching(messages,
+						new JSONObject("{messageId:'TESTE',ignored:true}"),
+						JSONCompareMode.LENIENT).size());
+		assertTrue(getTestNamesStartingWith(messages, "1 tests not reported")
+				.isEmpty());
+	}
+
+	@Test
+	public void testSlowestTests() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setSlowestTests(2);
+
+		// When
+		JSONObject[] messages = runTests(configuration, SlowTestsSample.class,
+				TestHelloWorld.class)[0];
+
+		// Then
+		assertEquals(1, getTestNamesStartingWith(messages, "Slowest methods")
+				.size());
+		List<String> slowestMethods = getTestNamesStartingWith(messages,
+				"1. ");
+		assertTrue(slowestMethods.get(0).startsWith(
+				"1. testSlowest(" + SlowTestsSample.class.getName() + ")"));
+		assertTrue(slowestMethods.get(1).startsWith(
+				"1. " + SlowTestsSample.class.getName()));
+		assertEquals(
+				1,
+				getTestNamesStartingWith(messages,
+						"2. testSlow(" + SlowTestsSample.class.getName() + ")")
+						.size());
+		assertTrue(getTestNamesStartingWith(messages, "3. ").isEmpty());
+	}
+
+	@Test
+	public void testDurationsAreStored() throws IOException {
+		// Given
+		File durationStoreFile = File.createTempFile("durations", ".tip");
+		durationStoreFile.deleteOnExit();
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setDurationStore(durationStoreFile);
+
+		// When
+		runTests(configuration, SlowTestsSample.class);
+
+		// Then
+		DurationStore durationStore = new DurationStore(durationStoreFile);
+		durationStore.load();
+		assertTrue(durationStore.getDuration("testSlowest("
+				+ SlowTestsSample.class.getName() + ")") >= 200);
+		assertTrue(durationStore.getDuration("testFast("
+				+ SlowTestsSample.class.getName() + ")") < 200);
+	}
+
+	@Test
+	public void testExpectedDurationIsSent() throws IOException {
+		// Given
+		File durationStoreFile = File.createTempFile("durations", ".tip");
+		durationStoreFile.deleteOnExit();
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setDurationStore(durationStoreFile);
+		runTests(configuration, SlowTestsSample.class);
+
+		// When
+		JSONObject[] messages = runTests(configuration, SlowTestsSample.class)[0];
+
+		// Then
+		assertEquals(1,
+				getTestNamesStartingWith(messages,
+						"progress: expected duration ").size());
+	}
+
+	@Test
+	public void testFailedButWithinSuccessPercentageTestsAreEnded() {
+		// Given
+		Class<?> testClass = SuccessPercentageSample.class;
+
+		// When
+		JSONObject[] messages = runTests(testClass)[0];
+
+		// Then
+		assertEquals(
+				10,
+				getTestMessagesMatching(messages,
+						new JSONObject("{messageId:'TESTS'}"),
+						JSONCompareMode.LENIENT).size());
+		assertEquals(
+				10,
+				getTestMessagesMatching(messages,
+						new JSONObject("{messageId:'TESTE'}"),
+						JSONCompareMode.LENIENT).size());
+		assertTrue(getTestMessagesMatching(messages,
+				new JSONObject("{messageId:'ERROR'}"), JSONCompareMode.LENIENT)
+				.isEmpty());
+	}
+
+	@Test
+	public void testFailedButWithinSuccessPercentageTestsAreCoalesced() {
+		// Given
+		TestInProgressConfiguration configuration = new TestInProgressConfiguration();
+		configuration.setCoalesceInvocations(true);
+		configuration.setCoalesceIntervalMs(Long.MAX_VALUE);
+
+		// When
+		JSONObject[] messages = runTests(configuration,
+				SuccessPercentageSample.class)[0];
+
+		// Then
+		assertEquals(
+				1,
+				getTestNamesStartingWith(messages,
+						"invocations 1-10: 5 passed, 0 failed, "
+								+ "5 failed within success percentage, 0 skipped")
+						.size());
+	}
+
+	@Test
+	public void testConfigurationMethodsAreReported() {
+		// Given
+		Class<?> testClass = ConfigurationSample.class;
+
+		// When
+		JSONObject[] messages = runTests(testClass)[0];
+
+		// Then
+		assertEquals(
+				Arrays.asList("@BeforeClass setUpClass("
+						+ testClass.getName() + ")"),
+				getTestNamesStartingWith(messages, "@BeforeClass "));
+		assertEquals(1, getTestNamesStartingWith(messages, "@AfterMethod ")
+				.size());
+		assertEquals(
+				1,
+				getTestMessagesMatching(
+						messages,
+						new JSONObject("{messageId:'TESTE',testName:'@BeforeClass setUpClass("
+								+ testClass.getName() + ")'}"),
+						JSONCompareMode.LENIENT).size());
+		assertEquals(
+				1,
+				getTestMessagesMatching(
+						messages,
+						new JSONObject("{messageId:'ERROR',testName:'@AfterMethod tearDown("
+								+ testClass.getName() + ")'}"),
+						JSONCompareMode.LENIENT).size());
+	}
+
+	private List<String> getTestNamesStartingWith(JSONObject[] messages,
+			String prefix) {
+		List<String> testNames = new ArrayList<String>();
+		for (JSONObject message : getTestMessagesMatching(messages,
+				new JSONObject("{messageId:'TSTTREE'}"),
+				JSONCompareMode.LENIENT)) {
+			if (message.getString("testName").startsWith(prefix)) {
+				testNames.add(message.getString("testName"));
+			}
+		}
+		return testNames;
+	}
+
 	private JSONObject[][] runTests(Class<?>... testClasses) {
+		return runTests(new TestInProgressConfiguration(), testClasses);
+	}
+
+	private JSONObject[][] runTests(TestInProgressConfiguration configuration,
+			Class<?>... testClasses) {
+		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		runTests(jsonObjectsMessageSenderFactory, configuration, testClasses);
+		return jsonObjectsMessageSenderFactory.getMessages();
+	}
+
+	private void runTests(IMessageSenderFactory messageSenderFactory,
+			Class<?>... testClasses) {
+		runTests(messageSenderFactory, new TestInProgressConfiguration(),
+				testClasses);
+	}
+
+	private void runTests(IMessageSenderFactory messageSenderFactory,
+			TestInProgressConfiguration configuration, Class<?>... testClasses) {
 		TestNG testNG = new TestNG();
 		testNG.setUseDefaultListeners(false);
 		testNG.setVerbose(0);
 		testNG.setTestClasses(testClasses);
-		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
-		testNG.addListener(new TestNGProgressRunListener(
-				jsonObjectsMessageSenderFactory));
+		testNG.addListener((Object) new TestNGProgressRunListener(
+				messageSenderFactory, configuration));
 		testNG.run();
-		return jsonObjectsMessageSenderFactory.getMessages();
 	}
 
 	private JSONObject[][] runTests(String resourceName) {
+		return runTests(new TestInProgressConfiguration(), resourceName);
+	}
+
+	private JSONObject[][] runTests(TestInProgressConfiguration configuration,
+			String resourceName) {
 		SuiteXmlParser suiteXmlParser = new SuiteXmlParser();
 		InputStream inputStream = getClass().getResourceAsStream(resourceName);
 		XmlSuite xmlSuite = suiteXmlParser.parse(resourceName, inputStream,
@@ -131,8 +892,8 @@ public class TestNGProgressRunListenerTest {
 		testNG.setVerbose(0);
 		testNG.setXmlSuites(xmlSuites);
 		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
-		testNG.addListener(new TestNGProgressRunListener(
-				jsonObjectsMessageSenderFactory));
+		testNG.addListener((Object) new TestNGProgressRunListener(
+				jsonObjectsMessageSenderFactory, configuration));
 		testNG.run();
 		return jsonObjectsMessageSenderFactory.getMessages();
 	}
@@ -0,0 +1,131 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.utils.JSONObjectsMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+public class AsyncMessageSenderTest {
+
+	@Test
+	public void testSpilledMessagesAreSentInOrder() throws Exception {
+		// Given
+		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		CountDownLatch latch = new CountDownLatch(1);
+		AsyncMessageSender messageSender = new AsyncMessageSender(
+				new BlockingMessageSender(
+						jsonObjectsMessageSenderFactory.getMessageSender(),
+						latch), 2, QueueFullPolicy.SPILL);
+		messageSender.init();
+
+		// When
+		sendMessages(messageSender, 100);
+		latch.countDown();
+		messageSender.testRunEnded(1000);
+		messageSender.shutdown();
+
+		// Then
+		JSONObject[] messages = jsonObjectsMessageSenderFactory.getMessages()[0];
+		assertEquals(102, messages.length);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(Integer.toString(i),
+					messages[i + 1].getString("testId"));
+		}
+		assertEquals("RUNTIME", messages[101].getString("messageId"));
+	}
+
+	@Test
+	public void testMessagesAreDroppedWhenQueueIsFull() throws Exception {
+		// Given
+		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		CountDownLatch latch = new CountDownLatch(1);
+		AsyncMessageSender messageSender = new AsyncMessageSender(
+				new BlockingMessageSender(
+						jsonObjectsMessageSenderFactory.getMessageSender(),
+						latch), 2, QueueFullPolicy.DROP);
+		messageSender.init();
+
+		// When
+		sendMessages(messageSender, 100);
+		latch.countDown();
+		messageSender.shutdown();
+
+		// Then
+		JSONObject[] messages = jsonObjectsMessageSenderFactory.getMessages()[0];
+		assertTrue(messageSender.getDroppedMessages() > 0);
+		assertEquals(101, messages.length + messageSender.getDroppedMessages());
+	}
+
+	@Test(timeOut = 10000)
+	public void testProducersAreReleasedWhenWriterThreadFails()
+			throws Exception {
+		// Given
+		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		AsyncMessageSender messageSender = new AsyncMessageSender(
+				new ForwardingMessageSender(
+						jsonObjectsMessageSenderFactory.getMessageSender()) {
+
+					@Override
+					protected void send(Message message) throws IOException {
+						if (message.getKind() == Message.Kind.TEST_TREE) {
+							throw new IllegalStateException(
+									"Could not render trace");
+						}
+						super.send(message);
+					}
+				}, 2, QueueFullPolicy.BLOCK);
+		messageSender.init();
+
+		// When
+		IOException failure = null;
+		try {
+			sendMessages(messageSender, 100);
+		} catch (IOException e) {
+			failure = e;
+		}
+
+		// Then
+		assertNotNull(failure);
+		assertTrue(failure.getCause().getCause() instanceof IllegalStateException);
+	}
+
+	private void sendMessages(MessageSender messageSender, int count)
+			throws IOException {
+		messageSender.testRunStarted("runId");
+		for (int i = 0; i < count; i++) {
+			messageSender.testTree(Integer.toString(i), "test" + i, null,
+					false);
+		}
+	}
+
+	/**
+	 * Waits for the latch before sending the first test tree message
+	 */
+	private static class BlockingMessageSender extends ForwardingMessageSender {
+		private final CountDownLatch latch;
+
+		public BlockingMessageSender(MessageSender delegate,
+				CountDownLatch latch) {
+			super(delegate);
+			this.latch = latch;
+		}
+
+		@Override
+		protected void send(Message message) throws IOException {
+			if (message.getKind() == Message.Kind.TEST_TREE) {
+				try {
+					latch.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+			super.send(message);
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.testng.annotations.Test;
+
+public class BatchingOutputStreamTest {
+
+	@Test
+	public void testBatchIsWrittenWhenFull() throws Exception {
+		// Given
+		CountingOutputStream countingOutputStream = new CountingOutputStream();
+		BatchingOutputStream batchingOutputStream = new BatchingOutputStream(
+				countingOutputStream, 100, 10000);
+
+		// When
+		for (int i = 0; i < 100; i++) {
+			batchingOutputStream.write(new byte[10]);
+			batchingOutputStream.flush();
+		}
+
+		// Then
+		assertEquals(9, countingOutputStream.writes);
+		assertEquals(900, countingOutputStream.size());
+		batchingOutputStream.close();
+		assertEquals(1000, countingOutputStream.size());
+	}
+
+	@Test
+	public void testBatchIsWrittenAfterLingerTime() throws Exception {
+		// Given
+		CountingOutputStream countingOutputStream = new CountingOutputStream();
+		BatchingOutputStream batchingOutputStream = new BatchingOutputStream(
+				countingOutputStream, 100, 50);
+
+		// When
+		batchingOutputStream.write(new byte[10]);
+		batchingOutputStream.flush();
+		assertEquals(0, countingOutputStream.size());
+		Thread.sleep(500);
+
+		// Then
+		assertEquals(10, countingOutputStream.size());
+		batchingOutputStream.close();
+	}
+
+	@Test
+	public void testForceFlush() throws Exception {
+		// Given
+		CountingOutputStream countingOutputStream = new CountingOutputStream();
+		BatchingOutputStream batchingOutputStream = new BatchingOutputStream(
+				countingOutputStream, 100, 10000);
+		batchingOutputStream.write(new byte[10]);
+
+		// When
+		batchingOutputStream.forceFlush();
+
+		// Then
+		assertEquals(10, countingOutputStream.size());
+		batchingOutputStream.close();
+	}
+
+	private static class CountingOutputStream extends ByteArrayOutputStream {
+		private int writes = 0;
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			writes++;
+			super.write(b, off, len);
+		}
+
+		@Override
+		public void write(byte[] b) throws IOException {
+			write(b, 0, b.length);
+		}
+	}
+
+}
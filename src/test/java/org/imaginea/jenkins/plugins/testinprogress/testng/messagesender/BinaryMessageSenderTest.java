@@ -0,0 +1,231 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import static org.imaginea.jenkins.plugins.testinprogress.testng.utils.TestMessageUtils.getMessagesFromBinaryStream;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.TestNGProgressRunListener;
+import org.imaginea.jenkins.plugins.testinprogress.testng.utils.JSONObjectsMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
+import org.json.JSONObject;
+import org.skyscreamer.jsonassert.JSONAssert;
+import org.skyscreamer.jsonassert.JSONCompareMode;
+import org.testng.TestNG;
+import org.testng.annotations.Test;
+
+import com.mkyong.testng.examples.helloworld.TestHelloWorld;
+import com.mkyong.testng.examples.parameter.CharUtilsTest;
+
+public class BinaryMessageSenderTest {
+
+	@Test
+	public void testDecodedMessagesAreSameAsJSONMessages() throws Exception {
+		// Given
+		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		Class<?>[] testClasses = { TestHelloWorld.class, CharUtilsTest.class };
+
+		// When
+		runTests(jsonObjectsMessageSenderFactory, testClasses);
+		runTests(new BinaryMessageSenderFactory(connectionFactory),
+				testClasses);
+
+		// Then
+		JSONObject[] jsonMessages = jsonObjectsMessageSenderFactory
+				.getMessages()[0];
+		byte[] bytes = connectionFactory.getConnections().get(0)
+				.toByteArray();
+		JSONObject[] binaryMessages = getMessagesFromBinaryStream(bytes);
+		assertEquals(jsonMessages.length, binaryMessages.length);
+		for (int i = 0; i < jsonMessages.length; i++) {
+			if ("RUNTIME".equals(jsonMessages[i].getString("messageId"))) {
+				// elapsed time is different
+				jsonMessages[i].remove("elapsedTime");
+				binaryMessages[i].remove("elapsedTime");
+			}
+			JSONAssert.assertEquals(jsonMessages[i], binaryMessages[i],
+					JSONCompareMode.STRICT);
+		}
+		int jsonSize = 0;
+		for (JSONObject message : jsonMessages) {
+			jsonSize += message.toString().length() + 1;
+		}
+		assertTrue(bytes.length < jsonSize / 2);
+	}
+
+	@Test
+	public void testNonNumericTestIds() throws Exception {
+		// Given
+		InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		BinaryMessageSender messageSender = new BinaryMessageSender(
+				connectionFactory);
+
+		// When
+		messageSender.init();
+		messageSender.testRunStarted("run");
+		messageSender.testTree("suite", "My suite", null, true);
+		messageSender.testTree("007", "test", "suite", false);
+		messageSender.testStarted("007", "other name", false);
+		messageSender.testError("007", "test", "trace\u00e9");
+		messageSender.testEnded("007", "test", true);
+		messageSender.shutdown();
+
+		// Then
+		JSONObject[] messages = getMessagesFromBinaryStream(connectionFactory
+				.getConnections().get(0).toByteArray());
+		assertEquals("suite", messages[1].getString("testId"));
+		assertEquals("My suite", messages[1].getString("testName"));
+		assertEquals("007", messages[2].getString("testId"));
+		assertEquals("suite", messages[2].getString("parentId"));
+		assertEquals("other name", messages[3].getString("testName"));
+		assertEquals("trace\u00e9", messages[4].getString("trace"));
+		assertEquals("test", messages[5].getString("testName"));
+		assertTrue(messages[5].getBoolean("ignored"));
+	}
+
+	@Test
+	public void testDurationsAreDecoded() throws Exception {
+		// Given
+		InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		BinaryMessageSender messageSender = new BinaryMessageSender(
+				connectionFactory);
+		final List<Message> messages = new ArrayList<Message>();
+		AbstractMessageSender decodedMessageSender = new AbstractMessageSender() {
+
+			@Override
+			protected void send(Message message) throws IOException {
+				messages.add(message);
+			}
+		};
+
+		// When
+		messageSender.init();
+		messageSender.testRunStarted("run");
+		messageSender.testTree("1", "test", null, false);
+		messageSender.testStarted("1", "test", false);
+		messageSender.testEnded("1", "test", false, 300);
+		messageSender.testEnded("1", "test", false);
+		messageSender.shutdown();
+		new BinaryMessageDecoder().decode(new ByteArrayInputStream(
+				connectionFactory.getConnections().get(0).toByteArray()),
+				decodedMessageSender);
+
+		// Then
+		assertEquals(300, messages.get(3).getValue());
+		assertEquals(-1, messages.get(4).getValue());
+	}
+
+	@Test
+	public void testDurationsAreKeptWhenReconnecting() throws Exception {
+		// Given
+		InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		ReconnectingMessageSender messageSender = new ReconnectingMessageSender(
+				new BinaryMessageSenderFactory(connectionFactory), 100, 0, 0);
+
+		// When
+		sendTestWithDuration(messageSender);
+
+		// Then
+		List<Message> messages = decodeMessages(connectionFactory
+				.getConnections().get(0).toByteArray());
+		assertEquals(Message.Kind.TEST_ENDED, messages.get(3).getKind());
+		assertEquals(300, messages.get(3).getValue());
+	}
+
+	@Test
+	public void testDurationsAreKeptWhenSpooling() throws Exception {
+		// Given
+		InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		SpoolingMessageSender messageSender = new SpoolingMessageSender(
+				new BinaryMessageSenderFactory(connectionFactory), new File(
+						System.getProperty("java.io.tmpdir")),
+				SpoolingMessageSenderFactory.DEFAULT_MAX_SPOOL_BYTES, 10, 10000);
+
+		// When
+		sendTestWithDuration(messageSender);
+
+		// Then
+		List<Message> messages = decodeMessages(connectionFactory
+				.getConnections().get(0).toByteArray());
+		assertEquals(Message.Kind.TEST_ENDED, messages.get(3).getKind());
+		assertEquals(300, messages.get(3).getValue());
+	}
+
+	@Test
+	public void testStringTableIsBounded() throws Exception {
+		// Given
+		InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		BinaryMessageSender messageSender = new BinaryMessageSender(
+				connectionFactory);
+		int nodes = BinaryFormat.MAX_STRING_REFS * 2;
+
+		// When
+		messageSender.init();
+		messageSender.testRunStarted("run");
+		messageSender.testTree("suite", "My suite", null, true);
+		for (int i = 0; i < nodes; i++) {
+			messageSender.testTree("shard-" + i, "summary " + i, "suite",
+					false);
+			messageSender.testStarted("shard-" + i, "summary " + i, false);
+		}
+		messageSender.testEnded("suite", "My suite", false);
+		messageSender.shutdown();
+
+		// Then
+		JSONObject[] messages = getMessagesFromBinaryStream(connectionFactory
+				.getConnections().get(0).toByteArray());
+		assertEquals(nodes * 2 + 3, messages.length);
+		for (int i = 0; i < nodes; i++) {
+			JSONObject treeMessage = messages[2 + i * 2];
+			assertEquals("shard-" + i, treeMessage.getString("testId"));
+			assertEquals("summary " + i, treeMessage.getString("testName"));
+			assertEquals("suite", treeMessage.getString("parentId"));
+			JSONObject startMessage = messages[3 + i * 2];
+			assertEquals("shard-" + i, startMessage.getString("testId"));
+			assertEquals("summary " + i, startMessage.getString("testName"));
+		}
+		assertEquals("suite", messages[nodes * 2 + 2].getString("testId"));
+		assertEquals("My suite", messages[nodes * 2 + 2].getString("testName"));
+	}
+
+	private void sendTestWithDuration(AbstractMessageSender messageSender)
+			throws IOException {
+		messageSender.init();
+		messageSender.testRunStarted("run");
+		messageSender.testTree("1", "test", null, false);
+		messageSender.testStarted("1", "test", false);
+		messageSender.testEnded("1", "test", false, 300);
+		messageSender.testRunEnded(1000);
+		messageSender.shutdown();
+	}
+
+	private List<Message> decodeMessages(byte[] bytes) throws IOException {
+		final List<Message> messages = new ArrayList<Message>();
+		new BinaryMessageDecoder().decode(new ByteArrayInputStream(bytes),
+				new AbstractMessageSender() {
+
+					@Override
+					protected void send(Message message) throws IOException {
+						messages.add(message);
+					}
+				});
+		return messages;
+	}
+
+	private void runTests(IMessageSenderFactory messageSenderFactory,
+			Class<?>... testClasses) {
+		TestNG testNG = new TestNG();
+		testNG.setUseDefaultListeners(false);
+		testNG.setVerbose(0);
+		testNG.setTestClasses(testClasses);
+		testNG.addListener((Object) new TestNGProgressRunListener(
+				messageSenderFactory));
+		testNG.run();
+	}
+
+}
@@ -0,0 +1,256 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.TestNGProgressRunListener;
+import org.imaginea.jenkins.plugins.testinprogress.testng.utils.JSONObjectsMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+import org.json.JSONObject;
+import org.skyscreamer.jsonassert.JSONAssert;
+import org.skyscreamer.jsonassert.JSONCompareMode;
+import org.testng.SkipException;
+import org.testng.TestNG;
+import org.testng.annotations.Test;
+
+import com.mkyong.testng.examples.helloworld.TestHelloWorld;
+import com.mkyong.testng.examples.parameter.CharUtilsTest;
+
+public class ByteBufferMessageSenderTest {
+
+	@Test
+	public void testMessagesAreSameAsJSONMessages() throws Exception {
+		// Given
+		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		Class<?>[] testClasses = { TestHelloWorld.class, CharUtilsTest.class };
+
+		// When
+		runTests(jsonObjectsMessageSenderFactory, testClasses);
+		runTests(new ByteBufferMessageSenderFactory(connectionFactory),
+				testClasses);
+
+		// Then
+		JSONObject[] jsonMessages = jsonObjectsMessageSenderFactory
+				.getMessages()[0];
+		JSONObject[] messages = getMessages(connectionFactory);
+		assertEquals(jsonMessages.length, messages.length);
+		for (int i = 0; i < jsonMessages.length; i++) {
+			if ("RUNTIME".equals(jsonMessages[i].getString("messageId"))) {
+				// elapsed time is different
+				jsonMessages[i].remove("elapsedTime");
+				messages[i].remove("elapsedTime");
+			}
+			JSONAssert.assertEquals(jsonMessages[i], messages[i],
+					JSONCompareMode.STRICT);
+		}
+	}
+
+	@Test
+	public void testStringsAreEscaped() throws Exception {
+		// Given
+		StringWriter writer = new StringWriter();
+		MessageSender jsonMessageSender = new WriterMessageSender(writer);
+		InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		MessageSender messageSender = new ByteBufferMessageSender(
+				connectionFactory);
+		String trace = "\"quoted\" \\ back\tslash\r\n\u0001 \u00e9\u20ac\ud83d\ude00 "
+				+ new String(new char[5000]).replace('\0', 'x');
+
+		// When
+		for (MessageSender sender : new MessageSender[] { jsonMessageSender,
+				messageSender }) {
+			sender.init();
+			sender.testRunStarted("run \"\u00e9\"");
+			sender.testTree("1", "suite/\u00e9", null, true);
+			sender.testTree("2", "test", "1", false);
+			sender.testError("2", "test", trace);
+			sender.testRunEnded(-12345);
+			sender.shutdown();
+		}
+
+		// Then
+		String[] jsonMessages = writer.toString().split("\n");
+		JSONObject[] messages = getMessages(connectionFactory);
+		assertEquals(jsonMessages.length, messages.length);
+		for (int i = 0; i < jsonMessages.length; i++) {
+			JSONAssert.assertEquals(new JSONObject(jsonMessages[i]),
+					messages[i], JSONCompareMode.STRICT);
+		}
+		assertEquals(trace, messages[3].getString("trace"));
+	}
+
+	@Test
+	public void testEventsDoNotAllocate() throws Exception {
+		// Given
+		java.lang.management.ThreadMXBean threadMXBean = ManagementFactory
+				.getThreadMXBean();
+		if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)
+				|| !((com.sun.management.ThreadMXBean) threadMXBean)
+						.isThreadAllocatedMemorySupported()) {
+			throw new SkipException("Thread allocated memory not supported");
+		}
+		com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+		allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+		MessageSender jsonMessageSender = new WriterMessageSender(
+				new DiscardingWriter());
+		MessageSender messageSender = new ByteBufferMessageSender(
+				new DiscardingConnectionFactory());
+		// as wrapped by the listener
+		MessageSender countingMessageSender = new CountingMessageSender(
+				new ByteBufferMessageSender(new DiscardingConnectionFactory()));
+		jsonMessageSender.init();
+		messageSender.init();
+		countingMessageSender.init();
+		jsonMessageSender.testRunStarted("run");
+		messageSender.testRunStarted("run");
+		countingMessageSender.testRunStarted("run");
+		// warm up
+		sendEvents(jsonMessageSender, 10000);
+		sendEvents(messageSender, 10000);
+		sendEvents(countingMessageSender, 10000);
+
+		// When
+		long threadId = Thread.currentThread().getId();
+		long start = allocationMXBean.getThreadAllocatedBytes(threadId);
+		sendEvents(jsonMessageSender, 10000);
+		long jsonAllocatedBytes = allocationMXBean
+				.getThreadAllocatedBytes(threadId) - start;
+		start = allocationMXBean.getThreadAllocatedBytes(threadId);
+		sendEvents(messageSender, 10000);
+		long allocatedBytes = allocationMXBean
+				.getThreadAllocatedBytes(threadId) - start;
+		start = allocationMXBean.getThreadAllocatedBytes(threadId);
+		sendEvents(countingMessageSender, 10000);
+		long countingAllocatedBytes = allocationMXBean
+				.getThreadAllocatedBytes(threadId) - start;
+
+		// Then
+		assertTrue(allocatedBytes + " bytes allocated, " + jsonAllocatedBytes
+				+ " with JSON objects",
+				allocatedBytes < jsonAllocatedBytes / 20);
+		assertTrue(countingAllocatedBytes + " bytes allocated when counted, "
+				+ jsonAllocatedBytes + " with JSON objects",
+				countingAllocatedBytes < jsonAllocatedBytes / 20);
+	}
+
+	@Test
+	public void testListenerEventsAreNotConvertedToMessages() throws Exception {
+		// Given
+		final AtomicInteger messages = new AtomicInteger();
+		final AtomicInteger events = new AtomicInteger();
+		IMessageSenderFactory messageSenderFactory = new IMessageSenderFactory() {
+
+			@Override
+			public MessageSender getMessageSender() {
+				return new ByteBufferMessageSender(
+						new DiscardingConnectionFactory()) {
+
+					@Override
+					public void testStarted(String testId, String testName,
+							boolean ignored) throws IOException {
+						events.incrementAndGet();
+						super.testStarted(testId, testName, ignored);
+					}
+
+					@Override
+					protected void send(Message message) throws IOException {
+						messages.incrementAndGet();
+						super.send(message);
+					}
+				};
+			}
+		};
+
+		// When
+		runTests(messageSenderFactory, TestHelloWorld.class,
+				CharUtilsTest.class);
+
+		// Then
+		assertTrue(events.get() > 0);
+		assertEquals(0, messages.get());
+	}
+
+	private void sendEvents(MessageSender messageSender, int count)
+			throws IOException {
+		for (int i = 0; i < count; i++) {
+			messageSender.testStarted("42", "myTest", false);
+			messageSender.testEnded("42", "myTest", false);
+		}
+	}
+
+	private JSONObject[] getMessages(InMemoryConnectionFactory connectionFactory)
+			throws IOException {
+		String[] lines = connectionFactory.getConnections().get(0)
+				.toString("UTF-8").split("\n");
+		JSONObject[] messages = new JSONObject[lines.length];
+		for (int i = 0; i < lines.length; i++) {
+			messages[i] = new JSONObject(lines[i]);
+		}
+		return messages;
+	}
+
+	private void runTests(IMessageSenderFactory messageSenderFactory,
+			Class<?>... testClasses) {
+		TestNG testNG = new TestNG();
+		testNG.setUseDefaultListeners(false);
+		testNG.setVerbose(0);
+		testNG.setTestClasses(testClasses);
+		testNG.addListener((Object) new TestNGProgressRunListener(
+				messageSenderFactory));
+		testNG.run();
+	}
+
+	private static class WriterMessageSender extends MessageSender {
+
+		public WriterMessageSender(Writer writer) {
+			this.writer = writer;
+		}
+
+	}
+
+	private static class DiscardingWriter extends Writer {
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+	}
+
+	private static class DiscardingConnectionFactory implements
+			IConnectionFactory {
+
+		public OutputStream openConnection() throws IOException {
+			return new DiscardingOutputStream();
+		}
+
+	}
+
+	private static class DiscardingOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+
+	}
+
+}
@@ -0,0 +1,89 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.TestNGProgressRunListener;
+import org.json.JSONObject;
+import org.testng.TestNG;
+import org.testng.annotations.Test;
+
+import com.mkyong.testng.examples.helloworld.TestHelloWorld;
+import com.mkyong.testng.examples.parameter.CharUtilsTest;
+
+public class CompressingConnectionFactoryTest {
+
+	@Test
+	public void testCompressedMessages() throws Exception {
+		// Given
+		InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		CompressingConnectionFactory compressingConnectionFactory = new CompressingConnectionFactory(
+				connectionFactory);
+
+		// When
+		TestNG testNG = new TestNG();
+		testNG.setUseDefaultListeners(false);
+		testNG.setVerbose(0);
+		testNG.setTestClasses(new Class<?>[] { TestHelloWorld.class,
+				CharUtilsTest.class });
+		testNG.addListener((Object) new TestNGProgressRunListener(
+				new ConnectionMessageSenderFactory(compressingConnectionFactory)));
+		testNG.run();
+
+		// Then
+		byte[] compressed = connectionFactory.getConnections().get(0)
+				.toByteArray();
+		String[] lines = inflate(compressed).split("\n");
+		assertEquals("TESTC", new JSONObject(lines[0]).getString("messageId"));
+		assertEquals("RUNTIME",
+				new JSONObject(lines[lines.length - 1]).getString("messageId"));
+		assertEquals(compressed.length,
+				compressingConnectionFactory.getCompressedBytes());
+		assertTrue(compressingConnectionFactory.getUncompressedBytes() > 2 * compressed.length);
+	}
+
+	@Test
+	public void testFlushedMessagesCanBeDecompressed() throws Exception {
+		// Given
+		InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		CompressingConnectionFactory compressingConnectionFactory = new CompressingConnectionFactory(
+				connectionFactory, Deflater.DEFAULT_COMPRESSION, 0);
+		ConnectionMessageSender messageSender = new ConnectionMessageSender(
+				compressingConnectionFactory);
+		messageSender.init();
+
+		// When
+		messageSender.testRunStarted("run");
+
+		// Then
+		// the stream is not finished but what has been sent can be read
+		String sent = inflate(connectionFactory.getConnections().get(0)
+				.toByteArray());
+		assertEquals("TESTC", new JSONObject(sent.trim()).getString("messageId"));
+		messageSender.shutdown();
+	}
+
+	private static String inflate(byte[] compressed) throws IOException {
+		InputStream in = new InflaterInputStream(new ByteArrayInputStream(
+				compressed), new Inflater());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		try {
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+		} catch (IOException e) {
+			// unfinished stream
+		}
+		return out.toString("UTF-8");
+	}
+
+}
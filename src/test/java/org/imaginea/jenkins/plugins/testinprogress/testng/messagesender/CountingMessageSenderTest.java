@@ -0,0 +1,41 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import static org.junit.Assert.*;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.utils.JSONObjectsMessageSenderFactory;
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+public class CountingMessageSenderTest {
+
+	@Test
+	public void testLazyTracesAreCountedWhenRendered() throws Exception {
+		// Given
+		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		CountingMessageSender messageSender = new CountingMessageSender(
+				new AsyncMessageSender(
+						jsonObjectsMessageSenderFactory.getMessageSender(), 10,
+						QueueFullPolicy.BLOCK));
+		messageSender.init();
+
+		// When
+		messageSender.testRunStarted("run");
+		messageSender.testError("1", "test", new Exception("failure"),
+				new ITraceRenderer() {
+
+					@Override
+					public String render(Throwable throwable, String testName) {
+						return "trace\u00e9";
+					}
+				});
+		messageSender.shutdown();
+
+		// Then
+		JSONObject[] messages = jsonObjectsMessageSenderFactory.getMessages()[0];
+		assertEquals("trace\u00e9", messages[1].getString("trace"));
+		assertEquals(2, messageSender.getMessages());
+		// "run", "1", "test" and the trace (2 bytes for the accent)
+		assertEquals(3 + 1 + 4 + 7, messageSender.getBytes());
+	}
+
+}
@@ -0,0 +1,38 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+
+/**
+ * Message senders created by this factory fail once the given number of
+ * messages have been sent (by all the message senders)
+ */
+class FailingMessageSenderFactory implements IMessageSenderFactory {
+	private final IMessageSenderFactory messageSenderFactory;
+	private final AtomicInteger remainingMessagesBeforeFailure;
+
+	public FailingMessageSenderFactory(
+			IMessageSenderFactory messageSenderFactory,
+			int messagesBeforeFailure) {
+		this.messageSenderFactory = messageSenderFactory;
+		this.remainingMessagesBeforeFailure = new AtomicInteger(
+				messagesBeforeFailure);
+	}
+
+	public MessageSender getMessageSender() {
+		return new ForwardingMessageSender(
+				messageSenderFactory.getMessageSender()) {
+
+			@Override
+			protected void send(Message message) throws IOException {
+				if (remainingMessagesBeforeFailure.getAndDecrement() == 0) {
+					throw new IOException("Connection reset");
+				}
+				super.send(message);
+			}
+		};
+	}
+}
@@ -0,0 +1,25 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connections opened by this factory are kept in memory
+ */
+class InMemoryConnectionFactory implements IConnectionFactory {
+	private final List<ByteArrayOutputStream> connections = new ArrayList<ByteArrayOutputStream>();
+
+	public synchronized OutputStream openConnection() throws IOException {
+		ByteArrayOutputStream connection = new ByteArrayOutputStream();
+		connections.add(connection);
+		return connection;
+	}
+
+	public synchronized List<ByteArrayOutputStream> getConnections() {
+		return new ArrayList<ByteArrayOutputStream>(connections);
+	}
+
+}
@@ -0,0 +1,218 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import static org.junit.Assert.*;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.TestNGProgressRunListener;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+import org.json.JSONObject;
+import org.testng.TestNG;
+import org.testng.annotations.Test;
+import org.testng.xml.SuiteXmlParser;
+import org.testng.xml.XmlSuite;
+
+public class MultiplexingMessageSenderFactoryTest {
+
+	@Test
+	public void testRunsShareConnection() throws Exception {
+		// Given
+		InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		MultiplexingMessageSenderFactory messageSenderFactory = new MultiplexingMessageSenderFactory(
+				connectionFactory);
+
+		// When
+		runTests(messageSenderFactory, "testng-suite-parallel-tests.xml");
+
+		// Then
+		assertEquals(1, connectionFactory.getConnections().size());
+		Map<String, List<JSONObject>> messagesByRunId = getMessagesByRunId(connectionFactory.getConnections()
+				.get(0).toString("UTF-8"));
+		assertEquals(2, messagesByRunId.size());
+		for (List<JSONObject> messages : messagesByRunId.values()) {
+			assertEquals("TESTC", messages.get(0).getString("messageId"));
+			assertEquals("RUNTIME", messages.get(messages.size() - 1)
+					.getString("messageId"));
+		}
+	}
+
+	@Test
+	public void testConnectionIsReopenedAfterFailure() throws Exception {
+		// Given
+		final InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		MultiplexingMessageSenderFactory messageSenderFactory = new MultiplexingMessageSenderFactory(
+				new IConnectionFactory() {
+					private int connections = 0;
+
+					public synchronized OutputStream openConnection()
+							throws IOException {
+						if (connections++ == 0) {
+							return new OutputStream() {
+
+								@Override
+								public void write(int b) throws IOException {
+									throw new IOException("Connection reset");
+								}
+							};
+						}
+						return connectionFactory.openConnection();
+					}
+				});
+		MessageSender firstMessageSender = messageSenderFactory
+				.getMessageSender();
+		firstMessageSender.init();
+		firstMessageSender.testRunStarted("firstRun");
+		IOException failure = null;
+		try {
+			// fails as soon as the shared connection has failed
+			firstMessageSender.testRunEnded(1000);
+			firstMessageSender.shutdown();
+		} catch (IOException e) {
+			failure = e;
+		}
+
+		// When
+		MessageSender secondMessageSender = messageSenderFactory
+				.getMessageSender();
+		secondMessageSender.init();
+		secondMessageSender.testRunStarted("secondRun");
+		secondMessageSender.testRunEnded(1000);
+		secondMessageSender.shutdown();
+
+		// Then
+		assertNotNull(failure);
+		Map<String, List<JSONObject>> messagesByRunId = getMessagesByRunId(connectionFactory
+				.getConnections().get(0).toString("UTF-8"));
+		assertEquals(1, messagesByRunId.size());
+		assertEquals(2, messagesByRunId.get("secondRun").size());
+	}
+
+	@Test
+	public void testMessagesAreDroppedWhenChannelIsFull() throws Exception {
+		// Given
+		InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		CountDownLatch latch = new CountDownLatch(1);
+		MultiplexingMessageSenderFactory messageSenderFactory = new MultiplexingMessageSenderFactory(
+				getBlockingConnectionFactory(connectionFactory, latch), 2,
+				QueueFullPolicy.DROP);
+		MultiplexedMessageSender messageSender = (MultiplexedMessageSender) messageSenderFactory
+				.getMessageSender();
+		messageSender.init();
+
+		// When
+		messageSender.testRunStarted("runId");
+		for (int i = 0; i < 100; i++) {
+			messageSender.testTree(Integer.toString(i), "test" + i, null,
+					false);
+		}
+		latch.countDown();
+		messageSender.shutdown();
+
+		// Then
+		String output = connectionFactory.getConnections().get(0)
+				.toString("UTF-8");
+		int messages = getMessagesByRunId(output).get("runId").size();
+		assertTrue(messageSender.getDroppedMessages() > 0);
+		assertEquals(101, messages + messageSender.getDroppedMessages());
+	}
+
+	@Test
+	public void testSpilledMessagesAreSentInOrder() throws Exception {
+		// Given
+		InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		CountDownLatch latch = new CountDownLatch(1);
+		MultiplexingMessageSenderFactory messageSenderFactory = new MultiplexingMessageSenderFactory(
+				getBlockingConnectionFactory(connectionFactory, latch), 2,
+				QueueFullPolicy.SPILL);
+		MessageSender messageSender = messageSenderFactory.getMessageSender();
+		messageSender.init();
+
+		// When
+		messageSender.testRunStarted("runId");
+		for (int i = 0; i < 100; i++) {
+			messageSender.testTree(Integer.toString(i), "test\u00e9" + i,
+					null, false);
+		}
+		latch.countDown();
+		messageSender.shutdown();
+
+		// Then
+		List<JSONObject> messages = getMessagesByRunId(
+				connectionFactory.getConnections().get(0).toString("UTF-8"))
+				.get("runId");
+		assertEquals(101, messages.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals("test\u00e9" + i,
+					messages.get(i + 1).getString("testName"));
+		}
+	}
+
+	/**
+	 * Connections of this factory wait for the latch before writing
+	 */
+	private IConnectionFactory getBlockingConnectionFactory(
+			final InMemoryConnectionFactory connectionFactory,
+			final CountDownLatch latch) {
+		return new IConnectionFactory() {
+
+			public OutputStream openConnection() throws IOException {
+				return new FilterOutputStream(connectionFactory
+						.openConnection()) {
+
+					@Override
+					public void write(byte[] b, int off, int len)
+							throws IOException {
+						try {
+							latch.await();
+						} catch (InterruptedException e) {
+							throw new IOException(e);
+						}
+						out.write(b, off, len);
+					}
+				};
+			}
+		};
+	}
+
+	private Map<String, List<JSONObject>> getMessagesByRunId(String output) {
+		Map<String, List<JSONObject>> messagesByRunId = new LinkedHashMap<String, List<JSONObject>>();
+		for (String line : output.split("\n")) {
+			JSONObject message = new JSONObject(line);
+			String runId = message.getString("runId");
+			List<JSONObject> messages = messagesByRunId.get(runId);
+			if (messages == null) {
+				messages = new ArrayList<JSONObject>();
+				messagesByRunId.put(runId, messages);
+			}
+			messages.add(message);
+		}
+		return messagesByRunId;
+	}
+
+	private void runTests(MultiplexingMessageSenderFactory messageSenderFactory,
+			String resourceName) {
+		InputStream inputStream = TestNGProgressRunListener.class
+				.getResourceAsStream(resourceName);
+		XmlSuite xmlSuite = new SuiteXmlParser().parse(resourceName,
+				inputStream, true);
+		List<XmlSuite> xmlSuites = new ArrayList<XmlSuite>();
+		xmlSuites.add(xmlSuite);
+
+		TestNG testNG = new TestNG();
+		testNG.setUseDefaultListeners(false);
+		testNG.setVerbose(0);
+		testNG.setXmlSuites(xmlSuites);
+		testNG.addListener((Object) new TestNGProgressRunListener(
+				messageSenderFactory));
+		testNG.run();
+	}
+
+}
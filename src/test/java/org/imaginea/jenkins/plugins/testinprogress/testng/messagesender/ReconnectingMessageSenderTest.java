@@ -0,0 +1,191 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.utils.JSONObjectsMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.IMessageSenderFactory;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+public class ReconnectingMessageSenderTest {
+
+	@Test
+	public void testRunStateIsResentAfterReconnection() throws Exception {
+		// Given
+		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		// first connection fails after tree and 2 events
+		FailingMessageSenderFactory failingMessageSenderFactory = new FailingMessageSenderFactory(
+				jsonObjectsMessageSenderFactory, 5);
+		ReconnectingMessageSender messageSender = new ReconnectingMessageSender(
+				failingMessageSenderFactory, 100, 0, 0);
+		messageSender.init();
+
+		// When
+		messageSender.testRunStarted("runId");
+		messageSender.testTree("1", "run", null, true);
+		messageSender.testTree("2", "test", "1", false);
+		messageSender.testStarted("2", "test", false);
+		messageSender.testEnded("2", "test", false);
+		messageSender.testStarted("2", "test", false);
+		messageSender.testEnded("2", "test", false);
+		messageSender.testRunEnded(1000);
+		messageSender.shutdown();
+
+		// Then
+		assertEquals(1, messageSender.getReconnections());
+		JSONObject[] messages = jsonObjectsMessageSenderFactory.getMessages()[1];
+		String[] expectedMessageIds = { "TESTC", "TSTTREE", "TSTTREE",
+				"TESTS", "TESTE", "RUNTIME" };
+		assertEquals(expectedMessageIds.length, messages.length);
+		for (int i = 0; i < expectedMessageIds.length; i++) {
+			assertEquals(expectedMessageIds[i],
+					messages[i].getString("messageId"));
+		}
+	}
+
+	@Test(timeOut = 10000)
+	public void testTestThreadsDoNotWaitForReconnection() throws Exception {
+		// Given
+		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		// first connection fails after 3 messages
+		final FailingMessageSenderFactory failingMessageSenderFactory = new FailingMessageSenderFactory(
+				jsonObjectsMessageSenderFactory, 3);
+		final CountDownLatch serverRestarted = new CountDownLatch(1);
+		IMessageSenderFactory messageSenderFactory = new IMessageSenderFactory() {
+			private final AtomicInteger connections = new AtomicInteger();
+
+			public MessageSender getMessageSender() {
+				MessageSender messageSender = failingMessageSenderFactory
+						.getMessageSender();
+				if (connections.getAndIncrement() == 0) {
+					return messageSender;
+				}
+				return new ForwardingMessageSender(messageSender) {
+
+					@Override
+					public void init() throws IOException {
+						try {
+							serverRestarted.await();
+						} catch (InterruptedException e) {
+							throw new IOException(e);
+						}
+						super.init();
+					}
+				};
+			}
+		};
+		ReconnectingMessageSender messageSender = new ReconnectingMessageSender(
+				messageSenderFactory, 100, 0, 0);
+		messageSender.init();
+
+		// When
+		messageSender.testRunStarted("runId");
+		messageSender.testTree("1", "run", null, true);
+		messageSender.testTree("heartbeat", "heartbeat 0", "1", false);
+		messageSender.testTree("2", "test", "1", false);
+		for (int i = 1; i <= 10; i++) {
+			messageSender.testTree("heartbeat", "heartbeat " + i, "1", false);
+		}
+		messageSender.testStarted("2", "test", false);
+		messageSender.testEnded("2", "test", false);
+		int backlog = messageSender.getBacklog();
+		serverRestarted.countDown();
+		messageSender.testRunEnded(1000);
+		messageSender.shutdown();
+
+		// Then
+		assertEquals(2, backlog);
+		JSONObject[] messages = jsonObjectsMessageSenderFactory.getMessages()[1];
+		String[] expectedMessageIds = { "TESTC", "TSTTREE", "TSTTREE",
+				"TSTTREE", "TESTS", "TESTE", "RUNTIME" };
+		assertEquals(expectedMessageIds.length, messages.length);
+		for (int i = 0; i < expectedMessageIds.length; i++) {
+			assertEquals(expectedMessageIds[i],
+					messages[i].getString("messageId"));
+		}
+		assertEquals("heartbeat 10", messages[2].getString("testName"));
+		assertEquals("2", messages[3].getString("testId"));
+	}
+
+	@Test
+	public void testBacklogIsBounded() throws Exception {
+		// Given
+		// server is down
+		IMessageSenderFactory messageSenderFactory = new IMessageSenderFactory() {
+
+			public MessageSender getMessageSender() {
+				return new MessageSender() {
+
+					@Override
+					public void init() throws IOException {
+						throw new IOException("Connection refused");
+					}
+				};
+			}
+		};
+		ReconnectingMessageSender messageSender = new ReconnectingMessageSender(
+				messageSenderFactory, 10, 60000, 60000);
+		messageSender.init();
+
+		// When
+		messageSender.testRunStarted("runId");
+		messageSender.testTree("1", "run", null, true);
+		for (int i = 0; i < 20; i++) {
+			messageSender.testStarted("1", "run", false);
+		}
+
+		// Then
+		assertEquals(10, messageSender.getDroppedMessages());
+	}
+
+	@Test
+	public void testEndedLeavesOfTestTreeAreBounded() throws Exception {
+		// Given
+		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		// first connection fails on testRunEnded
+		FailingMessageSenderFactory failingMessageSenderFactory = new FailingMessageSenderFactory(
+				jsonObjectsMessageSenderFactory, 306);
+		ReconnectingMessageSender messageSender = new ReconnectingMessageSender(
+				failingMessageSenderFactory, 10, 0, 0);
+		messageSender.init();
+
+		// When
+		messageSender.testRunStarted("runId");
+		messageSender.testTree("1", "run", null, true);
+		messageSender.testTree("2", "class", "1", true);
+		messageSender.testTree("3", "method", "2", false);
+		for (int i = 0; i < 100; i++) {
+			String testId = "summary" + i;
+			messageSender.testTree(testId, testId, "1", false);
+			messageSender.testStarted(testId, testId, false);
+			messageSender.testEnded(testId, testId, false);
+		}
+		messageSender.testStarted("3", "method", false);
+		messageSender.testEnded("3", "method", false);
+		messageSender.testRunEnded(1000);
+		messageSender.shutdown();
+
+		// Then
+		assertEquals(1, messageSender.getReconnections());
+		JSONObject[] messages = jsonObjectsMessageSenderFactory.getMessages()[1];
+		assertEquals("TESTC", messages[0].getString("messageId"));
+		int treeMessages = 0;
+		for (JSONObject message : messages) {
+			if ("TSTTREE".equals(message.getString("messageId"))) {
+				treeMessages++;
+			}
+		}
+		// run, class and the last 10 ended leaves
+		assertEquals(12, treeMessages);
+		assertEquals("1", messages[1].getString("testId"));
+		assertEquals("2", messages[2].getString("testId"));
+		assertEquals("RUNTIME",
+				messages[messages.length - 1].getString("messageId"));
+	}
+
+}
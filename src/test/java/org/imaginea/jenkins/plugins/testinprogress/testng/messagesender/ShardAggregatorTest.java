@@ -0,0 +1,338 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.TestInProgressConfiguration;
+import org.imaginea.jenkins.plugins.testinprogress.testng.TestNGProgressRunListener;
+import org.jenkinsci.testinprogress.TestInProgressServers;
+import org.json.JSONObject;
+import org.testng.TestNG;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.io.Files;
+import com.mkyong.testng.examples.helloworld.TestHelloWorld;
+import com.mkyong.testng.examples.suite.TestOrder;
+
+public class ShardAggregatorTest {
+	private static final long SHARD_TIMEOUT_MS = 60000;
+	private TestInProgressServers testInProgressServers;
+	private File testEventsDir;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		testEventsDir = Files.createTempDir();
+		testInProgressServers = new TestInProgressServers(testEventsDir, 0, 0);
+		testInProgressServers.start();
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception {
+		try {
+			testInProgressServers.stop();
+		} finally {
+			delete(testEventsDir);
+		}
+	}
+
+	@Test
+	public void testShardsAreMergedInOneRun() throws Exception {
+		// Given
+		RecordingConnectionFactory connectionFactory = new RecordingConnectionFactory(
+				new SocketConnectionFactory("localhost",
+						testInProgressServers.getBuildTestEventsServerPort()));
+		ShardAggregator shardAggregator = new ShardAggregator(0,
+				connectionFactory, 2);
+		shardAggregator.start();
+
+		// When
+		Process firstShard = startShard(shardAggregator.getPort(), "1",
+				TestOrder.class);
+		Process secondShard = startShard(shardAggregator.getPort(), "2",
+				TestHelloWorld.class);
+		assertEquals(0, waitFor(firstShard));
+		assertEquals(0, waitFor(secondShard));
+		shardAggregator.stop();
+
+		// Then
+		List<JSONObject> messages = getMessages(connectionFactory
+				.getRecorded());
+		Set<String> runIds = new HashSet<String>();
+		Set<String> testIds = new HashSet<String>();
+		int runStarts = 0;
+		int rootTestNodes = 0;
+		int testStarts = 0;
+		for (JSONObject message : messages) {
+			runIds.add(message.getString("runId"));
+			String messageId = message.getString("messageId");
+			if ("TESTC".equals(messageId)) {
+				runStarts++;
+			} else if ("TSTTREE".equals(messageId)) {
+				assertTrue(testIds.add(message.getString("testId")));
+				if (message.isNull("parentId")) {
+					rootTestNodes++;
+				} else {
+					assertTrue(testIds.contains(message.getString("parentId")));
+				}
+			} else if ("TESTS".equals(messageId)) {
+				testStarts++;
+			}
+		}
+		assertEquals(1, runIds.size());
+		assertEquals("Command line suite-Command line test", runIds.iterator()
+				.next());
+		assertEquals(1, runStarts);
+		assertEquals(1, rootTestNodes);
+		assertEquals(5, testStarts);
+		assertEquals("TESTC", messages.get(0).getString("messageId"));
+		assertEquals("RUNTIME", messages.get(messages.size() - 1).getString(
+				"messageId"));
+	}
+
+	@Test
+	public void testDuplicateRunEndsAreIgnored() throws Exception {
+		// Given
+		InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		ShardAggregator shardAggregator = new ShardAggregator(0,
+				connectionFactory, 2);
+		shardAggregator.start();
+
+		// When
+		shardAggregator.send(runStarted("1"), true);
+		shardAggregator.send(runStarted("2"), true);
+		shardAggregator.send(runEnded("1", 10), true);
+		shardAggregator.send(runEnded("1", 10), true);
+		int runEndsBeforeLastShard = countRunEnds(getMessages(connectionFactory
+				.getConnections().get(0)));
+		shardAggregator.send(runEnded("2", 20), true);
+		shardAggregator.stop();
+
+		// Then
+		List<JSONObject> messages = getMessages(connectionFactory
+				.getConnections().get(0));
+		assertEquals(0, runEndsBeforeLastShard);
+		assertEquals(1, countRunEnds(messages));
+		assertEquals(20, messages.get(messages.size() - 1).getLong(
+				"elapsedTime"));
+	}
+
+	@Test
+	public void testRunOfClosedShardIsEnded() throws Exception {
+		// Given
+		InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		ShardAggregator shardAggregator = new ShardAggregator(0,
+				connectionFactory, 2);
+		shardAggregator.start();
+		shardAggregator.send(runStarted("2"), true);
+		shardAggregator.send(runEnded("2", 20), true);
+
+		// When
+		Socket socket = new Socket("localhost", shardAggregator.getPort());
+		Writer writer = new OutputStreamWriter(socket.getOutputStream(),
+				"UTF-8");
+		writer.write(runStarted("1") + "\n");
+		// shard crashed before the end of its run
+		writer.close();
+		long timeout = System.currentTimeMillis() + 5000;
+		while (countRunEnds(getMessages(connectionFactory.getConnections()
+				.get(0))) == 0
+				&& System.currentTimeMillis() < timeout) {
+			Thread.sleep(20);
+		}
+		List<JSONObject> messages = getMessages(connectionFactory
+				.getConnections().get(0));
+		shardAggregator.stop();
+
+		// Then
+		assertEquals(1, countRunEnds(messages));
+		assertEquals("RUNTIME", messages.get(messages.size() - 1).getString(
+				"messageId"));
+	}
+
+	@Test
+	public void testRunsNotRunByAllShardsAreEndedOnStop() throws Exception {
+		// Given
+		InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		ShardAggregator shardAggregator = new ShardAggregator(0,
+				connectionFactory, 2);
+		shardAggregator.start();
+		shardAggregator.send(runStarted("1"), true);
+		shardAggregator.send(runEnded("1", 10), true);
+
+		// When
+		shardAggregator.stop();
+
+		// Then
+		List<JSONObject> messages = getMessages(connectionFactory
+				.getConnections().get(0));
+		assertEquals(1, countRunEnds(messages));
+		assertEquals("RUNTIME", messages.get(messages.size() - 1).getString(
+				"messageId"));
+		assertEquals("myRun", messages.get(messages.size() - 1).getString(
+				"runId"));
+	}
+
+	@Test
+	public void testRunsThatAreNotShardedAreUnchanged() throws Exception {
+		// Given
+		InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+		ShardAggregator shardAggregator = new ShardAggregator(0,
+				connectionFactory, 2);
+		shardAggregator.start();
+		String line = "{\"messageId\":\"TESTC\",\"runId\":\"myRun\"}";
+
+		// When
+		shardAggregator.send(line, true);
+		shardAggregator.stop();
+
+		// Then
+		assertEquals(new JSONObject(line).toString() + "\n", connectionFactory
+				.getConnections().get(0).toString("UTF-8"));
+	}
+
+	private String runStarted(String shardId) {
+		return "{\"messageId\":\"TESTC\",\"runId\":\"myRun"
+				+ ShardAggregator.SHARD_SEPARATOR + shardId + "\"}";
+	}
+
+	private String runEnded(String shardId, long elapsedTime) {
+		return "{\"messageId\":\"RUNTIME\",\"runId\":\"myRun"
+				+ ShardAggregator.SHARD_SEPARATOR + shardId
+				+ "\",\"elapsedTime\":" + elapsedTime + "}";
+	}
+
+	private int countRunEnds(List<JSONObject> messages) {
+		int runEnds = 0;
+		for (JSONObject message : messages) {
+			if ("RUNTIME".equals(message.getString("messageId"))) {
+				runEnds++;
+			}
+		}
+		return runEnds;
+	}
+
+	private List<JSONObject> getMessages(ByteArrayOutputStream connection)
+			throws IOException {
+		List<JSONObject> messages = new ArrayList<JSONObject>();
+		for (String line : connection.toString("UTF-8").split("\n")) {
+			if (!line.isEmpty()) {
+				messages.add(new JSONObject(line));
+			}
+		}
+		return messages;
+	}
+
+	/**
+	 * Wait for the end of the shard, destroying it if it takes too long
+	 *
+	 * @return the exit value of the shard
+	 */
+	private int waitFor(Process shard) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + SHARD_TIMEOUT_MS;
+		while (true) {
+			try {
+				return shard.exitValue();
+			} catch (IllegalThreadStateException e) {
+				// still running
+			}
+			if (System.currentTimeMillis() > timeout) {
+				shard.destroy();
+				fail("Shard did not end within " + SHARD_TIMEOUT_MS + " ms");
+			}
+			Thread.sleep(50);
+		}
+	}
+
+	/**
+	 * Run the test class in a new JVM sending its events to the aggregator
+	 */
+	private Process startShard(int port, String shardId, Class<?> testClass)
+			throws Exception {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin"
+				+ File.separator + "java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("-D" + BufferedSocketMessageSenderFactory.PORT_PROPERTY
+				+ "=" + port);
+		command.add("-D" + TestNGProgressRunListener.BATCH_PROPERTY + "=true");
+		command.add("-D" + TestInProgressConfiguration.SHARD_ID_PROPERTY + "="
+				+ shardId);
+		command.add(TestNG.class.getName());
+		command.add("-usedefaultlisteners");
+		command.add("false");
+		command.add("-listener");
+		command.add(TestNGProgressRunListener.class.getName());
+		command.add("-testclass");
+		command.add(testClass.getName());
+		ProcessBuilder processBuilder = new ProcessBuilder(command);
+		processBuilder.redirectErrorStream(true);
+		processBuilder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+		return processBuilder.start();
+	}
+
+	private void delete(File f) throws IOException {
+		if (f.isDirectory()) {
+			for (File c : f.listFiles())
+				delete(c);
+		}
+		if (!f.delete())
+			throw new FileNotFoundException("Failed to delete file: " + f);
+	}
+
+	/**
+	 * Records what is sent to the connections of another factory
+	 */
+	private static class RecordingConnectionFactory implements
+			IConnectionFactory {
+		private final IConnectionFactory connectionFactory;
+		private final ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+
+		public RecordingConnectionFactory(IConnectionFactory connectionFactory) {
+			this.connectionFactory = connectionFactory;
+		}
+
+		public OutputStream openConnection() throws IOException {
+			return new FilterOutputStream(connectionFactory.openConnection()) {
+
+				@Override
+				public void write(byte[] b, int off, int len)
+						throws IOException {
+					synchronized (recorded) {
+						recorded.write(b, off, len);
+					}
+					out.write(b, off, len);
+				}
+
+				@Override
+				public void write(int b) throws IOException {
+					synchronized (recorded) {
+						recorded.write(b);
+					}
+					out.write(b);
+				}
+			};
+		}
+
+		public ByteArrayOutputStream getRecorded() {
+			return recorded;
+		}
+
+	}
+
+}
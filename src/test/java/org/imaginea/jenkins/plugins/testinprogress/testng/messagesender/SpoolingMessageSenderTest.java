@@ -0,0 +1,189 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.messagesender;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.imaginea.jenkins.plugins.testinprogress.testng.utils.JSONObjectsMessageSenderFactory;
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+public class SpoolingMessageSenderTest {
+
+	@Test
+	public void testSpooledMessagesAreReplayedAfterFailure() throws Exception {
+		// Given
+		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		// first connection fails after 5 messages
+		FailingMessageSenderFactory failingMessageSenderFactory = new FailingMessageSenderFactory(
+				jsonObjectsMessageSenderFactory, 5);
+		SpoolingMessageSender messageSender = new SpoolingMessageSender(
+				failingMessageSenderFactory, getTempDirectory(),
+				SpoolingMessageSenderFactory.DEFAULT_MAX_SPOOL_BYTES, 10, 10000);
+		messageSender.init();
+
+		// When
+		messageSender.testRunStarted("runId");
+		for (int i = 0; i < 20; i++) {
+			messageSender.testTree(Integer.toString(i), "test" + i, null,
+					false);
+		}
+		messageSender.testRunEnded(1000);
+		messageSender.shutdown();
+
+		// Then
+		JSONObject[][] messages = jsonObjectsMessageSenderFactory
+				.getMessages();
+		assertEquals(2, messages.length);
+		JSONObject[] replayedMessages = messages[1];
+		assertEquals(22, replayedMessages.length);
+		assertEquals("TESTC", replayedMessages[0].getString("messageId"));
+		assertEquals("RUNTIME", replayedMessages[21].getString("messageId"));
+	}
+
+	@Test
+	public void testMessagesAreDroppedWhenSpoolIsFull() throws Exception {
+		// Given
+		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		SpoolingMessageSender messageSender = new SpoolingMessageSender(
+				jsonObjectsMessageSenderFactory, getTempDirectory(), 100, 10,
+				10000);
+		messageSender.init();
+
+		// When
+		messageSender.testRunStarted("runId");
+		for (int i = 0; i < 20; i++) {
+			messageSender.testTree(Integer.toString(i), "test" + i, null,
+					false);
+		}
+		messageSender.testRunEnded(1000);
+		messageSender.shutdown();
+
+		// Then
+		JSONObject[] messages = jsonObjectsMessageSenderFactory.getMessages()[0];
+		assertTrue(messageSender.getDroppedMessages() > 0);
+		assertEquals(22, messages.length + messageSender.getDroppedMessages());
+		assertEquals("RUNTIME",
+				messages[messages.length - 1].getString("messageId"));
+	}
+
+	@Test
+	public void testLongRunIsNotLimitedBySpoolSize() throws Exception {
+		// Given
+		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		SpoolingMessageSender messageSender = new SpoolingMessageSender(
+				jsonObjectsMessageSenderFactory, getTempDirectory(), 1000, 10,
+				10000);
+		messageSender.init();
+
+		// When
+		messageSender.testRunStarted("runId");
+		messageSender.testTree("0", "test", null, false);
+		for (int i = 0; i < 1000; i++) {
+			messageSender.testStarted("0", "test", false);
+			messageSender.testEnded("0", "test", false);
+			// the server keeps up with the run
+			waitForEmptyBacklog(messageSender);
+		}
+		long spooledBytes = messageSender.getSpooledBytes();
+		messageSender.testRunEnded(1000);
+		messageSender.shutdown();
+
+		// Then
+		JSONObject[] messages = jsonObjectsMessageSenderFactory.getMessages()[0];
+		assertEquals(0, messageSender.getDroppedMessages());
+		assertEquals(2003, messages.length);
+		assertTrue(spooledBytes < 2000);
+	}
+
+	@Test
+	public void testMessagesSpooledDuringCompactionAreKeptInOrder()
+			throws Exception {
+		// Given
+		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		SpoolingMessageSender messageSender = new SpoolingMessageSender(
+				jsonObjectsMessageSenderFactory, getTempDirectory(), 10000,
+				10, 10000);
+		messageSender.init();
+
+		// When
+		messageSender.testRunStarted("runId");
+		messageSender.testTree("0", "test", null, false);
+		for (int i = 0; i < 50000; i++) {
+			// the run does not wait for the server, except when far behind
+			messageSender.testStarted(Integer.toString(i), "test", false);
+			while (messageSender.getBacklog() > 200) {
+				Thread.sleep(1);
+			}
+		}
+		messageSender.testRunEnded(1000);
+		messageSender.shutdown();
+
+		// Then
+		JSONObject[] messages = jsonObjectsMessageSenderFactory.getMessages()[0];
+		assertEquals(0, messageSender.getDroppedMessages());
+		assertEquals(50003, messages.length);
+		int previousTestId = -1;
+		for (int i = 2; i < messages.length - 1; i++) {
+			int testId = Integer.parseInt(messages[i].getString("testId"));
+			assertTrue(testId > previousTestId);
+			previousTestId = testId;
+		}
+		assertEquals("RUNTIME",
+				messages[messages.length - 1].getString("messageId"));
+	}
+
+	@Test
+	public void testTestTreeIsReplayedAfterCompaction() throws Exception {
+		// Given
+		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		FailingMessageSenderFactory failingMessageSenderFactory = new FailingMessageSenderFactory(
+				jsonObjectsMessageSenderFactory, 500);
+		SpoolingMessageSender messageSender = new SpoolingMessageSender(
+				failingMessageSenderFactory, getTempDirectory(), 1000, 10,
+				10000);
+		messageSender.init();
+
+		// When
+		messageSender.testRunStarted("runId");
+		for (int i = 0; i < 300; i++) {
+			String testId = Integer.toString(i);
+			messageSender.testTree(testId, "test" + i, null, false);
+			messageSender.testStarted(testId, "test" + i, false);
+			messageSender.testEnded(testId, "test" + i, false);
+			waitForEmptyBacklog(messageSender);
+		}
+		messageSender.testRunEnded(1000);
+		messageSender.shutdown();
+
+		// Then
+		JSONObject[][] messages = jsonObjectsMessageSenderFactory
+				.getMessages();
+		assertEquals(2, messages.length);
+		JSONObject[] replayedMessages = messages[1];
+		assertEquals("TESTC", replayedMessages[0].getString("messageId"));
+		assertEquals("RUNTIME",
+				replayedMessages[replayedMessages.length - 1]
+						.getString("messageId"));
+		int testTrees = 0;
+		for (JSONObject message : replayedMessages) {
+			if ("TSTTREE".equals(message.getString("messageId"))) {
+				testTrees++;
+			}
+		}
+		assertEquals(300, testTrees);
+		assertTrue(replayedMessages.length < 902);
+	}
+
+	private void waitForEmptyBacklog(SpoolingMessageSender messageSender)
+			throws InterruptedException {
+		while (messageSender.getBacklog() > 0) {
+			Thread.sleep(1);
+		}
+	}
+
+	private File getTempDirectory() {
+		return new File(System.getProperty("java.io.tmpdir"));
+	}
+
+}
@@ -0,0 +1,32 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Test with a slow class configuration and a failing method configuration
+ *
+ */
+public class ConfigurationSample {
+
+	@BeforeClass
+	public void setUpClass() throws InterruptedException {
+		Thread.sleep(50);
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		Assert.fail("tear down failed");
+	}
+
+	@Test
+	public void testFirst() {
+	}
+
+	@Test
+	public void testSecond() {
+	}
+
+}
@@ -0,0 +1,23 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Data provider test with a failing invocation
+ *
+ */
+public class FailingDataProviderSample {
+
+	@DataProvider
+	public Object[][] values() {
+		return new Object[][] { { 1 }, { 2 }, { 3 } };
+	}
+
+	@Test(dataProvider = "values")
+	public void testValue(int value) {
+		Assert.assertTrue(value != 2);
+	}
+
+}
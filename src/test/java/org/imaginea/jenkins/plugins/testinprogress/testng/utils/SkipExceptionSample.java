@@ -0,0 +1,17 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.utils;
+
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+/**
+ * Test skipped after it started
+ *
+ */
+public class SkipExceptionSample {
+
+	@Test
+	public void testSkipped() {
+		throw new SkipException("not today");
+	}
+
+}
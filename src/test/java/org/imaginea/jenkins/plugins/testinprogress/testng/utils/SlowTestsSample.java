@@ -0,0 +1,26 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.utils;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests with known durations
+ *
+ */
+public class SlowTestsSample {
+
+	@Test
+	public void testSlowest() throws InterruptedException {
+		Thread.sleep(200);
+	}
+
+	@Test
+	public void testSlow() throws InterruptedException {
+		Thread.sleep(100);
+	}
+
+	@Test
+	public void testFast() throws InterruptedException {
+		Thread.sleep(20);
+	}
+
+}
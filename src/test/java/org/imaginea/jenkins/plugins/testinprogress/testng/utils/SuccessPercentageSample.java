@@ -0,0 +1,21 @@
+package org.imaginea.jenkins.plugins.testinprogress.testng.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test whose invocations fail one time out of two, within its success
+ * percentage
+ *
+ */
+public class SuccessPercentageSample {
+	private final AtomicInteger invocations = new AtomicInteger();
+
+	@Test(invocationCount = 10, successPercentage = 50)
+	public void testHalfFails() {
+		Assert.assertTrue(invocations.incrementAndGet() % 2 == 0);
+	}
+
+}
@@ -2,9 +2,13 @@ package org.imaginea.jenkins.plugins.testinprogress.testng.utils;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.imaginea.jenkins.plugins.testinprogress.testng.messagesender.BinaryMessageDecoder;
+import org.jenkinsci.testinprogress.messagesender.MessageSender;
 import org.json.JSONObject;
 import org.skyscreamer.jsonassert.JSONCompare;
 import org.skyscreamer.jsonassert.JSONCompareMode;
@@ -33,6 +37,24 @@ public class TestMessageUtils {
 		assertTrue(jsonResult.passed());
 	}
 	
+	/**
+	 * Decode a stream written by a BinaryMessageSender. Messages are the same
+	 * as the ones sent in JSON
+	 * 
+	 * @param bytes
+	 * @return
+	 * @throws IOException
+	 */
+	public static JSONObject[] getMessagesFromBinaryStream(byte[] bytes)
+			throws IOException {
+		JSONObjectsMessageSenderFactory jsonObjectsMessageSenderFactory = new JSONObjectsMessageSenderFactory();
+		MessageSender messageSender = jsonObjectsMessageSenderFactory
+				.getMessageSender();
+		new BinaryMessageDecoder().decode(new ByteArrayInputStream(bytes),
+				messageSender);
+		return jsonObjectsMessageSenderFactory.getMessages()[0];
+	}
+
 	public static void printTestMessages(JSONObject[] messages) {
 		for (JSONObject message : messages) {
 			System.out.println(message.toString());